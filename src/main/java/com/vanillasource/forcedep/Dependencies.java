@@ -52,6 +52,45 @@ public interface Dependencies extends AutoCloseable {
 
       void reference(String objectsFqn, String fieldName);
 
+      /**
+       * A call with the names given by their ids in a symbol table. By default the names are
+       * looked up and passed on as strings. Stages that identify dependencies by ids override
+       * this, so the names are not hashed again.
+       */
+      default void call(Symbols symbols, int objectId, int methodId) {
+         call(symbols.name(objectId), symbols.name(methodId));
+      }
+
+      /**
+       * A reference with the names given by their ids, the same way as calls.
+       */
+      default void reference(Symbols symbols, int objectId, int fieldId) {
+         reference(symbols.name(objectId), symbols.name(fieldId));
+      }
+
+      /**
+       * Calls of the method delivered at once, by the ids of their names. The arrays may be
+       * reused by the caller after this returns. By default the calls are delivered one by one.
+       * Batches do not keep the order of calls relative to references: classes are analyzed
+       * delivering all calls of a method before all of its references, not in the order they
+       * appear in the code.
+       * @param count The number of calls at the start of the arrays.
+       */
+      default void calls(Symbols symbols, int[] objectIds, int[] methodIds, int count) {
+         for (int i=0; i<count; i++) {
+            call(symbols, objectIds[i], methodIds[i]);
+         }
+      }
+
+      /**
+       * References of the method delivered at once, the same way as calls.
+       */
+      default void references(Symbols symbols, int[] objectIds, int[] fieldIds, int count) {
+         for (int i=0; i<count; i++) {
+            reference(symbols, objectIds[i], fieldIds[i]);
+         }
+      }
+
       @Override
       void close();
    }
@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.vanillasource.forcedep;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interned names of objects, methods and fields, each with a dense integer id. Names
+ * passed through the dependencies are interned once when read, so stages can
+ * identify them by id, or by pairs of ids, instead of building new strings.
+ * Can be shared between threads.
+ */
+public final class Symbols {
+   private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+   private volatile String[] names = new String[256];
+   private int size = 0;
+
+   /**
+    * @return The canonical instance of the given name.
+    */
+   public String intern(String name) {
+      return name(id(name));
+   }
+
+   /**
+    * @return The id of the given name, assigning the next free id if the name is new.
+    */
+   public int id(String name) {
+      Integer id = ids.get(name);
+      if (id != null) {
+         return id;
+      }
+      synchronized (this) {
+         return ids.computeIfAbsent(name, this::add);
+      }
+   }
+
+   private int add(String name) {
+      if (size == names.length) {
+         names = Arrays.copyOf(names, size*2);
+      }
+      // The name is stored before the id is published in the map
+      names[size] = name;
+      return size++;
+   }
+
+   /**
+    * @return The name of an id returned previously by this table.
+    */
+   public String name(int id) {
+      return names[id];
+   }
+
+   /**
+    * @return A single key for an owner and one of its members, like a method or a field.
+    */
+   public long pair(String ownerName, String memberName) {
+      return pair(id(ownerName), id(memberName));
+   }
+
+   /**
+    * @return A single key for the ids of an owner and one of its members.
+    */
+   public static long pair(int ownerId, int memberId) {
+      return ((long) ownerId << 32) | memberId;
+   }
+
+   public int size() {
+      return ids.size();
+   }
+}
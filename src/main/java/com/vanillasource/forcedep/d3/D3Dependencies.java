@@ -83,8 +83,9 @@ public final class D3Dependencies implements Dependencies {
          @Override
          public Dependencies.Method method(String methodName, boolean local) {
             methodCount++;
+            String methodId = methodId(objectFqn, methodName);
             JsonObject jsonMethod = new JsonObject();
-            jsonMethod.add("id", methodId(objectFqn, methodName));
+            jsonMethod.add("id", methodId);
             jsonMethod.add("type", "method");
             jsonMethod.add("class", objectFqn);
             jsonMethod.add("interface", pureInterface?1:0);
@@ -97,7 +98,7 @@ public final class D3Dependencies implements Dependencies {
                @Override
                public void call(String calledObjectFqn, String calledMethodName) {
                   JsonObject jsonCall = new JsonObject();
-                  jsonCall.add("source", methodId(objectFqn, methodName));
+                  jsonCall.add("source", methodId);
                   jsonCall.add("target", methodId(calledObjectFqn, calledMethodName));
                   objectInterface.computeIfAbsent(calledObjectFqn, k -> new CompletableFuture<>())
                      .thenAccept(calledPureInterface -> jsonCall.add("interface", calledPureInterface));
@@ -107,7 +108,7 @@ public final class D3Dependencies implements Dependencies {
                @Override
                public void reference(String referenceObjectFqn, String referenceFieldName) {
                   JsonObject jsonReference = new JsonObject();
-                  jsonReference.add("source", methodId(objectFqn, methodName));
+                  jsonReference.add("source", methodId);
                   jsonReference.add("target", fieldId(referenceObjectFqn, referenceFieldName));
                   links.add(jsonReference);
                }
@@ -0,0 +1,63 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.vanillasource.forcedep.flow;
+
+import com.vanillasource.forcedep.Objects;
+import com.vanillasource.forcedep.Dependencies;
+import java.util.concurrent.CancellationException;
+import java.util.function.Function;
+
+/**
+ * Publishes the dependencies found by an analysis. Each subscriber gets its own analysis,
+ * running on a new thread, which is throttled by the demand of the subscriber.
+ */
+public final class AnalysisPublisher implements Flow.Publisher<DependencyEvent> {
+   private final Objects objects;
+   private final Function<Dependencies, Dependencies> transforms;
+
+   public AnalysisPublisher(Objects objects) {
+      this(objects, Function.identity());
+   }
+
+   /**
+    * @param transforms Builds the transformations to apply before the events are published,
+    * like <code>TransformPipeline::build</code>.
+    */
+   public AnalysisPublisher(Objects objects, Function<Dependencies, Dependencies> transforms) {
+      this.objects = objects;
+      this.transforms = transforms;
+   }
+
+   @Override
+   public void subscribe(Flow.Subscriber<? super DependencyEvent> subscriber) {
+      SubscriberDependencies events = new SubscriberDependencies(subscriber);
+      Thread analysis = new Thread(() -> {
+         try {
+            Dependencies dependencies = transforms.apply(events);
+            objects.analyze(dependencies);
+            dependencies.close();
+         } catch (CancellationException e) {
+            // Subscriber is not interested anymore
+         } catch (RuntimeException | Error e) {
+            events.fail(e);
+         }
+      }, "forcedep-publisher");
+      analysis.setDaemon(true);
+      analysis.start();
+   }
+}
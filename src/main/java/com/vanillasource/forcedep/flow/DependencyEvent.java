@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.vanillasource.forcedep.flow;
+
+import java.util.Arrays;
+
+/**
+ * A single callback of the dependencies as a value. Objects and methods are identified by
+ * ids unique in one analysis, since more than one may be open at the same time.
+ */
+public final class DependencyEvent {
+   private static final String[] NO_NAMES = new String[0];
+   private final Type type;
+   private final long objectId;
+   private final long methodId;
+   private final String name;
+   private final String memberName;
+   private final boolean local;
+   private final boolean pureInterface;
+   private final String[] superObjectFqns;
+
+   public enum Type {
+      /**
+       * An object with its FQN as name.
+       */
+      OBJECT,
+      /**
+       * A field of the object, with the field as name.
+       */
+      FIELD,
+      /**
+       * A method of the object, with the method as name.
+       */
+      METHOD,
+      /**
+       * A call from the method, with the called object as name, and called method as member name.
+       */
+      CALL,
+      /**
+       * A field reference from the method, with the object as name, and the field as member name.
+       */
+      REFERENCE,
+      METHOD_CLOSE,
+      OBJECT_CLOSE
+   }
+
+   DependencyEvent(Type type, long objectId, long methodId, String name, String memberName, boolean local, boolean pureInterface, String[] superObjectFqns) {
+      this.type = type;
+      this.objectId = objectId;
+      this.methodId = methodId;
+      this.name = name;
+      this.memberName = memberName;
+      this.local = local;
+      this.pureInterface = pureInterface;
+      this.superObjectFqns = superObjectFqns==null?NO_NAMES:superObjectFqns;
+   }
+
+   public Type getType() {
+      return type;
+   }
+
+   public long getObjectId() {
+      return objectId;
+   }
+
+   /**
+    * @return The id of the method, for method events and events in a method, otherwise 0.
+    */
+   public long getMethodId() {
+      return methodId;
+   }
+
+   public String getName() {
+      return name;
+   }
+
+   public String getMemberName() {
+      return memberName;
+   }
+
+   public boolean isLocal() {
+      return local;
+   }
+
+   public boolean isPureInterface() {
+      return pureInterface;
+   }
+
+   public String[] getSuperObjectFqns() {
+      return superObjectFqns.clone();
+   }
+
+   @Override
+   public String toString() {
+      return type+"(object "+objectId+", method "+methodId+", "+name+", "+memberName
+         +(local?", local":"")+(pureInterface?", pure interface":"")
+         +(superObjectFqns.length>0?", "+Arrays.toString(superObjectFqns):"")+")";
+   }
+}
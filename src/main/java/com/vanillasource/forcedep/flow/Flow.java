@@ -0,0 +1,53 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.vanillasource.forcedep.flow;
+
+/**
+ * The interfaces of <code>java.util.concurrent.Flow</code>, with the same semantics, for Java 8.
+ * On Java 9 or newer, <code>JdkFlow</code> adapts them to the standard ones.
+ */
+public final class Flow {
+   private Flow() {
+   }
+
+   public interface Publisher<T> {
+      void subscribe(Subscriber<? super T> subscriber);
+   }
+
+   public interface Subscriber<T> {
+      void onSubscribe(Subscription subscription);
+
+      void onNext(T item);
+
+      void onError(Throwable throwable);
+
+      void onComplete();
+   }
+
+   public interface Subscription {
+      /**
+       * Allow the given number of additional items to be sent.
+       */
+      void request(long n);
+
+      /**
+       * Stop sending items, eventually.
+       */
+      void cancel();
+   }
+}
@@ -0,0 +1,210 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.vanillasource.forcedep.flow;
+
+import com.vanillasource.forcedep.Dependencies;
+import com.vanillasource.forcedep.flow.DependencyEvent.Type;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Sends all callbacks to a subscriber as events. The thread reporting the dependencies waits
+ * while the subscriber has not requested more events, so a slow subscriber slows down the
+ * analysis, instead of events piling up in memory. After the subscriber cancels, the next
+ * callback throws a <code>CancellationException</code> to stop the analysis.
+ * <p>
+ * Signals to the subscriber are serialized by their own lock, separate from the one guarding
+ * demand, so the subscriber may request or cancel from any thread while it handles an event.
+ * A non-positive request is signaled as an error with the next event, or at close.
+ */
+public final class SubscriberDependencies implements Dependencies {
+   private final Flow.Subscriber<? super DependencyEvent> subscriber;
+   private final Lock lock = new ReentrantLock();
+   private final Condition demanded = lock.newCondition();
+   private final Lock signalLock = new ReentrantLock();
+   private long demand = 0;
+   private boolean cancelled = false;
+   private Throwable failure;
+   // Guarded by the signal lock
+   private boolean terminated = false;
+   private long lastId = 0;
+
+   public SubscriberDependencies(Flow.Subscriber<? super DependencyEvent> subscriber) {
+      this.subscriber = subscriber;
+      subscriber.onSubscribe(new Flow.Subscription() {
+         @Override
+         public void request(long n) {
+            lock.lock();
+            try {
+               if (n <= 0) {
+                  failure = new IllegalArgumentException("requested "+n+" events, must be positive");
+                  cancelled = true;
+               } else {
+                  // Demand over Long.MAX_VALUE is unbounded
+                  demand = demand+n<0?Long.MAX_VALUE:demand+n;
+               }
+               demanded.signalAll();
+            } finally {
+               lock.unlock();
+            }
+         }
+
+         @Override
+         public void cancel() {
+            lock.lock();
+            try {
+               cancelled = true;
+               demanded.signalAll();
+            } finally {
+               lock.unlock();
+            }
+         }
+      });
+   }
+
+   /**
+    * Signal the subscriber that the analysis failed, unless it already cancelled.
+    */
+   public void fail(Throwable throwable) {
+      terminate(throwable);
+   }
+
+   /**
+    * Signal the subscriber that all events were sent.
+    */
+   @Override
+   public void close() {
+      terminate(null);
+   }
+
+   /**
+    * Send the terminal signal, if not sent yet and the subscriber did not cancel. An invalid
+    * request is signaled in place of the given one.
+    * @param throwable The failure of the analysis, or null if it completed.
+    */
+   private void terminate(Throwable throwable) {
+      signalLock.lock();
+      try {
+         Throwable requestFailure;
+         boolean subscriberCancelled;
+         lock.lock();
+         try {
+            requestFailure = failure;
+            subscriberCancelled = cancelled && failure == null;
+            failure = null;
+            cancelled = true;
+            demanded.signalAll();
+         } finally {
+            lock.unlock();
+         }
+         if (terminated) {
+            return;
+         }
+         terminated = true;
+         if (requestFailure != null) {
+            subscriber.onError(requestFailure);
+         } else if (!subscriberCancelled) {
+            if (throwable == null) {
+               subscriber.onComplete();
+            } else {
+               subscriber.onError(throwable);
+            }
+         }
+      } finally {
+         signalLock.unlock();
+      }
+   }
+
+   @Override
+   public Dependencies.Object object(String objectFqn, boolean local, boolean pureInterface, String... superObjectFqns) {
+      long objectId = send(Type.OBJECT, 0, 0, objectFqn, null, local, pureInterface, superObjectFqns);
+      return new Dependencies.Object() {
+         @Override
+         public Dependencies.Method method(String methodName, boolean local) {
+            long methodId = send(Type.METHOD, objectId, 0, methodName, null, local, false, null);
+            return new Dependencies.Method() {
+               @Override
+               public void call(String objectsFqn, String methodName) {
+                  send(Type.CALL, objectId, methodId, objectsFqn, methodName, false, false, null);
+               }
+
+               @Override
+               public void reference(String objectsFqn, String fieldName) {
+                  send(Type.REFERENCE, objectId, methodId, objectsFqn, fieldName, false, false, null);
+               }
+
+               @Override
+               public void close() {
+                  send(Type.METHOD_CLOSE, objectId, methodId, null, null, false, false, null);
+               }
+            };
+         }
+
+         @Override
+         public void field(String fieldName) {
+            send(Type.FIELD, objectId, 0, fieldName, null, false, false, null);
+         }
+
+         @Override
+         public void close() {
+            send(Type.OBJECT_CLOSE, objectId, 0, null, null, false, false, null);
+         }
+      };
+   }
+
+   /**
+    * Wait for demand and send one event. Events are sent while holding the signal lock, so
+    * they are never sent concurrently, even if reported from multiple threads. The lock
+    * guarding demand is not held while sending.
+    * @return The id of the object or method, if the event opens one.
+    */
+   private long send(Type type, long objectId, long methodId, String name, String memberName, boolean local, boolean pureInterface, String[] superObjectFqns) {
+      signalLock.lock();
+      try {
+         boolean stopped;
+         lock.lock();
+         try {
+            while (demand == 0 && !cancelled) {
+               demanded.awaitUninterruptibly();
+            }
+            stopped = cancelled;
+            if (!stopped && demand != Long.MAX_VALUE) {
+               demand--;
+            }
+         } finally {
+            lock.unlock();
+         }
+         if (stopped || terminated) {
+            // Signals an invalid request, nothing otherwise
+            terminate(null);
+            throw new CancellationException("subscriber cancelled the analysis");
+         }
+         if (type == Type.OBJECT) {
+            objectId = ++lastId;
+         } else if (type == Type.METHOD) {
+            methodId = ++lastId;
+         }
+         subscriber.onNext(new DependencyEvent(type, objectId, methodId, name, memberName, local, pureInterface, superObjectFqns));
+         return type==Type.OBJECT?objectId:methodId;
+      } finally {
+         signalLock.unlock();
+      }
+   }
+}
@@ -26,37 +26,71 @@ import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Handle;
 import com.vanillasource.forcedep.Objects;
 import com.vanillasource.forcedep.Dependencies;
+import com.vanillasource.forcedep.Symbols;
 import java.io.InputStream;
 import java.io.IOException;
 import java.io.UncheckedIOException;
-import java.util.List;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.Map;
+import java.util.HashMap;
 import org.apache.log4j.Logger;
 
 /**
- * A single class analyzed by the ASM library.
+ * A single class analyzed by the ASM library. The class is read only when analyzed,
+ * so the given stream has to stay open until then, and the class can be analyzed only once.
  */
 public final class AsmClass implements Objects {
    private static final Logger LOGGER = Logger.getLogger(AsmClass.class);
-   private final ClassReader classReader;
+   private static final int MAX_POOLED_BUFFER_SIZE = 1024*1024;
+   private static final ThreadLocal<byte[]> BUFFERS = ThreadLocal.withInitial(() -> new byte[64*1024]);
+   private final InputStream bytes;
+   private final Symbols symbols;
 
    public AsmClass(InputStream bytes) {
-      try {
-         this.classReader = new ClassReader(bytes);
-      } catch (IOException e) {
-         throw new UncheckedIOException(e);
-      }
+      this(bytes, new Symbols());
+   }
+
+   /**
+    * @param symbols All names are reported interned in this table.
+    */
+   public AsmClass(InputStream bytes, Symbols symbols) {
+      this.bytes = bytes;
+      this.symbols = symbols;
    }
 
    @Override
    public void analyze(Dependencies dependencies) {
-      classReader.accept(new AsmClassVisitor(dependencies), ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+      // Class bytes are read into a buffer reused by the thread, since the reader does
+      // not keep them after the class is visited
+      byte[] buffer = BUFFERS.get();
+      int length = 0;
+      try {
+         int read;
+         while ((read = bytes.read(buffer, length, buffer.length-length)) >= 0) {
+            length += read;
+            if (length == buffer.length) {
+               buffer = Arrays.copyOf(buffer, buffer.length*2);
+            }
+         }
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+      if (buffer.length <= MAX_POOLED_BUFFER_SIZE) {
+         BUFFERS.set(buffer);
+      }
+      new ClassReader(buffer, 0, length).accept(new AsmClassVisitor(dependencies, symbols), ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
    }
 
    private static class AsmClassVisitor extends ClassVisitor {
       private final Dependencies dependencies;
+      private final Symbols symbols;
+      // The reader returns the same instance for the same constant, so these are mostly identity hits
+      private final Map<String, Integer> fqnIds = new HashMap<>();
+      private final Map<String, Integer> nameIds = new HashMap<>();
+      private final AsmMethodVisitor methodVisitor = new AsmMethodVisitor();
+      private int objectId;
       private String objectFqn;
       private String[] superObjectFqns;
       private boolean anonymous = false;
@@ -64,24 +98,29 @@ public final class AsmClass implements Objects {
       private Dependencies.Object cachedObject;
       private Set<String> fields = new HashSet<>();
 
-      public AsmClassVisitor(Dependencies dependencies) {
-         super(Opcodes.ASM6);
+      public AsmClassVisitor(Dependencies dependencies, Symbols symbols) {
+         super(Opcodes.ASM9);
          this.dependencies = dependencies;
+         this.symbols = symbols;
       }
 
       @Override
       public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
-         LOGGER.debug("visiting class: "+name+", signature: "+signature);
-         List<String> superObjectFqns = new ArrayList<>();
+         if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("visiting class: "+name+", signature: "+signature);
+         }
+         int superCount = superName==null?0:1;
+         String[] superObjectFqns = new String[superCount+interfaces.length];
          if (superName != null) {
-            superObjectFqns.add(fqn(superName));
+            superObjectFqns[0] = fqn(superName);
          }
-         for (String interfaceName: interfaces) {
-            superObjectFqns.add(fqn(interfaceName));
+         for (int i=0; i<interfaces.length; i++) {
+            superObjectFqns[superCount+i] = fqn(interfaces[i]);
          }
          this.pureInterface = (access & Opcodes.ACC_INTERFACE) != 0;
-         this.objectFqn = fqn(name);
-         this.superObjectFqns = superObjectFqns.toArray(new String[] {});
+         this.objectId = fqnId(name);
+         this.objectFqn = symbols.name(objectId);
+         this.superObjectFqns = superObjectFqns;
       }
 
       private Dependencies.Object object() {
@@ -93,29 +132,60 @@ public final class AsmClass implements Objects {
 
       @Override
       public void visitInnerClass(String name, String outerName, String innerName, int access) {
-         LOGGER.debug("visiting inner class: "+name+", outer name: "+outerName+", inner name: "+innerName);
-         if (fqn(name).equals(objectFqn) && innerName == null) {
+         if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("visiting inner class: "+name+", outer name: "+outerName+", inner name: "+innerName);
+         }
+         if (innerName == null && fqnId(name) == objectId) {
             anonymous = true;
          }
       }
 
       @Override
       public void visitOuterClass(String owner, String name, String descriptor) {
-         LOGGER.debug("visiting outer class: "+name+", owner: "+owner);
+         if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("visiting outer class: "+name+", owner: "+owner);
+         }
       }
 
       @Override
       public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
-         LOGGER.debug("visiting field: "+name);
-         if (!fields.contains(name)) {
-            fields.add(name);
-            object().field(name);
+         if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("visiting field: "+name);
          }
+         field(name);
          return null;
       }
 
-      private static String fqn(String classloaderName) {
-         return classloaderName.replaceAll("/", ".");
+      private void field(String name) {
+         if (fields.add(name)) {
+            object().field(name(name));
+         }
+      }
+
+      private String fqn(String classloaderName) {
+         return symbols.name(fqnId(classloaderName));
+      }
+
+      private int fqnId(String classloaderName) {
+         Integer id = fqnIds.get(classloaderName);
+         if (id == null) {
+            id = symbols.id(classloaderName.replace('/', '.'));
+            fqnIds.put(classloaderName, id);
+         }
+         return id;
+      }
+
+      private String name(String memberName) {
+         return symbols.name(nameId(memberName));
+      }
+
+      private int nameId(String memberName) {
+         Integer id = nameIds.get(memberName);
+         if (id == null) {
+            id = symbols.id(memberName);
+            nameIds.put(memberName, id);
+         }
+         return id;
       }
 
       @Override
@@ -125,42 +195,103 @@ public final class AsmClass implements Objects {
 
       @Override
       public MethodVisitor visitMethod(int callerAccess, String callerName, String callerDescription, String callerSignature, String[] callerExceptions) {
-         LOGGER.debug("visiting method: "+callerName+", signature: "+callerSignature);
-         Dependencies.Method method = object().method(callerName, (callerAccess&Opcodes.ACC_PRIVATE)!=0);
-         return new MethodVisitor(Opcodes.ASM6) {
-            @Override
-            public void visitMethodInsn(int calleeOpcode, String calleeOwner, String calleeName, String calleeDescriptor, boolean calleeIsInterface) {
+         if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("visiting method: "+callerName+", signature: "+callerSignature);
+         }
+         // Methods are visited one after the other, so the same visitor is reused
+         methodVisitor.start(object().method(name(callerName), (callerAccess&Opcodes.ACC_PRIVATE)!=0), callerName);
+         return methodVisitor;
+      }
+
+      /**
+       * Collects calls and references of a method by ids, to deliver them in one batch each at
+       * the end. So all calls are delivered before all references.
+       */
+      private final class AsmMethodVisitor extends MethodVisitor {
+         private Dependencies.Method method;
+         private String callerName;
+         private int[] callOwners = new int[64];
+         private int[] callNames = new int[64];
+         private int callCount = 0;
+         private int[] referenceOwners = new int[64];
+         private int[] referenceNames = new int[64];
+         private int referenceCount = 0;
+
+         private AsmMethodVisitor() {
+            super(Opcodes.ASM9);
+         }
+
+         private void start(Dependencies.Method method, String callerName) {
+            this.method = method;
+            this.callerName = callerName;
+         }
+
+         @Override
+         public void visitMethodInsn(int calleeOpcode, String calleeOwner, String calleeName, String calleeDescriptor, boolean calleeIsInterface) {
+            if (LOGGER.isDebugEnabled()) {
                LOGGER.debug("visiting call: "+calleeName+", owner: "+calleeOwner+", from method: "+callerName);
-               method.call(fqn(calleeOwner), calleeName);
             }
+            call(fqnId(calleeOwner), nameId(calleeName));
+         }
 
-            @Override
-            public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle, Object... bootstrapMethodArguments) {
-               if (bootstrapMethodHandle.getName().equals("metafactory")) {
-                  Handle handle = (Handle) bootstrapMethodArguments[1];
+         @Override
+         public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle, Object... bootstrapMethodArguments) {
+            if (bootstrapMethodHandle.getName().equals("metafactory")) {
+               Handle handle = (Handle) bootstrapMethodArguments[1];
+               if (LOGGER.isDebugEnabled()) {
                   LOGGER.debug("visiting lambda call: "+handle.getName()+", owner: "+handle.getOwner());
-                  method.call(fqn(handle.getOwner()), handle.getName());
                }
+               call(fqnId(handle.getOwner()), nameId(handle.getName()));
             }
+         }
 
-            @Override
-            public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+         @Override
+         public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+            if (LOGGER.isDebugEnabled()) {
                LOGGER.debug("visit field access: "+name+", owner: "+owner+", descriptor: "+descriptor);
-               method.reference(fqn(owner), name);
-               if (fqn(owner).equals(objectFqn) && !fields.contains(name)) {
-                  // Owner of fields sometimes is the current object, not superclass, 
-                  // so make these fields seem like part of this object too
-                  fields.add(name);
-                  object().field(name);
-               }
             }
+            int ownerId = fqnId(owner);
+            reference(ownerId, nameId(name));
+            if (ownerId == objectId) {
+               // Owner of fields sometimes is the current object, not superclass, 
+               // so make these fields seem like part of this object too
+               field(name);
+            }
+         }
+
+         private void call(int ownerId, int nameId) {
+            if (callCount == callOwners.length) {
+               callOwners = Arrays.copyOf(callOwners, callCount*2);
+               callNames = Arrays.copyOf(callNames, callCount*2);
+            }
+            callOwners[callCount] = ownerId;
+            callNames[callCount] = nameId;
+            callCount++;
+         }
+
+         private void reference(int ownerId, int nameId) {
+            if (referenceCount == referenceOwners.length) {
+               referenceOwners = Arrays.copyOf(referenceOwners, referenceCount*2);
+               referenceNames = Arrays.copyOf(referenceNames, referenceCount*2);
+            }
+            referenceOwners[referenceCount] = ownerId;
+            referenceNames[referenceCount] = nameId;
+            referenceCount++;
+         }
 
-            @Override
-            public void visitEnd() {
-               method.close();
+         @Override
+         public void visitEnd() {
+            if (callCount > 0) {
+               method.calls(symbols, callOwners, callNames, callCount);
             }
-         };
+            if (referenceCount > 0) {
+               method.references(symbols, referenceOwners, referenceNames, referenceCount);
+            }
+            method.close();
+            method = null;
+            callCount = 0;
+            referenceCount = 0;
+         }
       }
    }
 }
-
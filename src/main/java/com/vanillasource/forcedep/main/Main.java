@@ -25,55 +25,150 @@ import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.CommandLine;
 import com.vanillasource.forcedep.Objects;
 import com.vanillasource.forcedep.Dependencies;
+import com.vanillasource.forcedep.Symbols;
 import com.vanillasource.forcedep.jvm.AsmClass;
 import com.vanillasource.forcedep.scan.JarObjects;
+import com.vanillasource.forcedep.scan.DirectoryObjects;
+import com.vanillasource.forcedep.scan.ClassCache;
+import com.vanillasource.forcedep.scan.JmodObjects;
+import com.vanillasource.forcedep.scan.JrtObjects;
+import com.vanillasource.forcedep.scan.ListedClasses;
 import com.vanillasource.forcedep.scan.AggregateObjects;
+import com.vanillasource.forcedep.scan.ParallelObjects;
+import com.vanillasource.forcedep.scan.PartitionedObjects;
 import com.vanillasource.forcedep.transform.*;
 import com.vanillasource.forcedep.d3.D3Dependencies;
 import java.util.List;
+import java.util.ArrayList;
 import static java.util.Arrays.asList;
 import java.util.stream.Collectors;
 import java.io.File;
+import java.io.InputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 public final class Main {
+   private static final String JRT_PREFIX = "jrt:/";
    private final String analysisName;
    private final String outputFileName;
    private final boolean active;
    private final int size;
+   private final int parallelism;
+   private final int inFlight;
+   private final boolean ordered;
+   private final int pipelineCapacity;
+   private final String pipelineSpecification;
+   private final boolean verify;
+   private final String cacheFileName;
+   private final long cacheSize;
+   private final long spillThreshold;
+   private final String jrtHome;
    private final List<String> inputFileNames;
    private final List<String> whitelist;
    private final List<String> blacklist;
+   private final List<String> nestedWhitelist;
+   private final List<String> nestedBlacklist;
 
-   public Main(String analysisName, String outputFileName, boolean active, int size, List<String> inputFileNames, List<String> whitelist, List<String> blacklist) {
+   public Main(String analysisName, String outputFileName, boolean active, int size, int parallelism, int inFlight, boolean ordered, int pipelineCapacity, String pipelineSpecification, boolean verify, String cacheFileName, long cacheSize, long spillThreshold, String jrtHome, List<String> inputFileNames, List<String> whitelist, List<String> blacklist, List<String> nestedWhitelist, List<String> nestedBlacklist) {
       this.outputFileName = outputFileName;
       this.inputFileNames = inputFileNames;
       this.active = active;
       this.size = size;
+      this.parallelism = parallelism;
+      this.inFlight = inFlight;
+      this.ordered = ordered;
+      this.pipelineCapacity = pipelineCapacity;
+      this.pipelineSpecification = pipelineSpecification;
+      this.verify = verify;
+      this.cacheFileName = cacheFileName;
+      this.cacheSize = cacheSize;
+      this.spillThreshold = spillThreshold;
+      this.jrtHome = jrtHome;
       this.analysisName = analysisName;
       this.whitelist = whitelist;
       this.blacklist = blacklist;
+      this.nestedWhitelist = nestedWhitelist;
+      this.nestedBlacklist = nestedBlacklist;
    }
 
    public void run() throws Exception {
-      Objects objects = new AggregateObjects(inputFileNames
+      Symbols symbols = new Symbols();
+      Function<InputStream, Objects> classFactory = bytes -> new AsmClass(bytes, symbols);
+      if (cacheFileName == null) {
+         run(symbols, classFactory);
+      } else {
+         try (ClassCache cache = new ClassCache(new File(cacheFileName), cacheSize)) {
+            run(symbols, cache.cached(classFactory));
+         }
+      }
+   }
+
+   private void run(Symbols symbols, Function<InputStream, Objects> classFactory) {
+      // Filtered classes are not even read, the filter is applied again to catch classes
+      // whose FQN does not match their file name
+      FqnFilter filter = new FqnFilter(whitelist, blacklist);
+      // Stages wait only for classes that will actually be analyzed, not everything the
+      // whitelist selects, like the JDK. Classes are listed when the inputs are opened.
+      ListedClasses listedClasses = new ListedClasses(filter);
+      Function<InputStream, Objects> listingClassFactory = listedClasses.analyzing(classFactory);
+      List<PartitionedObjects> inputs = listedClasses.list(inputFileNames
             .stream()
-            .map(File::new)
-            .map(file -> new JarObjects(file, AsmClass::new))
+            .map(inputFileName -> input(inputFileName, listedClasses, listingClassFactory))
             .collect(Collectors.toList()));
+      Objects objects;
+      if (parallelism > 1) {
+         objects = new ParallelObjects(inputs, parallelism, inFlight, ordered, symbols);
+      } else {
+         objects = new AggregateObjects(new ArrayList<>(inputs));
+      }
 
-      try (Dependencies dependencies =
-            new FilteredDependencies(whitelist, blacklist,
-               new OverrideDependencies(
-                  new ExistingObjectsDependencies(
-                     new MergedAnonymousClassesDependencies(
-                        new MergedPrivateMethodsDependencies(
-                           new MergedLambdaDependencies(
-                              new UniqueDependencies(
-                                 new D3Dependencies(analysisName, new File(outputFileName), active, size))))))))) {
+      TransformPipeline pipeline = new TransformPipeline(symbols, filter, listedClasses, listedClasses::nestMembers);
+      if (!ordered && parallelism > 1) {
+         // Filtering is thread-safe, so only selected objects are recorded for other threads.
+         // The specification may filter again, which does not change anything.
+         pipeline.filtered().concurrent();
+      }
+      if (pipelineCapacity > 0) {
+         pipeline.pipelined("transform", pipelineCapacity);
+      }
+      pipeline.stages(pipelineSpecification, spillThreshold);
+      if (pipelineCapacity > 0) {
+         pipeline.pipelined("output", pipelineCapacity);
+      }
+      try (Dependencies dependencies = pipeline.build(new D3Dependencies(analysisName, new File(outputFileName), active, size))) {
          objects.analyze(dependencies);
       }
    }
 
+   /**
+    * Inputs are jar files, module files, class directories, or JDK modules like
+    * <code>jrt:/java.base,java.sql</code>. Just <code>jrt:/</code> selects all modules.
+    */
+   private PartitionedObjects input(String inputFileName, ListedClasses listedClasses, Function<InputStream, Objects> classFactory) {
+      Predicate<String> classFilter = listedClasses.filter();
+      File file = new File(inputFileName);
+      if (inputFileName.startsWith(JRT_PREFIX)) {
+         List<String> moduleNames = asList(inputFileName.substring(JRT_PREFIX.length()).split(","));
+         return new JrtObjects(jrtHome==null?null:new File(jrtHome),
+               module -> moduleNames.equals(asList("")) || moduleNames.contains(module), classFilter, classFactory);
+      } else if (inputFileName.endsWith(".jmod")) {
+         return new JmodObjects(file, classFilter, classFactory);
+      } else if (file.isDirectory()) {
+         return new DirectoryObjects(file.toPath(), classFilter, classFactory);
+      } else {
+         return new JarObjects(file, verify, this::isNestedArchiveIncluded, classFilter, listedClasses, classFactory);
+      }
+   }
+
+   private boolean isNestedArchiveIncluded(String entryName) {
+      return nestedWhitelist.stream().anyMatch(entryName::matches)
+         && nestedBlacklist.stream().noneMatch(entryName::matches);
+   }
+
    public static void main(String[] args) throws Exception {
       Options options = new Options();
       options.addOption(Option.builder("o").longOpt("output").hasArg().argName("FILENAME").desc("The output file to write resulting HTML into").build());
@@ -81,6 +176,18 @@ public final class Main {
       options.addOption(Option.builder("w").longOpt("whitelist").hasArg().argName("REGEXP").desc("Whitelist to filter object FQNs").build());
       options.addOption(Option.builder("s").longOpt("size").hasArg().argName("SIZE").desc("Radius of one object in pixels.").build());
       options.addOption(Option.builder("b").longOpt("blacklist").hasArg().argName("REGEXP").desc("Blacklist to filter object FQNs").build());
+      options.addOption(Option.builder("p").longOpt("parallel").hasArg().argName("THREADS").desc("Scan inputs in parallel on the given number of threads").build());
+      options.addOption(Option.builder().longOpt("in-flight").hasArg().argName("CLASSES").desc("Maximum number of classes read into memory at the same time when scanning in parallel").build());
+      options.addOption(Option.builder().longOpt("unordered").desc("Pass on classes as soon as they are read when scanning in parallel, instead of in input order").build());
+      options.addOption(Option.builder().longOpt("pipelined").hasArg().argName("EVENTS").desc("Run reading, transforming and output on separate threads, buffering the given number of events between them").build());
+      options.addOption(Option.builder().longOpt("pipeline").hasArg().argName("STAGES").desc("Transformations to apply in order, separated by commas, or @FILENAME to read them from a file. Default is "+TransformPipeline.FULL_SPECIFICATION+", replace override with rta to only include overrides in instantiated types").build());
+      options.addOption(Option.builder().longOpt("verify").desc("Verify signatures of signed jar files").build());
+      options.addOption(Option.builder().longOpt("nested-whitelist").hasArg().argName("REGEXP").desc("Whitelist to filter nested archive entry names, like BOOT-INF/lib/.*").build());
+      options.addOption(Option.builder().longOpt("nested-blacklist").hasArg().argName("REGEXP").desc("Blacklist to filter nested archive entry names").build());
+      options.addOption(Option.builder().longOpt("cache").hasArg().argName("FILENAME").desc("Cache analysis results of classes in the given file").build());
+      options.addOption(Option.builder().longOpt("cache-size").hasArg().argName("MEGABYTES").desc("Maximum size of the cache, least recently used classes are evicted").build());
+      options.addOption(Option.builder().longOpt("spill-threshold").hasArg().argName("MEGABYTES").desc("Approximate memory for objects waiting to be merged, above which they are written to a temporary file").build());
+      options.addOption(Option.builder().longOpt("jrt-home").hasArg().argName("DIRECTORY").desc("The JDK to read jrt:/ inputs from, if not the running one").build());
       options.addOption(Option.builder("x").desc("Initialized simulation in stopped state").build());
       CommandLineParser parser = new DefaultParser();
       CommandLine cmdLine = parser.parse(options, args);
@@ -89,12 +196,36 @@ public final class Main {
             cmdLine.getOptionValue('o', "output.html"),
             !cmdLine.hasOption('x'),
             Integer.valueOf(cmdLine.getOptionValue('s', "8")),
+            Integer.valueOf(cmdLine.getOptionValue('p', "1")),
+            Integer.valueOf(cmdLine.getOptionValue("in-flight", "256")),
+            !cmdLine.hasOption("unordered"),
+            Integer.valueOf(cmdLine.getOptionValue("pipelined", "0")),
+            pipelineSpecification(cmdLine.getOptionValue("pipeline", TransformPipeline.FULL_SPECIFICATION)),
+            cmdLine.hasOption("verify"),
+            cmdLine.getOptionValue("cache"),
+            Long.valueOf(cmdLine.getOptionValue("cache-size", "256"))*1024*1024,
+            Long.valueOf(cmdLine.getOptionValue("spill-threshold", "256"))*1024*1024,
+            cmdLine.getOptionValue("jrt-home"),
             cmdLine.getArgList(),
             cmdLine.getOptionValues('w')==null?asList(".*"):asList(cmdLine.getOptionValues('w')),
-            cmdLine.getOptionValues('b')==null?asList():asList(cmdLine.getOptionValues('b')))
+            cmdLine.getOptionValues('b')==null?asList():asList(cmdLine.getOptionValues('b')),
+            cmdLine.getOptionValues("nested-whitelist")==null?asList(".*"):asList(cmdLine.getOptionValues("nested-whitelist")),
+            cmdLine.getOptionValues("nested-blacklist")==null?asList():asList(cmdLine.getOptionValues("nested-blacklist")))
          .run();
    }
 
+   /**
+    * @return The stages given directly, or read from the file after '@', without comments
+    * starting with '#'.
+    */
+   private static String pipelineSpecification(String option) throws IOException {
+      if (option.startsWith("@")) {
+         return new String(Files.readAllBytes(Paths.get(option.substring(1))), StandardCharsets.UTF_8)
+            .replaceAll("#[^\\n]*", " ");
+      }
+      return option;
+   }
+
    private static String generateAnalysisName(List<String> inputFileNames) {
       return inputFileNames.stream()
          .map(File::new)
@@ -0,0 +1,59 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.vanillasource.forcedep.scan;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the remaining bytes of a buffer, without copying the buffer.
+ */
+final class ByteBufferInputStream extends InputStream {
+   private final ByteBuffer buffer;
+
+   public ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+   }
+
+   @Override
+   public int read() {
+      if (!buffer.hasRemaining()) {
+         return -1;
+      }
+      return buffer.get() & 0xFF;
+   }
+
+   @Override
+   public int read(byte[] bytes, int offset, int length) {
+      if (length == 0) {
+         return 0;
+      }
+      if (!buffer.hasRemaining()) {
+         return -1;
+      }
+      int count = Math.min(length, buffer.remaining());
+      buffer.get(bytes, offset, count);
+      return count;
+   }
+
+   @Override
+   public int available() {
+      return buffer.remaining();
+   }
+}
@@ -0,0 +1,307 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.vanillasource.forcedep.scan;
+
+import com.vanillasource.forcedep.Objects;
+import java.io.File;
+import java.io.InputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.LinkedHashMap;
+import java.util.Iterator;
+import java.util.function.Function;
+import org.apache.log4j.Logger;
+
+/**
+ * Persistent cache of analysis results for single classes. Classes are identified by
+ * the metadata of their archive entries or files, like name, size, checksum and modification
+ * time, so results can be replayed without reading the class at all. The least recently
+ * used results are evicted when the cache grows over its size limit.
+ *
+ * Only an index of the results is kept in memory, independently of the size limit. Results
+ * are read from the cache file when replayed, new results are appended to a temporary file,
+ * and both are merged into the cache file when it is closed, if anything changed.
+ */
+public final class ClassCache implements AutoCloseable {
+   private static final Logger LOGGER = Logger.getLogger(ClassCache.class);
+   /**
+    * Has to be changed every time the format or the content of the analysis changes,
+    * so old caches are discarded.
+    */
+   private static final int VERSION = 2;
+   private static final int MAGIC = 0x46444343;
+   private final File file;
+   private final long maxBytes;
+   private final Map<String, Recording> recordings = new LinkedHashMap<>(1024, 0.75f, true);
+   private FileChannel cacheChannel;
+   private FileChannel appendedChannel;
+   private long appendedBytes = 0;
+   private long bytes = 0;
+   private long hits = 0;
+   private long misses = 0;
+   private boolean dirty = false;
+
+   /**
+    * @param file The file to store results in. It is read when results are replayed,
+    * and written when the cache is closed.
+    * @param maxBytes The maximum size of all stored results.
+    */
+   public ClassCache(File file, long maxBytes) {
+      this.file = file;
+      this.maxBytes = maxBytes;
+      if (file.exists()) {
+         load();
+      }
+   }
+
+   /**
+    * @return An object factory that replays results from this cache if possible, or
+    * analyzes with the given factory and stores the results otherwise. Only classes
+    * read by the scanners of this package are cached, since only those are identified.
+    */
+   public Function<InputStream, Objects> cached(Function<InputStream, Objects> objectFactory) {
+      return input -> {
+         if (!(input instanceof ClassInput)) {
+            return objectFactory.apply(input);
+         }
+         String key = ((ClassInput) input).key();
+         Recording cachedRecording = get(key);
+         if (cachedRecording != null) {
+            return dependencies -> recording(cachedRecording).replay(dependencies);
+         }
+         return dependencies -> {
+            RecordedDependencies recording = new RecordedDependencies();
+            objectFactory.apply(input).analyze(recording);
+            put(key, recording);
+            recording.replay(dependencies);
+         };
+      };
+   }
+
+   private synchronized Recording get(String key) {
+      Recording recording = recordings.get(key);
+      if (recording == null) {
+         misses++;
+      } else {
+         hits++;
+      }
+      return recording;
+   }
+
+   private void put(String key, RecordedDependencies recording) {
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      try {
+         recording.write(new DataOutputStream(output));
+         ByteBuffer recordingBytes = ByteBuffer.wrap(output.toByteArray());
+         synchronized (this) {
+            if (appendedChannel == null) {
+               appendedChannel = FileChannel.open(Files.createTempFile("classes", ".cache"),
+                     StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+            }
+            Recording appended = new Recording(appendedChannel, appendedBytes, recordingBytes.remaining(), key);
+            while (recordingBytes.hasRemaining()) {
+               appendedBytes += appendedChannel.write(recordingBytes, appendedBytes);
+            }
+            add(key, appended);
+            dirty = true;
+            evict();
+         }
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+   }
+
+   private void add(String key, Recording recording) {
+      Recording previous = recordings.put(key, recording);
+      if (previous != null) {
+         bytes -= previous.size;
+      }
+      bytes += recording.size;
+   }
+
+   private void evict() {
+      Iterator<Recording> leastRecentlyUsed = recordings.values().iterator();
+      while (bytes > maxBytes && leastRecentlyUsed.hasNext()) {
+         bytes -= leastRecentlyUsed.next().size;
+         leastRecentlyUsed.remove();
+         dirty = true;
+      }
+   }
+
+   private static RecordedDependencies recording(Recording recording) {
+      try {
+         return RecordedDependencies.read(new DataInputStream(new ByteBufferInputStream(recording.read())));
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+   }
+
+   /**
+    * Only the keys and positions of the results are read, the results themselves are read
+    * from the file when they are replayed. A corrupt file is rewritten when closed.
+    */
+   private void load() {
+      long remaining = file.length();
+      try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+         if (remaining < 8 || input.readInt() != MAGIC || input.readInt() != VERSION) {
+            LOGGER.info("ignoring cache "+file+" with unknown format");
+            dirty = true;
+            return;
+         }
+         cacheChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+         long position = 8;
+         while (position < file.length()) {
+            remaining = file.length() - position;
+            int keyLength = remaining < 4 ? -1 : input.readInt();
+            if (keyLength < 0 || keyLength > remaining - 8) {
+               LOGGER.info("ignoring rest of cache "+file+" after a corrupt entry");
+               dirty = true;
+               break;
+            }
+            byte[] key = new byte[keyLength];
+            input.readFully(key);
+            int length = input.readInt();
+            position += 8 + keyLength;
+            if (length < 0 || length > file.length() - position) {
+               LOGGER.info("ignoring rest of cache "+file+" after a corrupt entry");
+               dirty = true;
+               break;
+            }
+            skip(input, length);
+            String keyString = new String(key, StandardCharsets.UTF_8);
+            add(keyString, new Recording(cacheChannel, position, length, keyString));
+            position += length;
+         }
+         evict();
+         LOGGER.info("loaded "+recordings.size()+" cached classes from "+file);
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+   }
+
+   private static void skip(DataInputStream input, int length) throws IOException {
+      int skipped = 0;
+      while (skipped < length) {
+         int count = input.skipBytes(length - skipped);
+         if (count == 0) {
+            throw new EOFException();
+         }
+         skipped += count;
+      }
+   }
+
+   /**
+    * If results were added or evicted, write all results to the file, from least recently
+    * used to most recently used, so the order is preserved when loaded. Results are copied
+    * one at a time.
+    */
+   @Override
+   public synchronized void close() {
+      LOGGER.info("class cache hits: "+hits+", misses: "+misses+", stored classes: "+recordings.size()+", bytes: "+bytes);
+      try {
+         if (dirty) {
+            write();
+         }
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      } finally {
+         closeChannels();
+      }
+   }
+
+   private void write() throws IOException {
+      File temporaryFile = new File(file.getPath()+".tmp");
+      try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)))) {
+         output.writeInt(MAGIC);
+         output.writeInt(VERSION);
+         for (Map.Entry<String, Recording> entry: recordings.entrySet()) {
+            byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            output.writeInt(key.length);
+            output.write(key);
+            ByteBuffer recordingBytes = entry.getValue().read();
+            output.writeInt(recordingBytes.remaining());
+            output.write(recordingBytes.array(), recordingBytes.position(), recordingBytes.remaining());
+         }
+      }
+      // The replaced file stays readable through the channel until it is closed
+      Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+   }
+
+   private void closeChannels() {
+      try {
+         try {
+            if (cacheChannel != null) {
+               cacheChannel.close();
+            }
+         } finally {
+            if (appendedChannel != null) {
+               appendedChannel.close();
+            }
+         }
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+   }
+
+   /**
+    * A result stored in one of the files.
+    */
+   private static final class Recording {
+      private final FileChannel channel;
+      private final long position;
+      private final int length;
+      private final long size;
+
+      public Recording(FileChannel channel, long position, int length, String key) {
+         this.channel = channel;
+         this.position = position;
+         this.length = length;
+         this.size = 8 + key.length() + length;
+      }
+
+      /**
+       * Positional reads do not change the channel, so results can be read concurrently.
+       */
+      public ByteBuffer read() throws IOException {
+         ByteBuffer recordingBytes = ByteBuffer.allocate(length);
+         while (recordingBytes.hasRemaining()) {
+            if (channel.read(recordingBytes, position + recordingBytes.position()) < 0) {
+               throw new EOFException("cached result is truncated");
+            }
+         }
+         recordingBytes.flip();
+         return recordingBytes;
+      }
+   }
+}
@@ -0,0 +1,43 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.vanillasource.forcedep.scan;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Derives object FQNs from the names of class files, so classes can be selected before
+ * they are read.
+ */
+final class ClassFileNames {
+   private static final Pattern CLASSES_ROOT = Pattern.compile("^(?:BOOT-INF/classes/|WEB-INF/classes/|META-INF/versions/\\d+/)");
+
+   private ClassFileNames() {
+   }
+
+   /**
+    * @param classFileName The path of the class file relative to a class path root,
+    * separated by '/'. Class roots of web archives, fat jars and multi-release jars are removed.
+    */
+   public static String fqn(String classFileName) {
+      Matcher root = CLASSES_ROOT.matcher(classFileName);
+      int start = root.lookingAt()?root.end():0;
+      return classFileName.substring(start, classFileName.length() - ".class".length()).replace('/', '.');
+   }
+}
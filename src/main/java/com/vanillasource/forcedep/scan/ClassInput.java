@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.vanillasource.forcedep.scan;
+
+import java.io.InputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Content of a class file, identified by the metadata of its archive entry or file.
+ * The content is opened only when it is first read, so the class can be looked up in
+ * a cache without reading or inflating it.
+ */
+final class ClassInput extends InputStream {
+   private final String key;
+   private final Source source;
+   private InputStream input;
+
+   private ClassInput(String key, Source source) {
+      this.key = key;
+      this.source = source;
+   }
+
+   /**
+    * @param time The modification time as stored in the archive.
+    */
+   public static ClassInput entry(String entryName, long size, long crc, long time, Source source) {
+      return new ClassInput(entryName+":"+size+":"+Long.toHexString(crc)+":"+time, source);
+   }
+
+   /**
+    * A file has no checksum, so it is identified by its path, size and modification time.
+    */
+   public static ClassInput file(Path file, Source source) throws IOException {
+      BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+      return new ClassInput(file.toAbsolutePath()+":"+attributes.size()+":"+attributes.lastModifiedTime().toMillis(), source);
+   }
+
+   public String key() {
+      return key;
+   }
+
+   @Override
+   public int read() throws IOException {
+      return input().read();
+   }
+
+   @Override
+   public int read(byte[] bytes, int offset, int length) throws IOException {
+      return input().read(bytes, offset, length);
+   }
+
+   @Override
+   public void close() throws IOException {
+      if (input != null) {
+         input.close();
+      }
+   }
+
+   private InputStream input() throws IOException {
+      if (input == null) {
+         input = source.open();
+      }
+      return input;
+   }
+
+   public interface Source {
+      InputStream open() throws IOException;
+   }
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.vanillasource.forcedep.scan;
+
+import com.vanillasource.forcedep.Objects;
+import com.vanillasource.forcedep.Dependencies;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.LinkOption;
+import java.nio.file.DirectoryStream;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import org.apache.log4j.Logger;
+
+/**
+ * All classes in a directory tree, like the output directory of a compiler.
+ * The tree is walked in parallel, but classes are always listed in the same order.
+ */
+public final class DirectoryObjects implements PartitionedObjects {
+   private static final Logger LOGGER = Logger.getLogger(DirectoryObjects.class);
+   private final Path directory;
+   private final Predicate<String> classFilter;
+   private final Function<InputStream, Objects> objectFactory;
+
+   public DirectoryObjects(Path directory, Function<InputStream, Objects> objectFactory) {
+      this(directory, fqn -> true, objectFactory);
+   }
+
+   /**
+    * @param classFilter Selects classes to analyze based on the FQN derived from their path
+    * relative to the analyzed directory. Classes not selected are not even read.
+    */
+   public DirectoryObjects(Path directory, Predicate<String> classFilter, Function<InputStream, Objects> objectFactory) {
+      this.directory = directory;
+      this.classFilter = classFilter;
+      this.objectFactory = objectFactory;
+   }
+
+   @Override
+   public void analyze(Dependencies dependencies) {
+      try (Stream<Objects> parts = parts()) {
+         parts.forEachOrdered(part -> part.analyze(dependencies));
+      }
+   }
+
+   @Override
+   public Stream<Objects> parts() {
+      return ForkJoinPool.commonPool().invoke(new ClassFiles(directory))
+         .stream()
+         .map(file -> (Objects) dependencies -> {
+            if (LOGGER.isDebugEnabled()) {
+               LOGGER.debug("analyzing "+file+" from directory "+directory);
+            }
+            try (InputStream input = ClassInput.file(file, () -> Files.newInputStream(file))) {
+               objectFactory.apply(input).analyze(dependencies);
+            } catch (IOException e) {
+               throw new UncheckedIOException(e);
+            }
+         });
+   }
+
+   private boolean isClass(Path path) {
+      String fileName = path.getFileName().toString();
+      return fileName.endsWith(".class") && !fileName.equals("module-info.class")
+         && classFilter.test(ClassFileNames.fqn(classFileName(directory.relativize(path))));
+   }
+
+   private static String classFileName(Path relativePath) {
+      StringBuilder classFileName = new StringBuilder();
+      for (Path name: relativePath) {
+         if (classFileName.length() > 0) {
+            classFileName.append('/');
+         }
+         classFileName.append(name);
+      }
+      return classFileName.toString();
+   }
+
+   /**
+    * Lists class files of a directory, while subdirectories are listed by
+    * separate tasks.
+    */
+   private final class ClassFiles extends RecursiveTask<List<Path>> {
+      private final Path directory;
+
+      public ClassFiles(Path directory) {
+         this.directory = directory;
+      }
+
+      @Override
+      protected List<Path> compute() {
+         List<Path> paths = new ArrayList<>();
+         try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            entries.forEach(paths::add);
+         } catch (IOException e) {
+            throw new UncheckedIOException(e);
+         }
+         Collections.sort(paths);
+         List<Path> classFiles = new ArrayList<>();
+         List<ClassFiles> subdirectories = new ArrayList<>();
+         for (Path path: paths) {
+            if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+               subdirectories.add(new ClassFiles(path));
+            } else if (isClass(path)) {
+               classFiles.add(path);
+            }
+         }
+         ForkJoinTask.invokeAll(subdirectories);
+         for (ClassFiles subdirectory: subdirectories) {
+            classFiles.addAll(subdirectory.join());
+         }
+         return classFiles;
+      }
+   }
+}
@@ -0,0 +1,46 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.vanillasource.forcedep.scan;
+
+import java.io.InputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+final class InputStreams {
+   private InputStreams() {
+   }
+
+   /**
+    * Read all remaining bytes of the given stream, without closing it.
+    */
+   public static byte[] readAll(InputStream input) {
+      try {
+         ByteArrayOutputStream output = new ByteArrayOutputStream();
+         byte[] buffer = new byte[8192];
+         int length;
+         while ((length = input.read(buffer)) >= 0) {
+            output.write(buffer, 0, length);
+         }
+         return output.toByteArray();
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+   }
+}
@@ -22,53 +22,248 @@ import com.vanillasource.forcedep.Objects;
 import com.vanillasource.forcedep.Dependencies;
 import java.io.File;
 import java.io.InputStream;
+import java.io.FilterInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.jar.JarFile;
-import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import java.util.function.Function;
+import java.util.function.Predicate;
+import static java.util.stream.Collectors.toList;
 import org.apache.log4j.Logger;
 
-public final class JarObjects implements Objects {
+/**
+ * All classes in a jar file, including classes of nested archives, like libraries
+ * in fat jars or web archives.
+ */
+public final class JarObjects implements PartitionedObjects {
    private static final Logger LOGGER = Logger.getLogger(JarObjects.class);
    private final File file;
+   private final boolean verify;
+   private final Predicate<String> nestedFilter;
+   private final Predicate<String> classFilter;
+   private final UnlistedArchives unlistedArchives;
    private final Function<InputStream, Objects> objectFactory;
 
    public JarObjects(File file, Function<InputStream, Objects> objectFactory) {
+      this(file, false, objectFactory);
+   }
+
+   public JarObjects(File file, boolean verify, Function<InputStream, Objects> objectFactory) {
+      this(file, verify, name -> true, fqn -> true, objectFactory);
+   }
+
+   /**
+    * @param verify Whether to verify signatures of signed jar files. Verified jar files
+    * are read through the slower <code>JarFile</code>, all others are memory mapped.
+    * @param nestedFilter Selects nested archives to analyze based on their entry name.
+    * @param classFilter Selects classes to analyze based on the FQN derived from their entry name.
+    * Classes not selected are not even read.
+    */
+   public JarObjects(File file, boolean verify, Predicate<String> nestedFilter, Predicate<String> classFilter, Function<InputStream, Objects> objectFactory) {
+      this(file, verify, nestedFilter, classFilter, UnlistedArchives.NONE, objectFactory);
+   }
+
+   /**
+    * @param unlistedArchives Notified of nested archives whose classes are not passed
+    * to the class filter when the parts are listed, only when they are read.
+    */
+   public JarObjects(File file, boolean verify, Predicate<String> nestedFilter, Predicate<String> classFilter,
+         UnlistedArchives unlistedArchives, Function<InputStream, Objects> objectFactory) {
       this.file = file;
+      this.verify = verify;
+      this.nestedFilter = nestedFilter;
+      this.classFilter = classFilter;
+      this.unlistedArchives = unlistedArchives;
       this.objectFactory = objectFactory;
    }
 
+   /**
+    * Reads, analyzes and releases one class at a time, so only a single class is
+    * in memory at any time regardless of the size of the jar file.
+    */
    @Override
    public void analyze(Dependencies dependencies) {
+      try (Stream<Objects> parts = parts()) {
+         parts.forEachOrdered(part -> part.analyze(dependencies));
+      }
+   }
+
+   /**
+    * Classes are selected from the central directories when the parts are listed, also
+    * the ones of stored nested archives. Classes of other nested archives are only
+    * selected while reading them.
+    */
+   @Override
+   public Stream<Objects> parts() {
+      if (verify || file.length() > Integer.MAX_VALUE) {
+         return jarFileParts();
+      } else {
+         return mappedParts(file.toString(), new MappedZipFile(file));
+      }
+   }
+
+   /**
+    * Nested archives that are stored are parsed in place, compressed ones are inflated
+    * incrementally while their classes are read.
+    */
+   private Stream<Objects> mappedParts(String location, MappedZipFile zipFile) {
+      List<Objects> classes = zipFile.entries().stream()
+         .filter(entry -> isClass(entry.getName()))
+         .map(entry -> part(location, entry.getName(),
+                  () -> ClassInput.entry(entry.getName(), entry.getSize(), entry.getCrc(), entry.getTime(), entry::open)))
+         .collect(toList());
+      List<Stream<Objects>> nestedArchives = zipFile.entries().stream()
+         .filter(entry -> isNestedArchive(entry.getName()))
+         .map(entry -> {
+            if (entry.isStored()) {
+               return mappedParts(location+"!/"+entry, new MappedZipFile(entry.raw()));
+            } else {
+               return unlistedParts(location+"!/"+entry, entry::stream);
+            }
+         })
+         .collect(toList());
+      return PartitionedObjects.concat(Stream.concat(Stream.of(classes.stream()), nestedArchives.stream()));
+   }
+
+   private Stream<Objects> jarFileParts() {
       try {
-         JarFile jarFile = new JarFile(file);
-         new AggregateObjects(
-               jarFile.stream()
-               .filter(entry -> entry.getName().endsWith(".class"))
-               .peek(entry -> LOGGER.debug("analyzing "+entry+" from jar file "+file))
-               .map(uio(jarFile::getInputStream))
-               .map(objectFactory)
-               .collect(Collectors.toList())
-         ).analyze(dependencies);
+         JarFile jarFile = new JarFile(file, verify);
+         List<Objects> classes = jarFile.stream()
+            .filter(entry -> isClass(entry.getName()))
+            .map(entry -> part(file.toString(), entry.getName(),
+                  () -> ClassInput.entry(entry.getName(), entry.getSize(), entry.getCrc(), entry.getTime(), () -> jarFile.getInputStream(entry))))
+            .collect(toList());
+         List<Stream<Objects>> nestedArchives = jarFile.stream()
+            .filter(entry -> isNestedArchive(entry.getName()))
+            .map(entry -> unlistedParts(file+"!/"+entry, () -> jarFile.getInputStream(entry)))
+            .collect(toList());
+         return PartitionedObjects.concat(Stream.concat(Stream.of(classes.stream()), nestedArchives.stream()))
+            .onClose(() -> {
+               try {
+                  jarFile.close();
+               } catch (IOException e) {
+                  throw new UncheckedIOException(e);
+               }
+            });
       } catch (IOException e) {
          throw new UncheckedIOException(e);
       }
    }
 
-   // This sucks. Either support checked exceptions or don't Java!
-   private static <T, R> Function<T, R> uio(IOFunction<T, R> function) {
-      return t -> {
-         try {
-            return function.apply(t);
+   /**
+    * Parts of a nested archive that is opened and read only when its parts are needed.
+    */
+   private Stream<Objects> unlistedParts(String location, ClassInput.Source inputSupplier) {
+      unlistedArchives.found();
+      return PartitionedObjects.concat(Stream.of(location)
+            .map(nestedLocation -> {
+               try {
+                  return streamedParts(nestedLocation, inputSupplier.open());
+               } catch (IOException e) {
+                  throw new UncheckedIOException(e);
+               }
+            }))
+         .onClose(unlistedArchives::read);
+   }
+
+   /**
+    * Parts of an archive that can only be read sequentially. Classes are read when the
+    * parts are iterated, so only classes that are actually in use are in memory.
+    */
+   private Stream<Objects> streamedParts(String location, InputStream input) {
+      ZipInputStream zipInput = new ZipInputStream(input);
+      Iterator<Stream<Objects>> iterator = new Iterator<Stream<Objects>>() {
+         private ZipEntry nextEntry = null;
+         private boolean nextClass = false;
+
+         @Override
+         public boolean hasNext() {
+            try {
+               while (nextEntry == null) {
+                  nextEntry = zipInput.getNextEntry();
+                  if (nextEntry == null) {
+                     return false;
+                  }
+                  // Each class is passed to the filter only once
+                  nextClass = isClass(nextEntry.getName());
+                  if (!nextClass && !isNestedArchive(nextEntry.getName())) {
+                     nextEntry = null;
+                  }
+               }
+               return true;
+            } catch (IOException e) {
+               throw new UncheckedIOException(e);
+            }
+         }
+
+         @Override
+         public Stream<Objects> next() {
+            if (!hasNext()) {
+               throw new NoSuchElementException();
+            }
+            ZipEntry entry = nextEntry;
+            nextEntry = null;
+            if (nextClass) {
+               // Size and checksum are known only after the entry is read
+               byte[] bytes = InputStreams.readAll(zipInput);
+               return Stream.of(part(location, entry.getName(),
+                  () -> ClassInput.entry(entry.getName(), entry.getSize(), entry.getCrc(), entry.getTime(), () -> new ByteArrayInputStream(bytes))));
+            } else {
+               // Nested stream is exhausted before the next entry is read, and must not close this one
+               return streamedParts(location+"!/"+entry, new NonClosingInputStream(zipInput));
+            }
+         }
+      };
+      return PartitionedObjects.concat(StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false))
+         .onClose(() -> {
+            try {
+               zipInput.close();
+            } catch (IOException e) {
+               throw new UncheckedIOException(e);
+            }
+         });
+   }
+
+   private Objects part(String location, String entryName, ClassInput.Source inputSupplier) {
+      return dependencies -> {
+         if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("analyzing "+entryName+" from "+location);
+         }
+         try (InputStream input = inputSupplier.open()) {
+            objectFactory.apply(input).analyze(dependencies);
          } catch (IOException e) {
             throw new UncheckedIOException(e);
          }
       };
    }
 
-   private interface IOFunction<T, R> {
-      R apply(T t) throws IOException;
+   private boolean isClass(String entryName) {
+      return entryName.endsWith(".class") && !entryName.endsWith("module-info.class")
+         && classFilter.test(ClassFileNames.fqn(entryName));
    }
-}
 
+   private boolean isNestedArchive(String entryName) {
+      return (entryName.endsWith(".jar") || entryName.endsWith(".war") || entryName.endsWith(".ear"))
+         && nestedFilter.test(entryName);
+   }
+
+   private static final class NonClosingInputStream extends FilterInputStream {
+      public NonClosingInputStream(InputStream input) {
+         super(input);
+      }
+
+      @Override
+      public void close() {
+      }
+   }
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.vanillasource.forcedep.scan;
+
+import com.vanillasource.forcedep.Objects;
+import com.vanillasource.forcedep.Dependencies;
+import java.io.File;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import static java.util.stream.Collectors.toList;
+import org.apache.log4j.Logger;
+
+/**
+ * All classes of a JDK module file. Module files are zip files with a short header,
+ * which are memory mapped the same way as jar files.
+ */
+public final class JmodObjects implements PartitionedObjects {
+   private static final Logger LOGGER = Logger.getLogger(JmodObjects.class);
+   private static final String CLASSES_DIRECTORY = "classes/";
+   private final File file;
+   private final Predicate<String> classFilter;
+   private final Function<InputStream, Objects> objectFactory;
+
+   public JmodObjects(File file, Function<InputStream, Objects> objectFactory) {
+      this(file, fqn -> true, objectFactory);
+   }
+
+   /**
+    * @param classFilter Selects classes to analyze by their FQN, before they are read.
+    */
+   public JmodObjects(File file, Predicate<String> classFilter, Function<InputStream, Objects> objectFactory) {
+      this.file = file;
+      this.classFilter = classFilter;
+      this.objectFactory = objectFactory;
+   }
+
+   @Override
+   public void analyze(Dependencies dependencies) {
+      try (Stream<Objects> parts = parts()) {
+         parts.forEachOrdered(part -> part.analyze(dependencies));
+      }
+   }
+
+   /**
+    * Classes are selected from the central directory when the parts are listed.
+    */
+   @Override
+   public Stream<Objects> parts() {
+      List<Objects> classes = new MappedZipFile(file).entries().stream()
+         .filter(entry -> entry.getName().startsWith(CLASSES_DIRECTORY))
+         .filter(entry -> entry.getName().endsWith(".class"))
+         .filter(entry -> !entry.getName().equals(CLASSES_DIRECTORY+"module-info.class"))
+         .filter(entry -> classFilter.test(ClassFileNames.fqn(entry.getName().substring(CLASSES_DIRECTORY.length()))))
+         .map(entry -> (Objects) dependencies -> {
+            if (LOGGER.isDebugEnabled()) {
+               LOGGER.debug("analyzing "+entry+" from module file "+file);
+            }
+            try (InputStream input = ClassInput.entry(entry.getName(), entry.getSize(), entry.getCrc(), entry.getTime(), entry::open)) {
+               objectFactory.apply(input).analyze(dependencies);
+            } catch (IOException e) {
+               throw new UncheckedIOException(e);
+            }
+         })
+         .collect(toList());
+      return classes.stream();
+   }
+}
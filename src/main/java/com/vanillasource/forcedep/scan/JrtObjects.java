@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.vanillasource.forcedep.scan;
+
+import com.vanillasource.forcedep.Objects;
+import com.vanillasource.forcedep.Dependencies;
+import java.io.File;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * All classes of selected modules of a JDK runtime image, read through the
+ * <code>jrt:/</code> file system. Modules are walked in parallel, like any other directory.
+ */
+public final class JrtObjects implements PartitionedObjects {
+   private static final URI JRT = URI.create("jrt:/");
+   private final File javaHome;
+   private final Predicate<String> moduleFilter;
+   private final Predicate<String> classFilter;
+   private final Function<InputStream, Objects> objectFactory;
+
+   /**
+    * Analyze modules of the running JDK, which has to be Java 9 or newer.
+    */
+   public JrtObjects(Predicate<String> moduleFilter, Function<InputStream, Objects> objectFactory) {
+      this(null, moduleFilter, fqn -> true, objectFactory);
+   }
+
+   /**
+    * @param javaHome The JDK to analyze, which may be different from the running one.
+    * If <code>null</code>, the running JDK is analyzed.
+    * @param moduleFilter Selects modules by name.
+    * @param classFilter Selects classes by FQN, before they are read.
+    */
+   public JrtObjects(File javaHome, Predicate<String> moduleFilter, Predicate<String> classFilter, Function<InputStream, Objects> objectFactory) {
+      this.javaHome = javaHome;
+      this.moduleFilter = moduleFilter;
+      this.classFilter = classFilter;
+      this.objectFactory = objectFactory;
+   }
+
+   @Override
+   public void analyze(Dependencies dependencies) {
+      try (Stream<Objects> parts = parts()) {
+         parts.forEachOrdered(part -> part.analyze(dependencies));
+      }
+   }
+
+   @Override
+   public Stream<Objects> parts() {
+      if (javaHome == null) {
+         return modulesParts(FileSystems.getFileSystem(JRT));
+      }
+      // The file system provider of the analyzed JDK is used, so older JDKs can
+      // also analyze newer ones
+      try {
+         URLClassLoader loader = new URLClassLoader(new URL[] { new File(javaHome, "lib/jrt-fs.jar").toURI().toURL() });
+         FileSystem fileSystem = FileSystems.newFileSystem(JRT, Collections.singletonMap("java.home", javaHome.getPath()), loader);
+         return modulesParts(fileSystem)
+            .onClose(() -> {
+               try {
+                  fileSystem.close();
+                  loader.close();
+               } catch (IOException e) {
+                  throw new UncheckedIOException(e);
+               }
+            });
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+   }
+
+   private Stream<Objects> modulesParts(FileSystem fileSystem) {
+      // Each module is a class path root of its own
+      List<Path> modules;
+      try (Stream<Path> paths = Files.list(fileSystem.getPath("/modules"))) {
+         modules = paths
+            .filter(module -> moduleFilter.test(module.getFileName().toString()))
+            .sorted()
+            .collect(toList());
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+      // Classes of all modules are selected when the parts are listed
+      List<Stream<Objects>> modulesParts = modules.stream()
+         .map(module -> new DirectoryObjects(module, classFilter, objectFactory).parts())
+         .collect(toList());
+      return PartitionedObjects.concat(modulesParts.stream());
+   }
+}
@@ -0,0 +1,206 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.vanillasource.forcedep.scan;
+
+import com.vanillasource.forcedep.Objects;
+import com.vanillasource.forcedep.Dependencies;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * The classes scanners select from their inputs. Objects not listed are never analyzed, so
+ * transformations do not have to wait for them, even if a whitelist would select them.
+ * <p>
+ * Scanners select classes by the FQN derived from their file names, from central directories
+ * of archives or directory listings, when their parts are listed. The FQN in the class itself
+ * may be different, so until a class is analyzed, every object with the same simple name may
+ * still be analyzed. Once analyzed, the FQN read from the class is listed. While nested archives
+ * are found which can only be listed by reading them, all objects selected by the filter may
+ * still be analyzed.
+ */
+public final class ListedClasses implements Predicate<String>, UnlistedArchives {
+   private final Predicate<String> classFilter;
+   // Simple names and outermost simple names of classes selected but not analyzed yet
+   private final Map<String, Integer> pendingSimpleNames = new ConcurrentHashMap<>();
+   private final Map<String, Integer> pendingOuterSimpleNames = new ConcurrentHashMap<>();
+   private final Set<String> analyzedFqns = ConcurrentHashMap.newKeySet();
+   private final Map<String, Set<String>> analyzedNests = new ConcurrentHashMap<>();
+   private final AtomicInteger unlistedArchiveCount = new AtomicInteger();
+
+   /**
+    * @param classFilter Selects classes to analyze by their FQN.
+    */
+   public ListedClasses(Predicate<String> classFilter) {
+      this.classFilter = classFilter;
+   }
+
+   /**
+    * @return The filter to give to scanners, which records the classes it selects.
+    */
+   public Predicate<String> filter() {
+      return objectFqn -> {
+         if (classFilter.test(objectFqn)) {
+            pendingSimpleNames.merge(simpleName(objectFqn), 1, Integer::sum);
+            pendingOuterSimpleNames.merge(outerName(simpleName(objectFqn)), 1, Integer::sum);
+            return true;
+         }
+         return false;
+      };
+   }
+
+   /**
+    * @return The factory to give to scanners, which records the FQNs of analyzed classes
+    * before they are passed on.
+    */
+   public Function<InputStream, Objects> analyzing(Function<InputStream, Objects> objectFactory) {
+      return input -> {
+         Objects objects = objectFactory.apply(input);
+         return dependencies -> objects.analyze(new Dependencies() {
+            @Override
+            public Dependencies.Object object(String objectFqn, boolean local, boolean pureInterface, String... superObjectFqns) {
+               analyzed(objectFqn);
+               return dependencies.object(objectFqn, local, pureInterface, superObjectFqns);
+            }
+
+            @Override
+            public void close() {
+               dependencies.close();
+            }
+         });
+      };
+   }
+
+   private void analyzed(String objectFqn) {
+      if (analyzedFqns.add(objectFqn)) {
+         analyzedNests.computeIfAbsent(outerName(objectFqn), outerFqn -> ConcurrentHashMap.newKeySet()).add(objectFqn);
+      }
+      // Listed before pending names are removed, so the class is never unknown
+      if (decrement(pendingSimpleNames, simpleName(objectFqn))) {
+         decrement(pendingOuterSimpleNames, outerName(simpleName(objectFqn)));
+      }
+   }
+
+   /**
+    * @return Whether the name was counted.
+    */
+   private static boolean decrement(Map<String, Integer> counts, String name) {
+      while (true) {
+         Integer count = counts.get(name);
+         if (count == null) {
+            return false;
+         }
+         if (count == 1 ? counts.remove(name, count) : counts.replace(name, count, count-1)) {
+            return true;
+         }
+      }
+   }
+
+   /**
+    * List all classes of the inputs, which have to use the filter of this list. The parts
+    * of each input are listed once, and handed out by the returned inputs to be analyzed.
+    * @return The inputs to analyze instead of the given ones.
+    */
+   public List<PartitionedObjects> list(List<PartitionedObjects> inputs) {
+      return inputs
+         .stream()
+         .map(input -> new ListedObjects(input.parts()))
+         .collect(toList());
+   }
+
+   @Override
+   public void found() {
+      unlistedArchiveCount.incrementAndGet();
+   }
+
+   @Override
+   public void read() {
+      unlistedArchiveCount.decrementAndGet();
+   }
+
+   /**
+    * @param outerFqn The outermost class of a nest.
+    * @return All classes of the nest that will be analyzed, or null if not known yet.
+    */
+   public Collection<String> nestMembers(String outerFqn) {
+      if (unlistedArchiveCount.get() > 0 || pendingOuterSimpleNames.containsKey(simpleName(outerFqn))) {
+         return null;
+      }
+      return analyzedNests.getOrDefault(outerFqn, Collections.emptySet());
+   }
+
+   /**
+    * @return Whether the object was listed, so it may still be analyzed.
+    */
+   @Override
+   public boolean test(String objectFqn) {
+      return classFilter.test(objectFqn)
+         && (unlistedArchiveCount.get() > 0 || analyzedFqns.contains(objectFqn)
+               || pendingSimpleNames.containsKey(simpleName(objectFqn)));
+   }
+
+   private static String simpleName(String objectFqn) {
+      return objectFqn.substring(objectFqn.lastIndexOf('.')+1);
+   }
+
+   private static String outerName(String objectFqn) {
+      int outerEnd = objectFqn.indexOf('$');
+      return outerEnd<0?objectFqn:objectFqn.substring(0, outerEnd);
+   }
+
+   /**
+    * An input with its parts already listed.
+    */
+   private static final class ListedObjects implements PartitionedObjects {
+      private Stream<Objects> parts;
+
+      private ListedObjects(Stream<Objects> parts) {
+         this.parts = parts;
+      }
+
+      @Override
+      public void analyze(Dependencies dependencies) {
+         try (Stream<Objects> parts = parts()) {
+            parts.forEachOrdered(part -> part.analyze(dependencies));
+         }
+      }
+
+      /**
+       * @return The listed parts, which can be iterated only once.
+       */
+      @Override
+      public Stream<Objects> parts() {
+         if (parts == null) {
+            throw new IllegalStateException("parts of listed input are already analyzed");
+         }
+         Stream<Objects> listedParts = parts;
+         parts = null;
+         return listedParts;
+      }
+   }
+}
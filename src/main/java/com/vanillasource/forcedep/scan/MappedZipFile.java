@@ -0,0 +1,445 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.vanillasource.forcedep.scan;
+
+import java.io.File;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.ZipException;
+
+/**
+ * A zip file that is read directly from a memory mapped region. The central
+ * directory is parsed from the mapped bytes, and entries are inflated into
+ * buffers that are reused by each thread. Entries are checked against the checksum
+ * of the central directory, but no signatures are verified.
+ */
+public final class MappedZipFile {
+   private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+   private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+   private static final int END_SIGNATURE = 0x06054b50;
+   private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+   private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+   private static final int END_SIZE = 22;
+   private static final int ZIP64_LOCATOR_SIZE = 20;
+   private static final int MAX_COMMENT_SIZE = 0xFFFF;
+   private static final int STORED = 0;
+   private static final int DEFLATED = 8;
+   private static final int MAX_POOLED_BUFFER_SIZE = 1024*1024;
+   private static final ThreadLocal<Inflation> INFLATIONS = ThreadLocal.withInitial(Inflation::new);
+   private final ByteBuffer buffer;
+   private final List<Entry> entries;
+
+   /**
+    * Map the given file. Files larger than 2GB can not be mapped.
+    */
+   public MappedZipFile(File file) {
+      this(map(file));
+   }
+
+   /**
+    * Read the zip file from the given bytes, which are not copied.
+    */
+   public MappedZipFile(ByteBuffer buffer) {
+      this.buffer = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+      try {
+         this.entries = readEntries();
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+   }
+
+   private static ByteBuffer map(File file) {
+      // The mapping stays valid after the channel is closed
+      try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+         if (channel.size() > Integer.MAX_VALUE) {
+            throw new ZipException("file "+file+" is too large to be mapped");
+         }
+         return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+   }
+
+   /**
+    * @return All entries in central directory order.
+    */
+   public List<Entry> entries() {
+      return entries;
+   }
+
+   private List<Entry> readEntries() throws IOException {
+      int end = findEnd();
+      long entryCount = unsignedShort(end + 10);
+      long directorySize = unsignedInt(end + 12);
+      long directoryOffset = unsignedInt(end + 16);
+      int directoryEnd = end;
+      if (entryCount == 0xFFFF || directorySize == 0xFFFFFFFFL || directoryOffset == 0xFFFFFFFFL) {
+         int locator = end - ZIP64_LOCATOR_SIZE;
+         if (locator >= 0 && buffer.getInt(locator) == ZIP64_LOCATOR_SIGNATURE) {
+            directoryEnd = position(buffer.getLong(locator + 8));
+            if (buffer.getInt(directoryEnd) != ZIP64_END_SIGNATURE) {
+               throw new ZipException("invalid zip64 end of central directory");
+            }
+            entryCount = buffer.getLong(directoryEnd + 32);
+            directorySize = buffer.getLong(directoryEnd + 40);
+            directoryOffset = buffer.getLong(directoryEnd + 48);
+         }
+      }
+      // Data may be prepended to the archive, in which case all offsets are shifted
+      long shift = directoryEnd - directorySize - directoryOffset;
+      List<Entry> entries = new ArrayList<>();
+      int header = position(directoryOffset + shift);
+      for (long i = 0; i < entryCount; i++) {
+         if (buffer.getInt(header) != CENTRAL_HEADER_SIGNATURE) {
+            throw new ZipException("invalid central directory header at "+header);
+         }
+         int method = unsignedShort(header + 10);
+         long time = unsignedInt(header + 12);
+         long crc = unsignedInt(header + 16);
+         long compressedSize = unsignedInt(header + 20);
+         long size = unsignedInt(header + 24);
+         int nameLength = unsignedShort(header + 28);
+         int extraLength = unsignedShort(header + 30);
+         int commentLength = unsignedShort(header + 32);
+         long localHeaderOffset = unsignedInt(header + 42);
+         String name = string(header + 46, nameLength);
+         int extra = header + 46 + nameLength;
+         int extraEnd = extra + extraLength;
+         while (extra + 4 <= extraEnd) {
+            int extraId = unsignedShort(extra);
+            int extraSize = unsignedShort(extra + 2);
+            if (extraId == 0x0001) {
+               int zip64 = extra + 4;
+               if (size == 0xFFFFFFFFL) {
+                  size = buffer.getLong(zip64);
+                  zip64 += 8;
+               }
+               if (compressedSize == 0xFFFFFFFFL) {
+                  compressedSize = buffer.getLong(zip64);
+                  zip64 += 8;
+               }
+               if (localHeaderOffset == 0xFFFFFFFFL) {
+                  localHeaderOffset = buffer.getLong(zip64);
+               }
+            }
+            extra += 4 + extraSize;
+         }
+         entries.add(new Entry(name, method, time, crc, compressedSize, size, position(localHeaderOffset + shift)));
+         header = extraEnd + commentLength;
+      }
+      return entries;
+   }
+
+   private int findEnd() throws ZipException {
+      int lowest = Math.max(0, buffer.limit() - END_SIZE - MAX_COMMENT_SIZE);
+      for (int end = buffer.limit() - END_SIZE; end >= lowest; end--) {
+         if (buffer.getInt(end) == END_SIGNATURE) {
+            return end;
+         }
+      }
+      throw new ZipException("no end of central directory found, not a zip file");
+   }
+
+   private int position(long offset) throws ZipException {
+      if (offset < 0 || offset > buffer.limit()) {
+         throw new ZipException("invalid offset "+offset);
+      }
+      return (int) offset;
+   }
+
+   private int unsignedShort(int position) {
+      return buffer.getShort(position) & 0xFFFF;
+   }
+
+   private long unsignedInt(int position) {
+      return buffer.getInt(position) & 0xFFFFFFFFL;
+   }
+
+   private String string(int position, int length) {
+      byte[] bytes = new byte[length];
+      ByteBuffer view = buffer.duplicate();
+      view.position(position);
+      view.get(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+   }
+
+   public final class Entry {
+      private final String name;
+      private final int method;
+      private final long time;
+      private final long crc;
+      private final long compressedSize;
+      private final long size;
+      private final int localHeader;
+
+      private Entry(String name, int method, long time, long crc, long compressedSize, long size, int localHeader) {
+         this.name = name;
+         this.method = method;
+         this.time = time;
+         this.crc = crc;
+         this.compressedSize = compressedSize;
+         this.size = size;
+         this.localHeader = localHeader;
+      }
+
+      public String getName() {
+         return name;
+      }
+
+      public boolean isDirectory() {
+         return name.endsWith("/");
+      }
+
+      public boolean isStored() {
+         return method == STORED;
+      }
+
+      /**
+       * @return The modification time in the MS-DOS format it is stored in.
+       */
+      public long getTime() {
+         return time;
+      }
+
+      public long getCrc() {
+         return crc;
+      }
+
+      public long getSize() {
+         return size;
+      }
+
+      /**
+       * @return The raw, possibly compressed bytes of this entry, without copying.
+       */
+      public ByteBuffer raw() {
+         try {
+            if (buffer.getInt(localHeader) != LOCAL_HEADER_SIGNATURE) {
+               throw new ZipException("invalid local header for "+name);
+            }
+            int data = localHeader + 30 + unsignedShort(localHeader + 26) + unsignedShort(localHeader + 28);
+            ByteBuffer raw = buffer.duplicate();
+            raw.position(data);
+            raw.limit(position(data + compressedSize));
+            return raw.slice();
+         } catch (IOException e) {
+            throw new UncheckedIOException(e);
+         }
+      }
+
+      /**
+       * Open the uncompressed content of this entry. Stored entries are read directly from
+       * the mapped region, compressed ones are inflated into a buffer of the current thread,
+       * therefore the returned stream is only valid until the next entry is opened on the same thread.
+       */
+      public InputStream open() {
+         try {
+            switch (method) {
+               case STORED:
+                  ByteBuffer stored = raw();
+                  CRC32 storedCrc = new CRC32();
+                  storedCrc.update(stored.duplicate());
+                  checkCrc(storedCrc.getValue());
+                  return new ByteBufferInputStream(stored);
+               case DEFLATED:
+                  return INFLATIONS.get().inflate(this);
+               default:
+                  throw new ZipException("unsupported compression method "+method+" for "+name);
+            }
+         } catch (IOException e) {
+            throw new UncheckedIOException(e);
+         }
+      }
+
+      /**
+       * Open the uncompressed content of this entry as a stream that is inflated incrementally
+       * while being read. Unlike {@link #open()}, the stream does not share buffers.
+       */
+      public InputStream stream() {
+         try {
+            switch (method) {
+               case STORED:
+                  return new CheckedInputStream(this, new ByteBufferInputStream(raw()));
+               case DEFLATED:
+                  return new CheckedInputStream(this, new IncrementalInflaterInputStream(raw()));
+               default:
+                  throw new ZipException("unsupported compression method "+method+" for "+name);
+            }
+         } catch (IOException e) {
+            throw new UncheckedIOException(e);
+         }
+      }
+
+      private void checkCrc(long actualCrc) throws ZipException {
+         if (actualCrc != crc) {
+            throw new ZipException("invalid checksum for "+name);
+         }
+      }
+
+      @Override
+      public String toString() {
+         return name;
+      }
+   }
+
+   /**
+    * Inflater and buffers reused by a thread. Buffers for unusually large entries
+    * are not kept, so they can be freed after use.
+    */
+   private static final class Inflation {
+      private final Inflater inflater = new Inflater(true);
+      private final CRC32 crc = new CRC32();
+      private byte[] input = new byte[64*1024];
+      private byte[] output = new byte[64*1024];
+
+      public InputStream inflate(Entry entry) throws ZipException {
+         if (entry.size > Integer.MAX_VALUE) {
+            throw new ZipException("entry too large to inflate");
+         }
+         int size = (int) entry.size;
+         ByteBuffer compressed = entry.raw();
+         int compressedSize = compressed.remaining();
+         byte[] input = this.input;
+         if (input.length < compressedSize + 1) {
+            input = new byte[compressedSize + 1];
+            if (input.length <= MAX_POOLED_BUFFER_SIZE) {
+               this.input = input;
+            }
+         }
+         byte[] output = this.output;
+         if (output.length < size) {
+            output = new byte[size];
+            if (output.length <= MAX_POOLED_BUFFER_SIZE) {
+               this.output = output;
+            }
+         }
+         compressed.get(input, 0, compressedSize);
+         // A dummy byte is needed by the inflater for raw deflate streams
+         input[compressedSize] = 0;
+         try {
+            inflater.reset();
+            inflater.setInput(input, 0, compressedSize + 1);
+            int length = 0;
+            while (length < size && !inflater.finished()) {
+               int inflated = inflater.inflate(output, length, size - length);
+               if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                  throw new ZipException("truncated compressed entry");
+               }
+               length += inflated;
+            }
+            if (length != size) {
+               throw new ZipException("invalid size for "+entry.name);
+            }
+            crc.reset();
+            crc.update(output, 0, length);
+            entry.checkCrc(crc.getValue());
+            return new ByteArrayInputStream(output, 0, length);
+         } catch (DataFormatException e) {
+            throw new ZipException(e.getMessage());
+         }
+      }
+   }
+
+   /**
+    * Checks the checksum of an entry when all of it is read.
+    */
+   private static final class CheckedInputStream extends FilterInputStream {
+      private final Entry entry;
+      private final CRC32 crc = new CRC32();
+      private long length = 0;
+
+      public CheckedInputStream(Entry entry, InputStream input) {
+         super(input);
+         this.entry = entry;
+      }
+
+      @Override
+      public int read() throws IOException {
+         int read = super.read();
+         if (read >= 0) {
+            crc.update(read);
+            length++;
+         } else {
+            check();
+         }
+         return read;
+      }
+
+      @Override
+      public int read(byte[] bytes, int offset, int count) throws IOException {
+         int read = super.read(bytes, offset, count);
+         if (read > 0) {
+            crc.update(bytes, offset, read);
+            length += read;
+         } else if (read < 0) {
+            check();
+         }
+         return read;
+      }
+
+      @Override
+      public long skip(long count) throws IOException {
+         // Skipped bytes have to be read to be checked
+         byte[] skipped = new byte[(int) Math.min(count, 8192)];
+         int read = read(skipped, 0, skipped.length);
+         return read < 0 ? 0 : read;
+      }
+
+      @Override
+      public boolean markSupported() {
+         return false;
+      }
+
+      private void check() throws ZipException {
+         if (length != entry.size) {
+            throw new ZipException("invalid size for "+entry.name);
+         }
+         entry.checkCrc(crc.getValue());
+      }
+   }
+
+   private static final class IncrementalInflaterInputStream extends InflaterInputStream {
+      public IncrementalInflaterInputStream(ByteBuffer compressed) {
+         // A dummy byte is needed by the inflater for raw deflate streams
+         super(new SequenceInputStream(new ByteBufferInputStream(compressed), new ByteArrayInputStream(new byte[1])),
+               new Inflater(true));
+      }
+
+      @Override
+      public void close() throws IOException {
+         super.close();
+         inf.end();
+      }
+   }
+}
@@ -0,0 +1,194 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.vanillasource.forcedep.scan;
+
+import com.vanillasource.forcedep.Objects;
+import com.vanillasource.forcedep.Dependencies;
+import com.vanillasource.forcedep.Symbols;
+import java.util.List;
+import java.util.Deque;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Analyzes all parts of all given objects in parallel. Parts are analyzed
+ * on a work-stealing pool, but dependencies are always reported in the same
+ * order as the sequential analysis would report them. Only a limited number
+ * of parts are read and kept in memory at any time, parts are released as soon
+ * as they are reported. If the order does not matter, parts may report directly
+ * from the pool threads to thread-safe dependencies instead.
+ */
+public final class ParallelObjects implements Objects {
+   private static final int DEFAULT_IN_FLIGHT_PARTS_PER_THREAD = 16;
+   private final List<PartitionedObjects> objects;
+   private final int parallelism;
+   private final int maxInFlightParts;
+   private final boolean ordered;
+   private final Symbols symbols;
+
+   public ParallelObjects(List<PartitionedObjects> objects, int parallelism) {
+      this(objects, parallelism, parallelism * DEFAULT_IN_FLIGHT_PARTS_PER_THREAD);
+   }
+
+   /**
+    * @param maxInFlightParts The maximum number of parts that are being analyzed or are
+    * waiting to be reported at the same time.
+    */
+   public ParallelObjects(List<PartitionedObjects> objects, int parallelism, int maxInFlightParts) {
+      this(objects, parallelism, maxInFlightParts, true);
+   }
+
+   /**
+    * @param ordered Whether to report in the order of the sequential analysis. If not, dependencies
+    * are called from multiple threads at the same time, so they have to be thread-safe.
+    */
+   public ParallelObjects(List<PartitionedObjects> objects, int parallelism, int maxInFlightParts, boolean ordered) {
+      this(objects, parallelism, maxInFlightParts, ordered, null);
+   }
+
+   /**
+    * @param symbols The symbol table the parts report ids of, which are recorded as ids
+    * when reporting in order. If null, only names are recorded.
+    */
+   public ParallelObjects(List<PartitionedObjects> objects, int parallelism, int maxInFlightParts, boolean ordered, Symbols symbols) {
+      this.objects = objects;
+      this.parallelism = parallelism;
+      this.maxInFlightParts = maxInFlightParts;
+      this.ordered = ordered;
+      this.symbols = symbols;
+   }
+
+   @Override
+   public void analyze(Dependencies dependencies) {
+      ForkJoinPool pool = new ForkJoinPool(parallelism);
+      Deque<InFlight> inFlights = new ArrayDeque<>();
+      int inFlightParts = 0;
+      try {
+         for (PartitionedObjects input: objects) {
+            Stream<Objects> parts = input.parts();
+            try {
+               Iterator<Objects> partIterator = parts.iterator();
+               while (partIterator.hasNext()) {
+                  Objects part = partIterator.next();
+                  while (inFlightParts >= maxInFlightParts) {
+                     inFlightParts -= inFlights.poll().complete(dependencies);
+                  }
+                  if (ordered) {
+                     inFlights.add(new InFlight(pool.submit(() -> record(part)), null));
+                  } else {
+                     inFlights.add(new InFlight(pool.submit(() -> report(part, dependencies)), null));
+                  }
+                  inFlightParts++;
+               }
+            } finally {
+               // Input can only be closed after all of its parts are done
+               inFlights.add(new InFlight(null, parts));
+            }
+         }
+         while (!inFlights.isEmpty()) {
+            inFlights.poll().complete(dependencies);
+         }
+      } catch (RuntimeException | Error failure) {
+         abort(pool, inFlights, failure);
+         throw failure;
+      }
+      pool.shutdown();
+   }
+
+   /**
+    * Stop parts still running and wait for them, since they may still read their inputs
+    * or report dependencies, before closing the inputs. Failures while closing are
+    * suppressed, so the given first failure is propagated.
+    */
+   private static void abort(ForkJoinPool pool, Deque<InFlight> inFlights, Throwable failure) {
+      pool.shutdownNow();
+      boolean interrupted = false;
+      while (!pool.isTerminated()) {
+         try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+         } catch (InterruptedException e) {
+            interrupted = true;
+         }
+      }
+      for (InFlight inFlight: inFlights) {
+         try {
+            inFlight.abort();
+         } catch (RuntimeException e) {
+            failure.addSuppressed(e);
+         }
+      }
+      if (interrupted) {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   private RecordedDependencies record(Objects part) {
+      RecordedDependencies recording = new RecordedDependencies(symbols);
+      part.analyze(recording);
+      return recording;
+   }
+
+   /**
+    * @return Nothing is left to replay.
+    */
+   private static RecordedDependencies report(Objects part, Dependencies dependencies) {
+      part.analyze(dependencies);
+      return null;
+   }
+
+   /**
+    * Either a part being analyzed or an input that can be closed when all parts
+    * before it are reported.
+    */
+   private static final class InFlight {
+      private final ForkJoinTask<RecordedDependencies> part;
+      private final Stream<Objects> input;
+
+      public InFlight(ForkJoinTask<RecordedDependencies> part, Stream<Objects> input) {
+         this.part = part;
+         this.input = input;
+      }
+
+      /**
+       * @return How many parts were completed.
+       */
+      public int complete(Dependencies dependencies) {
+         if (part != null) {
+            RecordedDependencies recording = part.join();
+            if (recording != null) {
+               recording.replay(dependencies);
+            }
+            return 1;
+         } else {
+            input.close();
+            return 0;
+         }
+      }
+
+      public void abort() {
+         if (input != null) {
+            input.close();
+         }
+      }
+   }
+}
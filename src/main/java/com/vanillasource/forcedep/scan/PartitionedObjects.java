@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.vanillasource.forcedep.scan;
+
+import com.vanillasource.forcedep.Objects;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Objects that consist of parts which can be analyzed independently of each other,
+ * like the classes of a jar file.
+ */
+public interface PartitionedObjects extends Objects {
+   /**
+    * @return All the parts in the order they would be analyzed. Parts are only
+    * usable until the returned stream is closed.
+    */
+   Stream<Objects> parts();
+
+   /**
+    * Concatenate parts lazily. Unlike <code>flatMap()</code>, this does not read
+    * the next part before it is actually needed, even when iterating. Streams are closed when
+    * they are exhausted, or when the returned stream is closed.
+    */
+   static Stream<Objects> concat(Stream<Stream<Objects>> partsStreams) {
+      Iterator<Stream<Objects>> partsIterator = partsStreams.iterator();
+      class ConcatenatedParts implements Iterator<Objects> {
+         private Stream<Objects> currentParts = null;
+         private Iterator<Objects> currentIterator = null;
+
+         @Override
+         public boolean hasNext() {
+            while (currentIterator == null || !currentIterator.hasNext()) {
+               closeCurrent();
+               if (!partsIterator.hasNext()) {
+                  return false;
+               }
+               currentParts = partsIterator.next();
+               currentIterator = currentParts.iterator();
+            }
+            return true;
+         }
+
+         @Override
+         public Objects next() {
+            if (!hasNext()) {
+               throw new NoSuchElementException();
+            }
+            return currentIterator.next();
+         }
+
+         public void close() {
+            try {
+               closeCurrent();
+            } finally {
+               partsStreams.close();
+            }
+         }
+
+         private void closeCurrent() {
+            if (currentParts != null) {
+               Stream<Objects> closedParts = currentParts;
+               currentParts = null;
+               currentIterator = null;
+               closedParts.close();
+            }
+         }
+      }
+      ConcatenatedParts parts = new ConcatenatedParts();
+      return StreamSupport.stream(Spliterators.spliteratorUnknownSize(parts, Spliterator.ORDERED), false)
+         .onClose(parts::close);
+   }
+}
@@ -0,0 +1,327 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.vanillasource.forcedep.scan;
+
+import com.vanillasource.forcedep.Dependencies;
+import com.vanillasource.forcedep.Symbols;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+
+/**
+ * Records dependencies, so they can be replayed later into some other dependencies.
+ * Events are expected to be nested the way a single class produces them, that is
+ * only one object and one method is open at any time. Calls and references by ids of
+ * the given symbol table are recorded as ids, and replayed the same way.
+ */
+public final class RecordedDependencies implements Dependencies {
+   private static final int OBJECT = 1;
+   private static final int OBJECT_CLOSE = 2;
+   private static final int FIELD = 3;
+   private static final int METHOD = 4;
+   private static final int METHOD_CLOSE = 5;
+   private static final int CALL = 6;
+   private static final int REFERENCE = 7;
+   private static final int CALL_IDS = 8;
+   private static final int REFERENCE_IDS = 9;
+   private static final int LOCAL = 1;
+   private static final int PURE_INTERFACE = 2;
+   private int[] codes = new int[32];
+   private int codeCount = 0;
+   private String[] strings = new String[32];
+   private int stringCount = 0;
+   private final Symbols symbols;
+   private boolean idsRecorded = false;
+
+   public RecordedDependencies() {
+      this(null);
+   }
+
+   /**
+    * @param symbols The table of ids to record, or null to record only names.
+    */
+   public RecordedDependencies(Symbols symbols) {
+      this.symbols = symbols;
+   }
+
+   @Override
+   public Dependencies.Object object(String objectFqn, boolean local, boolean pureInterface, String... superObjectFqns) {
+      code(OBJECT);
+      code((local?LOCAL:0) | (pureInterface?PURE_INTERFACE:0));
+      code(superObjectFqns.length);
+      string(objectFqn);
+      for (String superObjectFqn: superObjectFqns) {
+         string(superObjectFqn);
+      }
+      return new Dependencies.Object() {
+         @Override
+         public Dependencies.Method method(String methodName, boolean local) {
+            code(METHOD);
+            code(local?LOCAL:0);
+            string(methodName);
+            return new Dependencies.Method() {
+               @Override
+               public void call(String objectFqn, String methodName) {
+                  code(CALL);
+                  string(objectFqn);
+                  string(methodName);
+               }
+
+               @Override
+               public void reference(String objectFqn, String fieldName) {
+                  code(REFERENCE);
+                  string(objectFqn);
+                  string(fieldName);
+               }
+
+               @Override
+               public void call(Symbols eventSymbols, int objectId, int methodId) {
+                  if (eventSymbols != symbols) {
+                     call(eventSymbols.name(objectId), eventSymbols.name(methodId));
+                  } else {
+                     ids(CALL_IDS, 1);
+                     code(objectId);
+                     code(methodId);
+                  }
+               }
+
+               @Override
+               public void reference(Symbols eventSymbols, int objectId, int fieldId) {
+                  if (eventSymbols != symbols) {
+                     reference(eventSymbols.name(objectId), eventSymbols.name(fieldId));
+                  } else {
+                     ids(REFERENCE_IDS, 1);
+                     code(objectId);
+                     code(fieldId);
+                  }
+               }
+
+               @Override
+               public void calls(Symbols eventSymbols, int[] objectIds, int[] methodIds, int count) {
+                  if (eventSymbols != symbols) {
+                     Dependencies.Method.super.calls(eventSymbols, objectIds, methodIds, count);
+                  } else if (count > 0) {
+                     ids(CALL_IDS, count);
+                     for (int i = 0; i < count; i++) {
+                        code(objectIds[i]);
+                        code(methodIds[i]);
+                     }
+                  }
+               }
+
+               @Override
+               public void references(Symbols eventSymbols, int[] objectIds, int[] fieldIds, int count) {
+                  if (eventSymbols != symbols) {
+                     Dependencies.Method.super.references(eventSymbols, objectIds, fieldIds, count);
+                  } else if (count > 0) {
+                     ids(REFERENCE_IDS, count);
+                     for (int i = 0; i < count; i++) {
+                        code(objectIds[i]);
+                        code(fieldIds[i]);
+                     }
+                  }
+               }
+
+               @Override
+               public void close() {
+                  code(METHOD_CLOSE);
+               }
+            };
+         }
+
+         @Override
+         public void field(String fieldName) {
+            code(FIELD);
+            string(fieldName);
+         }
+
+         @Override
+         public void close() {
+            code(OBJECT_CLOSE);
+         }
+      };
+   }
+
+   /**
+    * Closing recorded dependencies is not recorded, since recordings are
+    * usually only parts of some bigger analysis.
+    */
+   @Override
+   public void close() {
+   }
+
+   /**
+    * Send all recorded events to the given dependencies in the original order.
+    */
+   public void replay(Dependencies dependencies) {
+      Dependencies.Object object = null;
+      Dependencies.Method method = null;
+      int[] objectIds = null;
+      int[] memberIds = null;
+      int stringIndex = 0;
+      int codeIndex = 0;
+      while (codeIndex < codeCount) {
+         switch (codes[codeIndex++]) {
+            case OBJECT:
+               int objectFlags = codes[codeIndex++];
+               String objectFqn = strings[stringIndex++];
+               String[] superObjectFqns = Arrays.copyOfRange(strings, stringIndex, stringIndex + codes[codeIndex++]);
+               stringIndex += superObjectFqns.length;
+               object = dependencies.object(objectFqn, (objectFlags&LOCAL)!=0, (objectFlags&PURE_INTERFACE)!=0, superObjectFqns);
+               break;
+            case OBJECT_CLOSE:
+               object.close();
+               break;
+            case FIELD:
+               object.field(strings[stringIndex++]);
+               break;
+            case METHOD:
+               method = object.method(strings[stringIndex++], (codes[codeIndex++]&LOCAL)!=0);
+               break;
+            case METHOD_CLOSE:
+               method.close();
+               break;
+            case CALL:
+               method.call(strings[stringIndex++], strings[stringIndex++]);
+               break;
+            case REFERENCE:
+               method.reference(strings[stringIndex++], strings[stringIndex++]);
+               break;
+            case CALL_IDS:
+            case REFERENCE_IDS:
+               int code = codes[codeIndex-1];
+               int count = codes[codeIndex++];
+               if (objectIds == null || objectIds.length < count) {
+                  objectIds = new int[count];
+                  memberIds = new int[count];
+               }
+               for (int i = 0; i < count; i++) {
+                  objectIds[i] = codes[codeIndex++];
+                  memberIds[i] = codes[codeIndex++];
+               }
+               if (code == CALL_IDS) {
+                  method.calls(symbols, objectIds, memberIds, count);
+               } else {
+                  method.references(symbols, objectIds, memberIds, count);
+               }
+               break;
+            default:
+               throw new IllegalStateException("unknown recorded event "+codes[codeIndex-1]);
+         }
+      }
+   }
+
+   /**
+    * Write the recording in a compact form, where each distinct string is written only once.
+    * Ids are written as names, so the recording can be read without the symbol table.
+    */
+   public void write(DataOutput output) throws IOException {
+      if (idsRecorded) {
+         RecordedDependencies names = new RecordedDependencies();
+         replay(names);
+         names.write(output);
+         return;
+      }
+      Map<String, Integer> stringIndices = new HashMap<>();
+      List<String> distinctStrings = new ArrayList<>();
+      for (int i = 0; i < stringCount; i++) {
+         stringIndices.computeIfAbsent(strings[i], s -> {
+            distinctStrings.add(s);
+            return distinctStrings.size() - 1;
+         });
+      }
+      writeVarInt(output, distinctStrings.size());
+      for (String string: distinctStrings) {
+         output.writeUTF(string);
+      }
+      writeVarInt(output, codeCount);
+      for (int i = 0; i < codeCount; i++) {
+         writeVarInt(output, codes[i]);
+      }
+      writeVarInt(output, stringCount);
+      for (int i = 0; i < stringCount; i++) {
+         writeVarInt(output, stringIndices.get(strings[i]));
+      }
+   }
+
+   /**
+    * Read a recording written by {@link #write(DataOutput)}.
+    */
+   public static RecordedDependencies read(DataInput input) throws IOException {
+      RecordedDependencies recording = new RecordedDependencies();
+      String[] distinctStrings = new String[readVarInt(input)];
+      for (int i = 0; i < distinctStrings.length; i++) {
+         distinctStrings[i] = input.readUTF();
+      }
+      int codeCount = readVarInt(input);
+      for (int i = 0; i < codeCount; i++) {
+         recording.code(readVarInt(input));
+      }
+      int stringCount = readVarInt(input);
+      for (int i = 0; i < stringCount; i++) {
+         recording.string(distinctStrings[readVarInt(input)]);
+      }
+      return recording;
+   }
+
+   private static void writeVarInt(DataOutput output, int value) throws IOException {
+      while ((value & ~0x7F) != 0) {
+         output.writeByte((value & 0x7F) | 0x80);
+         value >>>= 7;
+      }
+      output.writeByte(value);
+   }
+
+   private static int readVarInt(DataInput input) throws IOException {
+      int value = 0;
+      int shift = 0;
+      int b;
+      do {
+         b = input.readByte();
+         value |= (b & 0x7F) << shift;
+         shift += 7;
+      } while ((b & 0x80) != 0);
+      return value;
+   }
+
+   private void ids(int code, int count) {
+      idsRecorded = true;
+      code(code);
+      code(count);
+   }
+
+   private void code(int code) {
+      if (codeCount == codes.length) {
+         codes = Arrays.copyOf(codes, codeCount*2);
+      }
+      codes[codeCount++] = code;
+   }
+
+   private void string(String string) {
+      if (stringCount == strings.length) {
+         strings = Arrays.copyOf(strings, stringCount*2);
+      }
+      strings[stringCount++] = string;
+   }
+}
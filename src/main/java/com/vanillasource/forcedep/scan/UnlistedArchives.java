@@ -0,0 +1,45 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.vanillasource.forcedep.scan;
+
+/**
+ * Notified of nested archives whose classes can not be listed before they are read, like
+ * compressed nested archives, which can only be inflated sequentially.
+ */
+public interface UnlistedArchives {
+   UnlistedArchives NONE = new UnlistedArchives() {
+      @Override
+      public void found() {
+      }
+
+      @Override
+      public void read() {
+      }
+   };
+
+   /**
+    * An archive is found, its classes will be known only when it is read.
+    */
+   void found();
+
+   /**
+    * All classes of a found archive are read.
+    */
+   void read();
+}
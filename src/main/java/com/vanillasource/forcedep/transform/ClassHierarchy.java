@@ -0,0 +1,187 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.vanillasource.forcedep.transform;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntConsumer;
+import java.util.function.Predicate;
+
+/**
+ * Index of analyzed types, with their direct supertypes and declared methods. Types and
+ * method names are given dense ids, so methods declared and inherited by a type are
+ * bitsets. Inherited methods are computed once per type, when first needed, so a type's
+ * hierarchy has to be complete before overrides are queried.
+ */
+final class ClassHierarchy {
+   private static final int[] NO_TYPES = new int[0];
+   private static final BitSet IN_PROGRESS = new BitSet();
+   private final Map<String, Integer> typeIds = new HashMap<>();
+   private final List<String> typeFqns = new ArrayList<>();
+   private final List<int[]> supertypes = new ArrayList<>();
+   private final List<BitSet> declaredMethods = new ArrayList<>();
+   private final List<BitSet> inheritedMethods = new ArrayList<>();
+   private final BitSet closedTypes = new BitSet();
+   private final BitSet completeTypes = new BitSet();
+   private final BitSet checkedTypes = new BitSet();
+   private final Map<String, Integer> methodIds = new HashMap<>();
+   private final List<String> methodNames = new ArrayList<>();
+
+   /**
+    * Add an analyzed type. If the type was already added, its supertypes remain the ones
+    * given first.
+    * @return The id of the type.
+    */
+   public int addType(String typeFqn, String... supertypeFqns) {
+      int type = type(typeFqn);
+      if (supertypes.get(type) == null) {
+         int[] types = new int[supertypeFqns.length];
+         for (int i=0; i<supertypeFqns.length; i++) {
+            types[i] = type(supertypeFqns[i]);
+         }
+         supertypes.set(type, types);
+         declaredMethods.set(type, new BitSet());
+      }
+      return type;
+   }
+
+   /**
+    * @return The id of the method name.
+    */
+   public int addMethod(int type, String methodName) {
+      int method = methodIds.computeIfAbsent(methodName, name -> {
+         methodNames.add(name);
+         return methodNames.size()-1;
+      });
+      declaredMethods.get(type).set(method);
+      return method;
+   }
+
+   /**
+    * Mark a type closed, after which no more methods are added to it.
+    */
+   public void closeType(int type) {
+      closedTypes.set(type);
+   }
+
+   /**
+    * Find a supertype, direct or transitive, which may still change. That is a type
+    * which is not closed yet, but may still be analyzed.
+    * @param analyzable Selects types which may still be analyzed.
+    * @return The id of such a type, or -1 if the type's hierarchy is complete.
+    */
+   public int pendingSupertype(int type, Predicate<String> analyzable) {
+      if (completeTypes.get(type) || checkedTypes.get(type)) {
+         return -1;
+      }
+      checkedTypes.set(type);
+      try {
+         for (int supertype: supertypesOf(type)) {
+            if (closedTypes.get(supertype)) {
+               int pendingSupertype = pendingSupertype(supertype, analyzable);
+               if (pendingSupertype >= 0) {
+                  return pendingSupertype;
+               }
+            } else if (analyzable.test(typeFqn(supertype))) {
+               return supertype;
+            }
+         }
+      } finally {
+         checkedTypes.clear(type);
+      }
+      completeTypes.set(type);
+      return -1;
+   }
+
+   public String typeFqn(int type) {
+      return typeFqns.get(type);
+   }
+
+   public String methodName(int method) {
+      return methodNames.get(method);
+   }
+
+   public boolean isAnalyzed(int type) {
+      return supertypes.get(type) != null;
+   }
+
+   /**
+    * Find the nearest analyzed supertypes declaring the given method, following each
+    * path up the hierarchy separately. A supertype reachable on multiple paths is
+    * reported for each.
+    */
+   public void forEachOverridden(int type, int method, IntConsumer overriddenType) {
+      if (!inheritedMethods(type).get(method)) {
+         return;
+      }
+      for (int supertype: supertypesOf(type)) {
+         if (isAnalyzed(supertype)) {
+            if (declaredMethods.get(supertype).get(method)) {
+               overriddenType.accept(supertype);
+            } else {
+               forEachOverridden(supertype, method, overriddenType);
+            }
+         }
+      }
+   }
+
+   /**
+    * @return All methods declared by analyzed supertypes, transitively.
+    */
+   private BitSet inheritedMethods(int type) {
+      BitSet inherited = inheritedMethods.get(type);
+      if (inherited == null) {
+         // Guard against cycles, which may be caused by conflicting duplicate types
+         inheritedMethods.set(type, IN_PROGRESS);
+         inherited = new BitSet();
+         for (int supertype: supertypesOf(type)) {
+            if (isAnalyzed(supertype)) {
+               inherited.or(declaredMethods.get(supertype));
+               inherited.or(inheritedMethods(supertype));
+            }
+         }
+         inheritedMethods.set(type, inherited);
+      }
+      return inherited;
+   }
+
+   /**
+    * @return The direct supertypes of a type, none if the type is not analyzed.
+    */
+   public int[] supertypesOf(int type) {
+      int[] types = supertypes.get(type);
+      return types==null?NO_TYPES:types;
+   }
+
+   /**
+    * @return The id of a type, which does not have to be analyzed.
+    */
+   public int type(String typeFqn) {
+      return typeIds.computeIfAbsent(typeFqn, fqn -> {
+         typeFqns.add(fqn);
+         supertypes.add(null);
+         declaredMethods.add(null);
+         inheritedMethods.add(null);
+         return typeFqns.size()-1;
+      });
+   }
+}
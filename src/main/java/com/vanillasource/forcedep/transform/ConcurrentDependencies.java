@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.vanillasource.forcedep.transform;
+
+import com.vanillasource.forcedep.Dependencies;
+import com.vanillasource.forcedep.Symbols;
+import com.vanillasource.forcedep.scan.RecordedDependencies;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.log4j.Logger;
+
+/**
+ * Lets any number of threads report objects at the same time, by serializing them for
+ * the following stages. Each object is recorded by the thread reporting it, and queued
+ * when it is closed. Objects are passed on in the order they are queued, one whole object
+ * at a time. Calls and references are recorded by ids, so the ids are kept for the
+ * following stages.
+ * <p>
+ * This is an adapter, not a concurrent stage: the stages after this one keep state across
+ * objects, so they are still called by only one thread at a time. But threads do not wait
+ * for each other: a thread finding another one passing on objects leaves its object in the
+ * queue for that thread, and continues reading classes. Threads wait only when too many
+ * objects are queued. To run the following stages next to the reading threads, add a
+ * pipelined stage after this one.
+ */
+public final class ConcurrentDependencies implements Dependencies {
+   private static final Logger LOGGER = Logger.getLogger(ConcurrentDependencies.class);
+   private static final int MAX_QUEUED_OBJECTS = 1024;
+   private final Lock lock = new ReentrantLock();
+   private final Queue<RecordedDependencies> closedObjects = new ConcurrentLinkedQueue<>();
+   private final AtomicInteger closedObjectCount = new AtomicInteger();
+   private final LongAdder handedOverObjects = new LongAdder();
+   private final LongAdder waitingThreads = new LongAdder();
+   private final Symbols symbols;
+   private final Dependencies delegate;
+
+   public ConcurrentDependencies(Dependencies delegate) {
+      this(null, delegate);
+   }
+
+   /**
+    * @param symbols The table of ids reported by the threads, or null to record only names.
+    */
+   public ConcurrentDependencies(Symbols symbols, Dependencies delegate) {
+      this.symbols = symbols;
+      this.delegate = delegate;
+   }
+
+   @Override
+   public void close() {
+      lock.lock();
+      try {
+         passOnClosedObjects();
+         LOGGER.info("objects passed on by another thread: "+handedOverObjects.sum()
+               +", threads waiting for the queue to shrink: "+waitingThreads.sum());
+         delegate.close();
+      } finally {
+         lock.unlock();
+      }
+   }
+
+   @Override
+   public Dependencies.Object object(String objectFqn, boolean local, boolean pureInterface, String... superObjectFqns) {
+      RecordedDependencies recording = new RecordedDependencies(symbols);
+      Dependencies.Object object = recording.object(objectFqn, local, pureInterface, superObjectFqns);
+      return new Dependencies.Object() {
+         @Override
+         public Dependencies.Method method(String methodName, boolean local) {
+            return object.method(methodName, local);
+         }
+
+         @Override
+         public void field(String fieldName) {
+            object.field(fieldName);
+         }
+
+         @Override
+         public void close() {
+            object.close();
+            closedObjects.add(recording);
+            if (closedObjectCount.incrementAndGet() > MAX_QUEUED_OBJECTS) {
+               waitingThreads.increment();
+               lock.lock();
+            } else if (!lock.tryLock()) {
+               // The thread holding the lock passes on this object too
+               handedOverObjects.increment();
+               return;
+            }
+            try {
+               passOnClosedObjects();
+            } finally {
+               lock.unlock();
+            }
+            passOnQueuedObjects();
+         }
+      };
+   }
+
+   /**
+    * Pass on objects queued by other threads while this one was releasing the lock.
+    */
+   private void passOnQueuedObjects() {
+      while (!closedObjects.isEmpty() && lock.tryLock()) {
+         try {
+            passOnClosedObjects();
+         } finally {
+            lock.unlock();
+         }
+      }
+   }
+
+   private void passOnClosedObjects() {
+      RecordedDependencies recording;
+      while ((recording = closedObjects.poll()) != null) {
+         closedObjectCount.decrementAndGet();
+         recording.replay(delegate);
+      }
+   }
+}
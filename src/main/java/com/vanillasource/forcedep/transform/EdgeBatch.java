@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.vanillasource.forcedep.transform;
+
+import com.vanillasource.forcedep.Dependencies;
+import com.vanillasource.forcedep.Symbols;
+import java.util.Arrays;
+
+/**
+ * Calls or references collected by the ids of their names, to be delivered in one batch.
+ * Reused for each batch by a single stage.
+ */
+final class EdgeBatch {
+   private int[] objectIds = new int[16];
+   private int[] memberIds = new int[16];
+   private int size = 0;
+
+   public void add(int objectId, int memberId) {
+      if (size == objectIds.length) {
+         objectIds = Arrays.copyOf(objectIds, size*2);
+         memberIds = Arrays.copyOf(memberIds, size*2);
+      }
+      objectIds[size] = objectId;
+      memberIds[size] = memberId;
+      size++;
+   }
+
+   /**
+    * Deliver the collected edges as calls, and start a new batch.
+    */
+   public void calls(Symbols symbols, Dependencies.Method method) {
+      if (size > 0) {
+         method.calls(symbols, objectIds, memberIds, size);
+      }
+      size = 0;
+   }
+
+   /**
+    * Deliver the collected edges as references, and start a new batch.
+    */
+   public void references(Symbols symbols, Dependencies.Method method) {
+      if (size > 0) {
+         method.references(symbols, objectIds, memberIds, size);
+      }
+      size = 0;
+   }
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.vanillasource.forcedep.transform;
+
+import com.vanillasource.forcedep.Dependencies;
+import com.vanillasource.forcedep.Symbols;
+import java.util.Arrays;
+
+/**
+ * Calls and references of a method, recorded to be replayed later. Each event is a single
+ * long: the symbol ids of the owner and the member, with the highest bit set for references.
+ */
+final class EventBuffer {
+   private static final long REFERENCE = 1L << 63;
+   private static final long[] EMPTY = new long[0];
+   private final Symbols symbols;
+   private long[] events = EMPTY;
+   private int size = 0;
+
+   EventBuffer(Symbols symbols) {
+      this.symbols = symbols;
+   }
+
+   public void call(String objectFqn, String methodName) {
+      add(symbols.pair(objectFqn, methodName));
+   }
+
+   public void reference(String objectFqn, String fieldName) {
+      add(symbols.pair(objectFqn, fieldName) | REFERENCE);
+   }
+
+   /**
+    * Record a call by the ids of the names in the symbol table of this buffer.
+    */
+   public void call(int objectId, int methodId) {
+      add(Symbols.pair(objectId, methodId));
+   }
+
+   public void reference(int objectId, int fieldId) {
+      add(Symbols.pair(objectId, fieldId) | REFERENCE);
+   }
+
+   /**
+    * Append all events of another buffer, which has to use the same symbol table.
+    */
+   public void addAll(EventBuffer other) {
+      ensureCapacity(size + other.size);
+      System.arraycopy(other.events, 0, events, size, other.size);
+      size += other.size;
+   }
+
+   /**
+    * Replay all events in the order they were recorded, without closing the method. Events
+    * are replayed by the ids of their names.
+    */
+   public void replay(Dependencies.Method method) {
+      replay(method, null);
+   }
+
+   /**
+    * Replay events the same way, but leave out events already in the given set. Replayed
+    * events are added to the set, so the same events are delivered only once.
+    * @param delivered Events already delivered to the method, or null to replay all.
+    */
+   public void replay(Dependencies.Method method, LongHashSet delivered) {
+      for (int i=0; i<size; i++) {
+         long event = events[i];
+         if (delivered != null && !delivered.add(event)) {
+            continue;
+         }
+         int objectId = (int) ((event & ~REFERENCE) >>> 32);
+         if ((event & REFERENCE) != 0) {
+            method.reference(symbols, objectId, (int) event);
+         } else {
+            method.call(symbols, objectId, (int) event);
+         }
+      }
+   }
+
+   /**
+    * Release the unused capacity, for buffers which will be kept.
+    */
+   public void trim() {
+      if (events.length > size) {
+         events = size==0?EMPTY:Arrays.copyOf(events, size);
+      }
+   }
+
+   public int size() {
+      return size;
+   }
+
+   private void add(long event) {
+      ensureCapacity(size + 1);
+      events[size++] = event;
+   }
+
+   private void ensureCapacity(int capacity) {
+      if (capacity > events.length) {
+         events = Arrays.copyOf(events, Math.max(capacity, Math.max(4, events.length*2)));
+      }
+   }
+}
@@ -15,76 +15,315 @@
  * License along with this library; if not, write to the Free Software
  * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
  */
-
 package com.vanillasource.forcedep.transform;
 
 import com.vanillasource.forcedep.Dependencies;
-import java.util.concurrent.CompletableFuture;
+import com.vanillasource.forcedep.Symbols;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.Set;
+import java.util.LinkedHashSet;
+import java.util.function.Predicate;
+import org.apache.log4j.Logger;
 
 /**
- * Keeps only dependencies for which objects on both sides are analyzed.
+ * Keeps only dependencies for which objects on both sides are analyzed. Dependencies
+ * to objects not yet analyzed are stored as primitive edges for each target, until the
+ * target is analyzed. Edges to objects outside the analyzed inputs, like the JDK, are
+ * discarded immediately, other edges to objects never analyzed are discarded at close. An object
+ * is closed only after all its pending edges are placed or discarded, so later stages
+ * see all dependencies of an object before it is closed. The same holds for methods.
  */
 public final class ExistingObjectsDependencies implements Dependencies {
+   private static final Logger LOGGER = Logger.getLogger(ExistingObjectsDependencies.class);
+   // Symbol ids never have the highest bit set
+   private static final int REFERENCE = 1 << 31;
+   private final Symbols symbols;
+   private final Predicate<String> analyzable;
    private final Dependencies delegate;
-   private final Map<String, CompletableFuture<Void>> objects = new HashMap<>();
+   // Objects and targets of pending edges by symbol id
+   private final BitSet analyzedObjects = new BitSet();
+   private final Map<Integer, PendingEdges> pendingEdges = new HashMap<>();
+   private final Set<ExistingObject> waitingObjects = new LinkedHashSet<>();
+   private final EdgeBatch existingEdges = new EdgeBatch();
+   private long discardedEdges = 0;
+   private Dependencies.Method[] pendingMethods = new Dependencies.Method[64];
+   private ExistingObject[] pendingMethodObjects = new ExistingObject[64];
+   private int[] pendingMethodEdgeCounts = new int[64];
+   private boolean[] pendingMethodCloses = new boolean[64];
+   private int[] freeMethodSlots = new int[64];
+   private int freeMethodSlotCount = 0;
+   private int usedMethodSlotCount = 0;
 
    public ExistingObjectsDependencies(Dependencies delegate) {
+      this(new Symbols(), objectFqn -> true, delegate);
+   }
+
+   /**
+    * @param symbols Analyzed objects and pending edges are identified by ids in this table.
+    * @param analyzable Selects objects which may be analyzed, like the classes listed in the
+    * inputs. Edges to objects not selected are discarded immediately, so a whitelist alone would
+    * hold edges to every class it matches until close.
+    */
+   public ExistingObjectsDependencies(Symbols symbols, Predicate<String> analyzable, Dependencies delegate) {
+      this.symbols = symbols;
+      this.analyzable = analyzable;
       this.delegate = delegate;
    }
 
    @Override
    public void close() {
+      long waitingEdges = pendingEdges.values().stream().mapToLong(PendingEdges::size).sum();
+      LOGGER.info("discarded "+(discardedEdges+waitingEdges)+" dependencies to objects not analyzed, "
+            +waitingEdges+" of them waited for "+pendingEdges.size()+" objects until the end");
+      pendingEdges.clear();
+      for (int methodSlot=0; methodSlot<usedMethodSlotCount; methodSlot++) {
+         if (pendingMethodCloses[methodSlot]) {
+            pendingMethods[methodSlot].close();
+         }
+      }
+      Arrays.fill(pendingMethods, null);
+      Arrays.fill(pendingMethodObjects, null);
+      for (ExistingObject object: new ArrayList<>(waitingObjects)) {
+         object.closeDelegate();
+      }
       delegate.close();
    }
 
    @Override
    public Dependencies.Object object(String objectFqn, boolean local, boolean pureInterface, String... superObjectFqns) {
-      return new Dependencies.Object() {
-         private final Dependencies.Object object = delegate.object(objectFqn, local, pureInterface, superObjectFqns);
-
-         @Override
-         public Dependencies.Method method(String methodName, boolean local) {
-            Dependencies.Method method = new Dependencies.Method() {
-               private final Dependencies.Method method = object.method(methodName, local);
-
-               @Override
-               public void call(String objectsFqn, String methodName) {
-                  analyzedObjectFor(objectsFqn)
-                     .thenRun(() -> method.call(objectsFqn, methodName));
+      return new ExistingObject(objectFqn, delegate.object(objectFqn, local, pureInterface, superObjectFqns));
+   }
+
+   private void analyzed(int objectId) {
+      analyzedObjects.set(objectId);
+      PendingEdges edges = pendingEdges.remove(objectId);
+      if (edges != null) {
+         for (int i=0; i<edges.size; i++) {
+            int methodSlot = edges.methodSlots[i];
+            int member = edges.members[i];
+            Dependencies.Method method = pendingMethods[methodSlot];
+            if ((member & REFERENCE) == 0) {
+               method.call(symbols, objectId, member);
+            } else {
+               method.reference(symbols, objectId, member & ~REFERENCE);
+            }
+            ExistingObject object = pendingMethodObjects[methodSlot];
+            if (--pendingMethodEdgeCounts[methodSlot] == 0) {
+               if (pendingMethodCloses[methodSlot]) {
+                  method.close();
+               }
+               releaseMethodSlot(methodSlot);
+            }
+            object.pendingEdgePlaced();
+         }
+      }
+   }
+
+   private int allocateMethodSlot(Dependencies.Method method, ExistingObject object) {
+      int methodSlot;
+      if (freeMethodSlotCount > 0) {
+         methodSlot = freeMethodSlots[--freeMethodSlotCount];
+      } else {
+         if (usedMethodSlotCount == pendingMethods.length) {
+            pendingMethods = Arrays.copyOf(pendingMethods, usedMethodSlotCount*2);
+            pendingMethodObjects = Arrays.copyOf(pendingMethodObjects, usedMethodSlotCount*2);
+            pendingMethodEdgeCounts = Arrays.copyOf(pendingMethodEdgeCounts, usedMethodSlotCount*2);
+            pendingMethodCloses = Arrays.copyOf(pendingMethodCloses, usedMethodSlotCount*2);
+         }
+         methodSlot = usedMethodSlotCount++;
+      }
+      pendingMethods[methodSlot] = method;
+      pendingMethodObjects[methodSlot] = object;
+      return methodSlot;
+   }
+
+   private void releaseMethodSlot(int methodSlot) {
+      pendingMethods[methodSlot] = null;
+      pendingMethodObjects[methodSlot] = null;
+      pendingMethodCloses[methodSlot] = false;
+      if (freeMethodSlotCount == freeMethodSlots.length) {
+         freeMethodSlots = Arrays.copyOf(freeMethodSlots, freeMethodSlotCount*2);
+      }
+      freeMethodSlots[freeMethodSlotCount++] = methodSlot;
+   }
+
+   private final class ExistingObject implements Dependencies.Object {
+      private final int objectId;
+      private final Dependencies.Object object;
+      private int pendingEdgeCount = 0;
+      private boolean closed = false;
+
+      private ExistingObject(String objectFqn, Dependencies.Object object) {
+         this.objectId = symbols.id(objectFqn);
+         this.object = object;
+      }
+
+      @Override
+      public Dependencies.Method method(String methodName, boolean local) {
+         return new Dependencies.Method() {
+            private final Dependencies.Method method = object.method(methodName, local);
+            private int methodSlot = -1;
+
+            @Override
+            public void call(String objectsFqn, String methodName) {
+               int objectId = symbols.id(objectsFqn);
+               if (analyzedObjects.get(objectId)) {
+                  method.call(objectsFqn, methodName);
+               } else {
+                  addPendingEdge(objectId, symbols.id(methodName));
+               }
+            }
+
+            @Override
+            public void reference(String objectsFqn, String fieldName) {
+               int objectId = symbols.id(objectsFqn);
+               if (analyzedObjects.get(objectId)) {
+                  method.reference(objectsFqn, fieldName);
+               } else {
+                  addPendingEdge(objectId, symbols.id(fieldName) | REFERENCE);
                }
+            }
 
-               @Override
-               public void reference(String objectsFqn, String fieldName) {
-                  analyzedObjectFor(objectsFqn)
-                     .thenRun(() -> method.reference(objectsFqn, fieldName));
+            @Override
+            public void call(Symbols eventSymbols, int objectId, int methodId) {
+               if (eventSymbols != symbols) {
+                  call(eventSymbols.name(objectId), eventSymbols.name(methodId));
+               } else if (analyzedObjects.get(objectId)) {
+                  method.call(symbols, objectId, methodId);
+               } else {
+                  addPendingEdge(objectId, methodId);
                }
+            }
 
-               @Override
-               public void close() {
+            @Override
+            public void reference(Symbols eventSymbols, int objectId, int fieldId) {
+               if (eventSymbols != symbols) {
+                  reference(eventSymbols.name(objectId), eventSymbols.name(fieldId));
+               } else if (analyzedObjects.get(objectId)) {
+                  method.reference(symbols, objectId, fieldId);
+               } else {
+                  addPendingEdge(objectId, fieldId | REFERENCE);
+               }
+            }
+
+            @Override
+            public void calls(Symbols eventSymbols, int[] objectIds, int[] methodIds, int count) {
+               if (eventSymbols != symbols) {
+                  for (int i=0; i<count; i++) {
+                     call(eventSymbols, objectIds[i], methodIds[i]);
+                  }
+                  return;
+               }
+               for (int i=0; i<count; i++) {
+                  if (analyzedObjects.get(objectIds[i])) {
+                     existingEdges.add(objectIds[i], methodIds[i]);
+                  } else {
+                     addPendingEdge(objectIds[i], methodIds[i]);
+                  }
+               }
+               existingEdges.calls(symbols, method);
+            }
+
+            @Override
+            public void references(Symbols eventSymbols, int[] objectIds, int[] fieldIds, int count) {
+               if (eventSymbols != symbols) {
+                  for (int i=0; i<count; i++) {
+                     reference(eventSymbols, objectIds[i], fieldIds[i]);
+                  }
+                  return;
+               }
+               for (int i=0; i<count; i++) {
+                  if (analyzedObjects.get(objectIds[i])) {
+                     existingEdges.add(objectIds[i], fieldIds[i]);
+                  } else {
+                     addPendingEdge(objectIds[i], fieldIds[i] | REFERENCE);
+                  }
+               }
+               existingEdges.references(symbols, method);
+            }
+
+            private void addPendingEdge(int objectId, int member) {
+               if (!analyzable.test(symbols.name(objectId))) {
+                  discardedEdges++;
+                  return;
+               }
+               // The slot may have been released and reused by another method since
+               if (methodSlot < 0 || pendingMethods[methodSlot] != method) {
+                  methodSlot = allocateMethodSlot(method, ExistingObject.this);
+               }
+               pendingMethodEdgeCounts[methodSlot]++;
+               pendingEdgeCount++;
+               pendingEdges.computeIfAbsent(objectId, k -> new PendingEdges()).add(methodSlot, member);
+            }
+
+            /**
+             * Close the method only after its pending edges are placed or discarded.
+             */
+            @Override
+            public void close() {
+               if (methodSlot >= 0 && pendingMethods[methodSlot] == method) {
+                  pendingMethodCloses[methodSlot] = true;
+               } else {
                   method.close();
                }
-            };
-            return method;
-         }
+            }
+         };
+      }
 
-         @Override
-         public void field(String fieldName) {
-            object.field(fieldName);
-         }
+      @Override
+      public void field(String fieldName) {
+         object.field(fieldName);
+      }
 
-         @Override
-         public void close() {
+      @Override
+      public void close() {
+         closed = true;
+         if (pendingEdgeCount == 0) {
             object.close();
-            analyzedObjectFor(objectFqn).complete(null);
+         } else {
+            waitingObjects.add(this);
          }
+         analyzed(objectId);
+      }
 
-         private CompletableFuture<Void> analyzedObjectFor(String objectFqn) {
-            return objects
-               .computeIfAbsent(objectFqn, k -> new CompletableFuture<>());
+      private void pendingEdgePlaced() {
+         pendingEdgeCount--;
+         if (closed && pendingEdgeCount == 0) {
+            closeDelegate();
          }
-      };
+      }
+
+      private void closeDelegate() {
+         waitingObjects.remove(this);
+         object.close();
+      }
    }
-}
 
+   /**
+    * Edges waiting for the same target object, as the slot of the source method and
+    * the id of the called method or referenced field.
+    */
+   private static final class PendingEdges {
+      private int[] methodSlots = new int[4];
+      private int[] members = new int[4];
+      private int size = 0;
+
+      private void add(int methodSlot, int member) {
+         if (size == methodSlots.length) {
+            methodSlots = Arrays.copyOf(methodSlots, size*2);
+            members = Arrays.copyOf(members, size*2);
+         }
+         methodSlots[size] = methodSlot;
+         members[size] = member;
+         size++;
+      }
+
+      private int size() {
+         return size;
+      }
+   }
+}
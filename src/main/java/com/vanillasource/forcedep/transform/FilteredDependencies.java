@@ -20,18 +20,24 @@ package com.vanillasource.forcedep.transform;
 
 import com.vanillasource.forcedep.Dependencies;
 import java.util.List;
+import java.util.function.Predicate;
 
 /**
  * Filters based on whitelist and backlist all the objects.
  */
 public final class FilteredDependencies implements Dependencies {
    private final Dependencies delegate;
-   private final List<String> whitelist;
-   private final List<String> blacklist;
+   private final Predicate<String> filter;
 
    public FilteredDependencies(List<String> whitelist, List<String> blacklist, Dependencies delegate) {
-      this.whitelist = whitelist;
-      this.blacklist = blacklist;
+      this(new FqnFilter(whitelist, blacklist), delegate);
+   }
+
+   /**
+    * @param filter Selects the objects to keep by their FQN.
+    */
+   public FilteredDependencies(Predicate<String> filter, Dependencies delegate) {
+      this.filter = filter;
       this.delegate = delegate;
    }
 
@@ -40,66 +46,16 @@ public final class FilteredDependencies implements Dependencies {
       delegate.close();
    }
 
+   /**
+    * Selected objects are the delegate's own objects, so this stage adds nothing to
+    * methods, calls or references.
+    */
    @Override
    public Dependencies.Object object(String objectFqn, boolean local, boolean pureInterface, String... superObjectFqns) {
-      if (onWhitelist(objectFqn) && !onBlacklist(objectFqn)) {
-         return delegatingObject(objectFqn, local, pureInterface, superObjectFqns);
+      if (filter.test(objectFqn)) {
+         return delegate.object(objectFqn, local, pureInterface, superObjectFqns);
       } else {
          return NULL_OBJECT;
       }
    }
-
-   private boolean onWhitelist(String objectFqn) {
-      return onList(objectFqn, whitelist);
-   }
-
-   private boolean onBlacklist(String objectFqn) {
-      return onList(objectFqn, blacklist);
-   }
-
-   private boolean onList(String objectFqn, List<String> list) {
-      return list.stream()
-         .anyMatch(r -> objectFqn.matches(r));
-   }
-
-   private Dependencies.Object delegatingObject(String objectFqn, boolean local, boolean pureInterface, String... superObjectFqns) {
-      return new Dependencies.Object() {
-         private final Dependencies.Object object = delegate.object(objectFqn, local, pureInterface, superObjectFqns);
-
-         @Override
-         public Dependencies.Method method(String methodName, boolean local) {
-            Dependencies.Method method = new Dependencies.Method() {
-               private final Dependencies.Method method = object.method(methodName, local);
-
-               @Override
-               public void call(String objectsFqn, String methodName) {
-                  method.call(objectsFqn, methodName);
-               }
-
-               @Override
-               public void reference(String objectsFqn, String fieldName) {
-                  method.reference(objectsFqn, fieldName);
-               }
-
-               @Override
-               public void close() {
-                  method.close();
-               }
-            };
-            return method;
-         }
-
-         @Override
-         public void field(String fieldName) {
-            object.field(fieldName);
-         }
-
-         @Override
-         public void close() {
-            object.close();
-         }
-      };
-   }
 }
-
-
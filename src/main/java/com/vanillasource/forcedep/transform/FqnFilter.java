@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.vanillasource.forcedep.transform;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Selects object FQNs which are on the whitelist, but not on the blacklist. Both
+ * lists contain regular expressions. The lists are compiled once, and the part of
+ * the decision that depends only on the package is remembered for each package.
+ * Can be shared between threads.
+ */
+public final class FqnFilter implements Predicate<String> {
+   private final FqnMatcher whitelist;
+   private final FqnMatcher blacklist;
+   private final Map<String, PackageFilter> packageFilters = new ConcurrentHashMap<>();
+
+   public FqnFilter(List<String> whitelist, List<String> blacklist) {
+      this.whitelist = new FqnMatcher(whitelist);
+      this.blacklist = new FqnMatcher(blacklist);
+   }
+
+   @Override
+   public boolean test(String objectFqn) {
+      int simpleNameStart = objectFqn.lastIndexOf('.') + 1;
+      PackageFilter packageFilter = packageFilters.computeIfAbsent(objectFqn.substring(0, simpleNameStart), PackageFilter::new);
+      return packageFilter.test(objectFqn, simpleNameStart);
+   }
+
+   private final class PackageFilter {
+      private final FqnMatcher.PackageMatch whitelisted;
+      private final FqnMatcher.PackageMatch blacklisted;
+
+      private PackageFilter(String packagePrefix) {
+         this.whitelisted = whitelist.matchPackage(packagePrefix);
+         this.blacklisted = blacklist.matchPackage(packagePrefix);
+      }
+
+      private boolean test(String objectFqn, int simpleNameStart) {
+         return whitelisted.matches(objectFqn, simpleNameStart) && !blacklisted.matches(objectFqn, simpleNameStart);
+      }
+   }
+}
@@ -0,0 +1,188 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.vanillasource.forcedep.transform;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A list of FQN regular expressions compiled once. Patterns that consist of literal
+ * characters, escaped dots, unescaped dots and an optional trailing <code>.*</code> are
+ * merged into a character trie, all other patterns are precompiled.
+ * Matching is done in two steps, first for the package then for the simple name, so
+ * the package part can be remembered by the caller.
+ */
+final class FqnMatcher {
+   private final Node root = new Node();
+   private final List<Pattern> patterns = new ArrayList<>();
+
+   public FqnMatcher(List<String> regexes) {
+      for (String regex: regexes) {
+         if (!addSimple(regex)) {
+            patterns.add(Pattern.compile(regex));
+         }
+      }
+   }
+
+   /**
+    * @param packagePrefix The package including the trailing dot, or empty string
+    * for the default package.
+    * @return The matching state after the package, which is independent of the simple name.
+    */
+   public PackageMatch matchPackage(String packagePrefix) {
+      List<Node> nodes = walk(singletonList(root), packagePrefix, 0);
+      for (Node node: nodes) {
+         if (node.anySuffix) {
+            return PackageMatch.ALL;
+         }
+      }
+      List<Pattern> candidatePatterns = new ArrayList<>();
+      for (Pattern pattern: patterns) {
+         Matcher matcher = pattern.matcher(packagePrefix);
+         // If the prefix did not match without hitting the end, no class name can be appended to match
+         if (matcher.matches() || matcher.hitEnd()) {
+            candidatePatterns.add(pattern);
+         }
+      }
+      if (nodes.isEmpty() && candidatePatterns.isEmpty()) {
+         return PackageMatch.NONE;
+      }
+      return new PackageMatch(nodes, candidatePatterns);
+   }
+
+   private boolean addSimple(String regex) {
+      List<Character> characters = new ArrayList<>();
+      boolean anySuffix = false;
+      for (int i=0; i<regex.length(); i++) {
+         char c = regex.charAt(i);
+         if (c == '\\' && i+1 < regex.length() && (regex.charAt(i+1) == '.' || regex.charAt(i+1) == '$')) {
+            characters.add(regex.charAt(++i));
+         } else if (c == '.' && i+2 == regex.length() && regex.charAt(i+1) == '*') {
+            anySuffix = true;
+            i++;
+         } else if (c == '.') {
+            characters.add(null);
+         } else if (Character.isLetterOrDigit(c) || c == '_') {
+            characters.add(c);
+         } else {
+            return false;
+         }
+      }
+      Node node = root;
+      for (Character c: characters) {
+         node = node.child(c);
+      }
+      if (anySuffix) {
+         node.anySuffix = true;
+      } else {
+         node.exact = true;
+      }
+      return true;
+   }
+
+   private static List<Node> walk(List<Node> nodes, String fqn, int start) {
+      List<Node> current = nodes;
+      for (int i=start; i<fqn.length() && !current.isEmpty(); i++) {
+         char c = fqn.charAt(i);
+         List<Node> next = new ArrayList<>(current.size());
+         for (Node node: current) {
+            if (node.anySuffix) {
+               // Stays matched for the rest of the name
+               addNode(next, node);
+            }
+            addNode(next, node.children.get(c));
+            addNode(next, node.anyChild);
+         }
+         current = next;
+      }
+      return current;
+   }
+
+   private static void addNode(List<Node> nodes, Node node) {
+      if (node != null && !nodes.contains(node)) {
+         nodes.add(node);
+      }
+   }
+
+   private static List<Node> singletonList(Node node) {
+      List<Node> nodes = new ArrayList<>(1);
+      nodes.add(node);
+      return nodes;
+   }
+
+   /**
+    * The state of matching after the package of an FQN.
+    */
+   public static final class PackageMatch {
+      public static final PackageMatch ALL = new PackageMatch(null, null);
+      public static final PackageMatch NONE = new PackageMatch(null, null);
+      private final List<Node> nodes;
+      private final List<Pattern> patterns;
+
+      private PackageMatch(List<Node> nodes, List<Pattern> patterns) {
+         this.nodes = nodes;
+         this.patterns = patterns;
+      }
+
+      /**
+       * @param fqn The full FQN, which has to start with the matched package.
+       * @param simpleNameStart The start of the simple name in the FQN.
+       */
+      public boolean matches(String fqn, int simpleNameStart) {
+         if (this == ALL) {
+            return true;
+         }
+         if (this == NONE) {
+            return false;
+         }
+         for (Node node: walk(nodes, fqn, simpleNameStart)) {
+            if (node.exact || node.anySuffix) {
+               return true;
+            }
+         }
+         for (Pattern pattern: patterns) {
+            if (pattern.matcher(fqn).matches()) {
+               return true;
+            }
+         }
+         return false;
+      }
+   }
+
+   private static final class Node {
+      private final Map<Character, Node> children = new HashMap<>();
+      private Node anyChild;
+      private boolean exact;
+      private boolean anySuffix;
+
+      private Node child(Character c) {
+         if (c == null) {
+            if (anyChild == null) {
+               anyChild = new Node();
+            }
+            return anyChild;
+         }
+         return children.computeIfAbsent(c, k -> new Node());
+      }
+   }
+}
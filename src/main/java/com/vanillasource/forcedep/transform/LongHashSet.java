@@ -0,0 +1,126 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.vanillasource.forcedep.transform;
+
+import java.util.Arrays;
+
+/**
+ * Set of primitive longs with open addressing and linear probing, so neither keys
+ * nor entries are boxed. Can be cleared and reused.
+ */
+final class LongHashSet {
+   private static final long EMPTY = 0L;
+   private long[] keys;
+   private boolean containsEmpty = false;
+   private int size = 0;
+
+   public LongHashSet() {
+      this(16);
+   }
+
+   /**
+    * @param capacity Initial capacity, has to be a power of two.
+    */
+   public LongHashSet(int capacity) {
+      this.keys = new long[capacity];
+   }
+
+   /**
+    * @return True if the key was not in the set before.
+    */
+   public boolean add(long key) {
+      if (key == EMPTY) {
+         if (containsEmpty) {
+            return false;
+         }
+         containsEmpty = true;
+         size++;
+         return true;
+      }
+      int mask = keys.length - 1;
+      for (int i = hash(key) & mask; ; i = (i+1) & mask) {
+         if (keys[i] == key) {
+            return false;
+         }
+         if (keys[i] == EMPTY) {
+            keys[i] = key;
+            size++;
+            // Keep the load factor under 1/2
+            if (size*2 > keys.length) {
+               rehash(keys.length*2);
+            }
+            return true;
+         }
+      }
+   }
+
+   public boolean contains(long key) {
+      if (key == EMPTY) {
+         return containsEmpty;
+      }
+      int mask = keys.length - 1;
+      for (int i = hash(key) & mask; ; i = (i+1) & mask) {
+         if (keys[i] == key) {
+            return true;
+         }
+         if (keys[i] == EMPTY) {
+            return false;
+         }
+      }
+   }
+
+   public int size() {
+      return size;
+   }
+
+   /**
+    * @return The number of slots, which is the memory kept after clearing.
+    */
+   public int capacity() {
+      return keys.length;
+   }
+
+   public void clear() {
+      if (size > 0) {
+         Arrays.fill(keys, EMPTY);
+         containsEmpty = false;
+         size = 0;
+      }
+   }
+
+   private void rehash(int capacity) {
+      long[] oldKeys = keys;
+      keys = new long[capacity];
+      int mask = capacity - 1;
+      for (long key: oldKeys) {
+         if (key != EMPTY) {
+            int i = hash(key) & mask;
+            while (keys[i] != EMPTY) {
+               i = (i+1) & mask;
+            }
+            keys[i] = key;
+         }
+      }
+   }
+
+   private static int hash(long key) {
+      long hash = key * 0x9E3779B97F4A7C15L;
+      return (int) (hash ^ (hash >>> 32));
+   }
+}
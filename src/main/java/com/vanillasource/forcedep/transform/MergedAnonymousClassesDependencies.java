@@ -15,169 +15,524 @@
  * License along with this library; if not, write to the Free Software
  * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
  */
-
 package com.vanillasource.forcedep.transform;
 
 import com.vanillasource.forcedep.Dependencies;
+import com.vanillasource.forcedep.Symbols;
+import com.vanillasource.forcedep.scan.RecordedDependencies;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.function.Consumer;
+import java.util.Collection;
+import java.util.Set;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import org.apache.log4j.Logger;
 
 /**
- * Merges calls from anonymous inner classes to the method using the class.
+ * Merges calls from anonymous inner classes to the method using the class. Top level objects
+ * are passed on as soon as all objects of the same nest they use are known, that is every
+ * referenced object which starts with the same outermost class name and may be analyzed.
+ * Objects still waiting, and local objects kept for merging, are written to a temporary file
+ * above a memory threshold. Local objects are released when their nest is flushed, that is
+ * when all members of the nest listed by the scanners are closed and passed on. Without a
+ * known list of members local objects are kept until the end, since a nest member may arrive
+ * at any time. Only objects outside of the nest could still instantiate a released local
+ * object, those instantiations are left out.
  */
 public final class MergedAnonymousClassesDependencies implements Dependencies {
+   private static final Logger LOGGER = Logger.getLogger(MergedAnonymousClassesDependencies.class);
+   // Rough memory estimates of buffered members and events, including collection overhead
+   private static final long MEMBER_SIZE = 64;
+   private static final long EVENT_SIZE = 12;
+   private final Symbols symbols;
+   private final Predicate<String> analyzable;
+   private final Function<String, Collection<String>> nestMembers;
+   private final long spillThreshold;
    private final Dependencies delegate;
-   private final Map<String, List<Consumer<Dependencies.Method>>> localObjects = new HashMap<>();
-   private final Map<String, List<String>> localObjectInstantiations = new HashMap<>();
-   private final List<Runnable> topObjects = new ArrayList<>();
+   private final Set<String> closedObjects = new HashSet<>();
+   private final Map<String, BufferedObject> localObjects = new LinkedHashMap<>();
+   private final Map<String, List<BufferedObject>> objectsWaitingFor = new HashMap<>();
+   private final Set<BufferedObject> waitingObjects = new LinkedHashSet<>();
+   private final Set<String> mergingObjects = new HashSet<>();
+   private final Map<String, Nest> nests = new HashMap<>();
+   private final Set<String> releasedLocalObjects = new HashSet<>();
+   private final SpillFile spillFile = new SpillFile();
+   // Size of waiting and local objects in memory
+   private long bufferedSize = 0;
+   private int spilledObjectCount = 0;
 
    public MergedAnonymousClassesDependencies(Dependencies delegate) {
+      this(new Symbols(), objectFqn -> true, Long.MAX_VALUE, delegate);
+   }
+
+   /**
+    * @param symbols Dependencies of methods are buffered as ids of their names in this table.
+    * @param analyzable Selects objects which may be analyzed. Objects not selected are
+    * never waited on.
+    * @param spillThreshold Approximate memory in bytes for objects waiting and local objects,
+    * above which they are written to a temporary file.
+    */
+   public MergedAnonymousClassesDependencies(Symbols symbols, Predicate<String> analyzable, long spillThreshold, Dependencies delegate) {
+      this(symbols, analyzable, outerFqn -> null, spillThreshold, delegate);
+   }
+
+   /**
+    * @param nestMembers Returns all objects of the nest of the given outermost class that will
+    * be analyzed, or null if not known. Local objects of a nest are released only after all
+    * these objects are passed on.
+    */
+   public MergedAnonymousClassesDependencies(Symbols symbols, Predicate<String> analyzable,
+         Function<String, Collection<String>> nestMembers, long spillThreshold, Dependencies delegate) {
+      this.symbols = symbols;
+      this.analyzable = analyzable;
+      this.nestMembers = nestMembers;
+      this.spillThreshold = spillThreshold;
       this.delegate = delegate;
    }
 
    @Override
    public void close() {
-      topObjects.forEach(Runnable::run);
+      LOGGER.info(waitingObjects.size()+" objects waited until the end, "+localObjectCount()
+            +" local objects were kept until the end, "+spilledObjectCount
+            +" objects were spilled to disk using "+spillFile.size()+" bytes");
+      try {
+         for (BufferedObject object: new ArrayList<>(waitingObjects)) {
+            flush(object);
+         }
+      } finally {
+         spillFile.close();
+      }
       delegate.close();
    }
 
    @Override
    public Dependencies.Object object(String objectFqn, boolean local, boolean pureInterface, String... superObjectFqns) {
-      if (local) {
-         return localObject(objectFqn, pureInterface, superObjectFqns);
+      return new BufferedObject(objectFqn, local, pureInterface, superObjectFqns);
+   }
+
+   private void closed(BufferedObject object) {
+      closedObjects.add(object.objectFqn);
+      if (object.local) {
+         BufferedObject previous = localObjects.put(object.objectFqn, object);
+         if (previous != null && previous.spillPosition < 0) {
+            bufferedSize -= previous.size;
+         }
+         bufferedSize += object.size;
+         object.nest.localObjectFqns.add(object.objectFqn);
+         object.nest.flushedObjectFqns.add(object.objectFqn);
+         object.nest.openObjectCount--;
+         if (bufferedSize > spillThreshold) {
+            spill();
+         }
+         releaseIfFlushed(object.nest);
       } else {
-         return topObject(objectFqn, pureInterface, superObjectFqns);
+         flushOrWait(object);
+      }
+      List<BufferedObject> objectsWaitingForThis = objectsWaitingFor.remove(object.objectFqn);
+      if (objectsWaitingForThis != null) {
+         objectsWaitingForThis.forEach(this::flushOrWait);
+      }
+   }
+
+   private void flushOrWait(BufferedObject object) {
+      String missingObjectFqn = missingObject(object, new HashSet<>());
+      if (missingObjectFqn == null) {
+         flush(object);
+      } else {
+         if (waitingObjects.add(object) && object.spillPosition < 0) {
+            bufferedSize += object.size;
+         }
+         objectsWaitingFor.computeIfAbsent(missingObjectFqn, k -> new ArrayList<>()).add(object);
+         if (bufferedSize > spillThreshold) {
+            spill();
+         }
+      }
+   }
+
+   /**
+    * @return An object of the nest, used directly or through local objects, which is not closed
+    * yet, but may still be analyzed. Null if there is none.
+    */
+   private String missingObject(BufferedObject object, Set<String> checkedLocalObjects) {
+      for (String nestObjectFqn: object.nestObjects) {
+         if (!closedObjects.contains(nestObjectFqn)) {
+            if (analyzable.test(nestObjectFqn)) {
+               return nestObjectFqn;
+            }
+         } else if (localObjects.containsKey(nestObjectFqn) && checkedLocalObjects.add(nestObjectFqn)) {
+            String missingObjectFqn = missingObject(localObjects.get(nestObjectFqn), checkedLocalObjects);
+            if (missingObjectFqn != null) {
+               return missingObjectFqn;
+            }
+         }
+      }
+      return null;
+   }
+
+   private void flush(BufferedObject object) {
+      if (waitingObjects.remove(object) && object.spillPosition < 0) {
+         bufferedSize -= object.size;
+      }
+      if (object.spillPosition < 0) {
+         object.replay(merging);
+      } else {
+         spillFile.read(object.spillPosition).replay(merging);
+      }
+      object.nest.openObjectCount--;
+      object.nest.flushedObjectFqns.add(object.objectFqn);
+      releaseIfFlushed(object.nest);
+   }
+
+   /**
+    * Release the local objects of a nest, if the nest is flushed and no other member will arrive.
+    */
+   private void releaseIfFlushed(Nest nest) {
+      if (nest.openObjectCount > 0) {
+         return;
+      }
+      Collection<String> memberFqns = nestMembers.apply(nest.prefix.substring(0, nest.prefix.length()-1));
+      if (memberFqns != null && nest.flushedObjectFqns.containsAll(memberFqns)) {
+         for (String localObjectFqn: nest.localObjectFqns) {
+            BufferedObject localObject = localObjects.remove(localObjectFqn);
+            if (localObject != null) {
+               if (localObject.spillPosition < 0) {
+                  bufferedSize -= localObject.size;
+               }
+               releasedLocalObjects.add(localObjectFqn);
+            }
+         }
+         nests.remove(nest.prefix, nest);
+      }
+   }
+
+   /**
+    * @return The number of local objects kept for merging.
+    */
+   int localObjectCount() {
+      return localObjects.size();
+   }
+
+   /**
+    * Write waiting objects to disk, oldest first, then local objects, until half of the
+    * threshold is reached.
+    */
+   private void spill() {
+      for (BufferedObject object: waitingObjects) {
+         if (bufferedSize <= spillThreshold/2) {
+            return;
+         }
+         spill(object);
+      }
+      for (BufferedObject object: localObjects.values()) {
+         if (bufferedSize <= spillThreshold/2) {
+            return;
+         }
+         spill(object);
+      }
+   }
+
+   private void spill(BufferedObject object) {
+      if (object.spillPosition < 0) {
+         RecordedDependencies recording = new RecordedDependencies();
+         object.replay(recording);
+         object.spillPosition = spillFile.write(recording);
+         object.members = null;
+         bufferedSize -= object.size;
+         spilledObjectCount++;
       }
    }
 
    /**
     * All method calls for local objects will be merged to the instantiation method.
     */
-   private Dependencies.Object localObject(String objectFqn, boolean pureInterface, String... superObjectFqns) {
-      List<Consumer<Dependencies.Method>> localObjectDependencies =
-         localObjects.computeIfAbsent(objectFqn, k -> new ArrayList<>());
-      return new Dependencies.Object() {
-         @Override
-         public Dependencies.Method method(String methodName, boolean local) {
-            Dependencies.Method method = new Dependencies.Method() {
-               @Override
-               public void call(String calledObjectFqn, String calledMethodName) {
-                  if (calledMethodName.equals("<init>")) {
-                     localObjectInstantiations.computeIfAbsent(objectFqn, k -> new ArrayList<>()).add(calledObjectFqn);
-                  } else {
-                     localObjectDependencies.add(m -> {
-                        if (!localObjects.containsKey(calledObjectFqn)) {
-                           m.call(calledObjectFqn, calledMethodName);
-                        }
-                     });
+   private void merge(String localObjectFqn, Dependencies.Method owner) {
+      if (mergingObjects.add(localObjectFqn)) {
+         try {
+            BufferedObject localObject = localObjects.get(localObjectFqn);
+            if (localObject.spillPosition < 0) {
+               for (Member member: localObject.members) {
+                  if (!member.field) {
+                     member.events.replay(mergingInto(owner));
                   }
                }
+            } else {
+               spillFile.read(localObject.spillPosition).replay(mergingMethodsInto(owner));
+            }
+         } finally {
+            mergingObjects.remove(localObjectFqn);
+         }
+      }
+   }
 
+   /**
+    * Receives a spilled local object, merging all its methods into the given method.
+    */
+   private Dependencies mergingMethodsInto(Dependencies.Method owner) {
+      Dependencies.Method merged = mergingInto(owner);
+      return new Dependencies() {
+         @Override
+         public Dependencies.Object object(String objectFqn, boolean local, boolean pureInterface, String... superObjectFqns) {
+            return new Dependencies.Object() {
                @Override
-               public void reference(String referencedObjectsFqn, String referencedFieldName) {
-                  localObjectDependencies.add(m -> {
-                     if (!localObjects.containsKey(referencedObjectsFqn)) {
-                        m.reference(referencedObjectsFqn, referencedFieldName);
+               public Dependencies.Method method(String methodName, boolean local) {
+                  return new Dependencies.Method() {
+                     @Override
+                     public void call(String calledObjectFqn, String calledMethodName) {
+                        merged.call(calledObjectFqn, calledMethodName);
+                     }
+
+                     @Override
+                     public void reference(String referencedObjectsFqn, String referencedFieldName) {
+                        merged.reference(referencedObjectsFqn, referencedFieldName);
                      }
-                  });
+
+                     @Override
+                     public void close() {
+                     }
+                  };
+               }
+
+               @Override
+               public void field(String fieldName) {
                }
 
                @Override
                public void close() {
                }
             };
-            return method;
          }
 
          @Override
-         public void field(String fieldName) {
-            // Fields of local objects do not matter
+         public void close() {
+         }
+      };
+   }
+
+   private Dependencies.Method mergingInto(Dependencies.Method method) {
+      return new Dependencies.Method() {
+         @Override
+         public void call(String calledObjectFqn, String calledMethodName) {
+            if (localObjects.containsKey(calledObjectFqn)) {
+               if (calledMethodName.equals("<init>")) {
+                  merge(calledObjectFqn, method);
+               }
+            } else if (!releasedLocalObjects.contains(calledObjectFqn)) {
+               method.call(calledObjectFqn, calledMethodName);
+            }
+         }
+
+         @Override
+         public void reference(String referencedObjectsFqn, String referencedFieldName) {
+            if (!localObjects.containsKey(referencedObjectsFqn) && !releasedLocalObjects.contains(referencedObjectsFqn)) {
+               method.reference(referencedObjectsFqn, referencedFieldName);
+            }
+         }
+
+         @Override
+         public void call(Symbols eventSymbols, int calledObjectId, int calledMethodId) {
+            String calledObjectFqn = eventSymbols.name(calledObjectId);
+            if (localObjects.containsKey(calledObjectFqn)) {
+               if (eventSymbols.name(calledMethodId).equals("<init>")) {
+                  merge(calledObjectFqn, method);
+               }
+            } else if (!releasedLocalObjects.contains(calledObjectFqn)) {
+               method.call(eventSymbols, calledObjectId, calledMethodId);
+            }
+         }
+
+         @Override
+         public void reference(Symbols eventSymbols, int referencedObjectId, int referencedFieldId) {
+            String referencedObjectsFqn = eventSymbols.name(referencedObjectId);
+            if (!localObjects.containsKey(referencedObjectsFqn) && !releasedLocalObjects.contains(referencedObjectsFqn)) {
+               method.reference(eventSymbols, referencedObjectId, referencedFieldId);
+            }
          }
 
          @Override
          public void close() {
+            method.close();
          }
       };
    }
 
-   private Dependencies.Object topObject(String objectFqn, boolean pureInterface, String... superObjectFqns) {
-      return new Dependencies.Object() {
-         private final List<Consumer<Dependencies.Object>> members = new ArrayList<>();
+   /**
+    * Passes top level objects to the delegate, with local objects merged.
+    */
+   private final Dependencies merging = new Dependencies() {
+      @Override
+      public Dependencies.Object object(String objectFqn, boolean local, boolean pureInterface, String... superObjectFqns) {
+         Dependencies.Object object = delegate.object(objectFqn, false, pureInterface, superObjectFqns);
+         return new Dependencies.Object() {
+            @Override
+            public Dependencies.Method method(String methodName, boolean local) {
+               return mergingInto(object.method(methodName, local));
+            }
 
-         @Override
-         public Dependencies.Method method(String methodName, boolean local) {
-            Dependencies.Method method = new Dependencies.Method() {
-               private final List<Consumer<Dependencies.Method>> dependencies = new ArrayList<>();
-               private final List<String> instantiations = new ArrayList<>();
-                  
-               @Override
-               public void call(String calledObjectFqn, String calledMethodName) {
-                  if (calledMethodName.equals("<init>")) {
-                     instantiations.add(calledObjectFqn);
-                  } else {
-                     dependencies.add(m -> {
-                        if (!localObjects.containsKey(calledObjectFqn)) {
-                           m.call(calledObjectFqn, calledMethodName);
-                        }
-                     });
-                  }
-               }
+            @Override
+            public void field(String fieldName) {
+               object.field(fieldName);
+            }
 
-               @Override
-               public void reference(String referencedObjectsFqn, String referencedFieldName) {
-                  dependencies.add(m -> {
-                     if (!localObjects.containsKey(referencedObjectsFqn)) {
-                        m.reference(referencedObjectsFqn, referencedFieldName);
-                     }
-                  });
-               }
+            @Override
+            public void close() {
+               object.close();
+            }
+         };
+      }
 
-               @Override
-               public void close() {
-                  members.add(object -> {
-                     try (Dependencies.Method m = object.method(methodName, local)) {
-                        dependencies.forEach(d -> d.accept(m));
-                        instantiations
-                           .stream()
-                           .filter(o -> !localObjects.containsKey(o))
-                           .forEach(o -> m.call(o, "<init>"));
-                        instantiations
-                           .stream()
-                           .filter(o -> localObjects.containsKey(o))
-                           .forEach(o -> merge(o, m));
-                     }
-                  });
+      @Override
+      public void close() {
+      }
+   };
+
+   private final class BufferedObject implements Dependencies.Object {
+      private final String objectFqn;
+      private final boolean local;
+      private final boolean pureInterface;
+      private final String[] superObjectFqns;
+      private final String nestPrefix;
+      private final Nest nest;
+      private final Set<String> nestObjects = new HashSet<>();
+      private List<Member> members = new ArrayList<>();
+      private long size = 0;
+      private long spillPosition = -1;
+
+      private BufferedObject(String objectFqn, boolean local, boolean pureInterface, String... superObjectFqns) {
+         this.objectFqn = objectFqn;
+         this.local = local;
+         this.pureInterface = pureInterface;
+         this.superObjectFqns = superObjectFqns;
+         int outerEnd = objectFqn.indexOf('$');
+         this.nestPrefix = (outerEnd<0?objectFqn:objectFqn.substring(0, outerEnd))+"$";
+         this.nest = nests.computeIfAbsent(nestPrefix, Nest::new);
+         nest.openObjectCount++;
+      }
+
+      @Override
+      public Dependencies.Method method(String methodName, boolean local) {
+         Member member = new Member(methodName, local, false, new EventBuffer(symbols));
+         addMember(member);
+         return new Dependencies.Method() {
+            @Override
+            public void call(String calledObjectFqn, String calledMethodName) {
+               member.events.call(calledObjectFqn, calledMethodName);
+               used(calledObjectFqn);
+            }
+
+            @Override
+            public void reference(String referencedObjectsFqn, String referencedFieldName) {
+               member.events.reference(referencedObjectsFqn, referencedFieldName);
+               used(referencedObjectsFqn);
+            }
+
+            @Override
+            public void call(Symbols eventSymbols, int calledObjectId, int calledMethodId) {
+               if (eventSymbols != symbols) {
+                  call(eventSymbols.name(calledObjectId), eventSymbols.name(calledMethodId));
+               } else {
+                  member.events.call(calledObjectId, calledMethodId);
+                  used(symbols.name(calledObjectId));
                }
+            }
 
-               private void merge(String instantiatedObjectFqn, Dependencies.Method owner) {
-                  localObjects
-                     .computeIfAbsent(instantiatedObjectFqn, k -> new ArrayList<>())
-                     .forEach(c -> c.accept(owner));
-                  localObjectInstantiations
-                     .computeIfAbsent(instantiatedObjectFqn, k -> new ArrayList<>())
-                     .forEach(o -> merge(o, owner));
+            @Override
+            public void reference(Symbols eventSymbols, int referencedObjectId, int referencedFieldId) {
+               if (eventSymbols != symbols) {
+                  reference(eventSymbols.name(referencedObjectId), eventSymbols.name(referencedFieldId));
+               } else {
+                  member.events.reference(referencedObjectId, referencedFieldId);
+                  used(symbols.name(referencedObjectId));
                }
-            };
-            return method;
+            }
+
+            @Override
+            public void close() {
+            }
+         };
+      }
+
+      @Override
+      public void field(String fieldName) {
+         // Fields of local objects do not matter
+         if (!local) {
+            addMember(new Member(fieldName, false, true, null));
          }
+      }
 
-         @Override
-         public void field(String fieldName) {
-            members.add(object -> object.field(fieldName));
+      private void addMember(Member member) {
+         members.add(member);
+         grow(MEMBER_SIZE);
+      }
+
+      private void used(String usedObjectFqn) {
+         grow(EVENT_SIZE);
+         if (usedObjectFqn.startsWith(nestPrefix) && !usedObjectFqn.equals(objectFqn)) {
+            nestObjects.add(usedObjectFqn);
          }
+      }
 
-         @Override
-         public void close() {
-            topObjects.add(() -> {
-               try (Dependencies.Object object = delegate.object(objectFqn, false, pureInterface, superObjectFqns)) {
-                  members.forEach(m -> m.accept(object));
+      private void grow(long memberSize) {
+         size += memberSize;
+         if (waitingObjects.contains(this)) {
+            bufferedSize += memberSize;
+         }
+      }
+
+      @Override
+      public void close() {
+         closed(this);
+      }
+
+      private void replay(Dependencies dependencies) {
+         try (Dependencies.Object object = dependencies.object(objectFqn, local, pureInterface, superObjectFqns)) {
+            for (Member member: members) {
+               if (member.field) {
+                  object.field(member.name);
+               } else {
+                  try (Dependencies.Method method = object.method(member.name, member.local)) {
+                     member.events.replay(method);
+                  }
                }
-            });
+            }
          }
-      };
+      }
    }
-}
 
+   /**
+    * Objects of the same outermost class, with the local objects kept for them.
+    */
+   private static final class Nest {
+      private final String prefix;
+      private final List<String> localObjectFqns = new ArrayList<>();
+      // Local objects closed, and other objects passed on
+      private final Set<String> flushedObjectFqns = new HashSet<>();
+      // Objects not closed yet, or not passed on yet
+      private int openObjectCount = 0;
+
+      private Nest(String prefix) {
+         this.prefix = prefix;
+      }
+   }
+
+   /**
+    * A method with its calls and references, or a field.
+    */
+   private static final class Member {
+      private final String name;
+      private final boolean local;
+      private final boolean field;
+      private final EventBuffer events;
+
+      private Member(String name, boolean local, boolean field, EventBuffer events) {
+         this.name = name;
+         this.local = local;
+         this.field = field;
+         this.events = events;
+      }
+   }
+}
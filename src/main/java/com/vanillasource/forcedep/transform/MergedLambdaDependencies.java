@@ -15,91 +15,139 @@
  * License along with this library; if not, write to the Free Software
  * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
  */
-
 package com.vanillasource.forcedep.transform;
 
 import com.vanillasource.forcedep.Dependencies;
+import com.vanillasource.forcedep.Symbols;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Map;
 import java.util.HashMap;
-import java.util.function.Consumer;
-import java.util.concurrent.CompletableFuture;
+import java.util.Set;
+import java.util.HashSet;
+import java.util.BitSet;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import org.apache.log4j.Logger;
 
 /**
- * Merges technical methods created by lambda expressions.
+ * Merges technical methods created by lambda expressions. Methods calling such a method of a
+ * class wait until that class is closed, then the waiting state of the class is released. Only
+ * the dependencies of finished technical methods are kept, as symbol pairs, until all members
+ * of their nest are known to be closed. Without a known list of members they are kept until
+ * the end, since a nest member may arrive at any time. Optionally only
+ * unique dependencies are delivered for each method, which replaces a following unique stage.
  */
 public final class MergedLambdaDependencies implements Dependencies {
    private static final Logger LOGGER = Logger.getLogger(MergedLambdaDependencies.class);
+   private static final int MAX_REUSED_CAPACITY = 4096;
+   private final Symbols symbols;
+   private final Predicate<String> analyzable;
+   private final Function<String, Collection<String>> nestMembers;
+   private final boolean unique;
    private final Dependencies delegate;
-   private final Map<String, CompletableFuture<Consumer<Dependencies.Method>>> lambdaMethodDependencies = new HashMap<>();
+   private LongHashSet deliveredEvents = new LongHashSet();
+   private final BitSet closedObjects = new BitSet();
+   private final Map<Long, EventBuffer> lambdaMethodDependencies = new HashMap<>();
+   private final Map<Long, PendingMethod> pendingLambdaMethods = new HashMap<>();
+   private final Map<Integer, Map<Long, List<PendingMethod>>> waitingMethods = new HashMap<>();
+   private final Map<String, Nest> nests = new HashMap<>();
 
    public MergedLambdaDependencies(Dependencies delegate) {
+      this(new Symbols(), delegate);
+   }
+
+   public MergedLambdaDependencies(Symbols symbols, Dependencies delegate) {
+      this(symbols, objectFqn -> true, delegate);
+   }
+
+   /**
+    * @param symbols Methods are identified by the ids of their names in this table.
+    * @param analyzable Selects objects which may be analyzed. Methods of objects not selected
+    * are never waited on.
+    */
+   public MergedLambdaDependencies(Symbols symbols, Predicate<String> analyzable, Dependencies delegate) {
+      this(symbols, analyzable, false, delegate);
+   }
+
+   /**
+    * @param unique Deliver each dependency of a method only once.
+    */
+   public MergedLambdaDependencies(Symbols symbols, Predicate<String> analyzable, boolean unique, Dependencies delegate) {
+      this(symbols, analyzable, outerFqn -> null, unique, delegate);
+   }
+
+   /**
+    * @param nestMembers Returns all objects of the nest of the given outermost class that will
+    * be analyzed, or null if not known. Lambda methods of a nest are released only after all
+    * these objects are closed.
+    */
+   public MergedLambdaDependencies(Symbols symbols, Predicate<String> analyzable,
+         Function<String, Collection<String>> nestMembers, boolean unique, Dependencies delegate) {
+      this.symbols = symbols;
+      this.analyzable = analyzable;
+      this.nestMembers = nestMembers;
+      this.unique = unique;
       this.delegate = delegate;
    }
 
    @Override
    public void close() {
+      int forcedMethodCount = 0;
+      while (!waitingMethods.isEmpty()) {
+         Map<Long, List<PendingMethod>> objectWaitingMethods = waitingMethods.values().iterator().next();
+         long lambdaMethod = objectWaitingMethods.keySet().iterator().next();
+         PendingMethod pendingLambdaMethod = pendingLambdaMethods.get(lambdaMethod);
+         if (pendingLambdaMethod != null) {
+            pendingLambdaMethod.complete();
+         } else {
+            completed(lambdaMethod, null);
+         }
+         forcedMethodCount++;
+      }
+      LOGGER.info("lambda methods never finished while analyzing: "+forcedMethodCount
+            +", lambda methods kept until the end: "+lambdaMethodCount());
       delegate.close();
    }
 
    @Override
    public Dependencies.Object object(String objectFqn, boolean local, boolean pureInterface, String... superObjectFqns) {
+      int outerEnd = objectFqn.indexOf('$');
+      Nest nest = nests.computeIfAbsent(outerEnd<0?objectFqn:objectFqn.substring(0, outerEnd), Nest::new);
+      nest.openObjectCount++;
       return new Dependencies.Object() {
          private final Dependencies.Object object = delegate.object(objectFqn, local, pureInterface, superObjectFqns);
+         private int pendingMethodCount = 0;
+         private boolean closed = false;
 
          @Override
          public Dependencies.Method method(String methodName, boolean local) {
             if (methodName.startsWith("access$")) {
-               CompletableFuture<Consumer<Dependencies.Method>> methodFuture = lambdaMethodDependencies.computeIfAbsent(
-                     objectFqn+"."+methodName, k -> new CompletableFuture<>());
-               return method(methodFuture, methodName, local);
+               long lambdaMethod = symbols.pair(objectFqn, methodName);
+               PendingMethod method = new PendingMethod(dependencies -> {
+                  if (nest.released) {
+                     completed(lambdaMethod, null);
+                  } else {
+                     nest.lambdaMethods.add(lambdaMethod);
+                     completed(lambdaMethod, dependencies);
+                  }
+               });
+               pendingLambdaMethods.put(lambdaMethod, method);
+               return method;
             } else {
-               CompletableFuture<Consumer<Dependencies.Method>> methodFuture = new CompletableFuture<Consumer<Dependencies.Method>>();
-               methodFuture.thenAccept(c -> {
+               pendingMethodCount++;
+               return new PendingMethod(dependencies -> {
+                  if (LOGGER.isDebugEnabled()) {
                      LOGGER.debug("finished reading all dependencies to non-lambda method "+objectFqn+"."+methodName);
-                     Dependencies.Method method = object.method(methodName, local);
-                     c.accept(method);
-                     method.close();
-                  });
-               return method(methodFuture, methodName, local);
-            }
-         }
-
-         private Dependencies.Method method(CompletableFuture<Consumer<Dependencies.Method>> methodDependencies, String methodName, boolean local) {
-            return new Dependencies.Method() {
-               private final List<Consumer<Dependencies.Method>> dependencies = new ArrayList<>();
-               private final List<CompletableFuture<Void>> externalDependencies = new ArrayList<>();
-
-               @Override
-               public void call(String calledObjectFqn, String calledMethodName) {
-                  if (calledMethodName.startsWith("access$")) {
-                     externalDependencies.add(
-                           lambdaMethodDependencies.computeIfAbsent(calledObjectFqn+"."+calledMethodName, k -> new CompletableFuture<>())
-                           .thenAccept(dependencies::add));
-                  } else {
-                     dependencies.add(m -> m.call(calledObjectFqn, calledMethodName));
                   }
-               }
-
-               @Override
-               public void reference(String referencedObjectsFqn, String referencedFieldName) {
-                  dependencies.add(m -> m.reference(referencedObjectsFqn, referencedFieldName));
-               }
-
-               @Override
-               public void close() {
-                  LOGGER.debug("closing method "+objectFqn+"."+methodName+", had "+externalDependencies.size()+" lambda dependencies");
-                  CompletableFuture.allOf(externalDependencies.toArray(new CompletableFuture[] {}))
-                     .thenRun(() -> {
-                        LOGGER.debug("completing "+objectFqn+"."+methodName);
-                        methodDependencies.complete(method -> {
-                           dependencies.forEach(c -> c.accept(method));
-                        });
-                     });
-               }
-            };
+                  try (Dependencies.Method method = object.method(methodName, local)) {
+                     dependencies.replay(method, deliveredEvents());
+                  }
+                  pendingMethodCount--;
+                  closeIfDone();
+               });
+            }
          }
 
          @Override
@@ -109,10 +157,208 @@ public final class MergedLambdaDependencies implements Dependencies {
 
          @Override
          public void close() {
-            object.close();
+            closed = true;
+            closeIfDone();
+            closedObject(symbols.id(objectFqn));
+            nest.openObjectCount--;
+            nest.closedObjectFqns.add(objectFqn);
+            releaseIfClosed(nest);
+         }
+
+         private void closeIfDone() {
+            if (closed && pendingMethodCount == 0) {
+               object.close();
+            }
          }
       };
    }
-}
 
+   /**
+    * @return An empty set for the events of the next method, or null if all are delivered.
+    */
+   private LongHashSet deliveredEvents() {
+      if (!unique) {
+         return null;
+      }
+      if (deliveredEvents.capacity() > MAX_REUSED_CAPACITY) {
+         deliveredEvents = new LongHashSet();
+      } else {
+         deliveredEvents.clear();
+      }
+      return deliveredEvents;
+   }
+
+   /**
+    * Lambda methods of a closed object that are not known yet will never be, so methods
+    * waiting for them can continue without their dependencies.
+    */
+   private void closedObject(int objectId) {
+      closedObjects.set(objectId);
+      Map<Long, List<PendingMethod>> objectWaitingMethods = waitingMethods.get(objectId);
+      if (objectWaitingMethods != null) {
+         for (long lambdaMethod: new ArrayList<>(objectWaitingMethods.keySet())) {
+            if (!pendingLambdaMethods.containsKey(lambdaMethod)) {
+               completed(lambdaMethod, null);
+            }
+         }
+      }
+   }
+
+   /**
+    * Release the dependencies of lambda methods of a nest, if all objects of the nest are
+    * closed and no other member will arrive. Lambda methods are only called inside their nest.
+    */
+   private void releaseIfClosed(Nest nest) {
+      if (nest.openObjectCount > 0) {
+         return;
+      }
+      Collection<String> memberFqns = nestMembers.apply(nest.outerFqn);
+      if (memberFqns != null && nest.closedObjectFqns.containsAll(memberFqns)) {
+         for (long lambdaMethod: nest.lambdaMethods) {
+            lambdaMethodDependencies.remove(lambdaMethod);
+         }
+         nest.released = true;
+         nests.remove(nest.outerFqn, nest);
+      }
+   }
+
+   /**
+    * @return The number of lambda methods with their dependencies kept for merging.
+    */
+   int lambdaMethodCount() {
+      return lambdaMethodDependencies.size();
+   }
+
+   /**
+    * @param dependencies The dependencies of the lambda method, or null if it will never be known.
+    */
+   private void completed(long lambdaMethod, EventBuffer dependencies) {
+      pendingLambdaMethods.remove(lambdaMethod);
+      if (dependencies != null) {
+         dependencies.trim();
+         lambdaMethodDependencies.put(lambdaMethod, dependencies);
+      }
+      int objectId = (int) (lambdaMethod >>> 32);
+      Map<Long, List<PendingMethod>> objectWaitingMethods = waitingMethods.get(objectId);
+      if (objectWaitingMethods != null) {
+         List<PendingMethod> methods = objectWaitingMethods.remove(lambdaMethod);
+         if (objectWaitingMethods.isEmpty()) {
+            waitingMethods.remove(objectId);
+         }
+         if (methods != null) {
+            methods.forEach(method -> method.resolved(dependencies));
+         }
+      }
+   }
+
+   /**
+    * Objects of the same outermost class, with the lambda methods completed in them.
+    */
+   private static final class Nest {
+      private final String outerFqn;
+      private final List<Long> lambdaMethods = new ArrayList<>();
+      private final Set<String> closedObjectFqns = new HashSet<>();
+      private int openObjectCount = 0;
+      private boolean released = false;
+
+      private Nest(String outerFqn) {
+         this.outerFqn = outerFqn;
+      }
+   }
+
+   private interface MethodCompletion {
+      void completed(EventBuffer dependencies);
+   }
+
+   /**
+    * A method collecting its dependencies until it is closed and all lambda methods it calls
+    * are known.
+    */
+   private final class PendingMethod implements Dependencies.Method {
+      private final MethodCompletion completion;
+      private final EventBuffer dependencies = new EventBuffer(symbols);
+      private int waitingCount = 0;
+      private boolean closed = false;
+      private boolean completed = false;
+
+      private PendingMethod(MethodCompletion completion) {
+         this.completion = completion;
+      }
+
+      @Override
+      public void call(String calledObjectFqn, String calledMethodName) {
+         if (calledMethodName.startsWith("access$")) {
+            lambdaCall(calledObjectFqn, symbols.pair(calledObjectFqn, calledMethodName));
+         } else {
+            dependencies.call(calledObjectFqn, calledMethodName);
+         }
+      }
+
+      @Override
+      public void reference(String referencedObjectsFqn, String referencedFieldName) {
+         dependencies.reference(referencedObjectsFqn, referencedFieldName);
+      }
 
+      @Override
+      public void call(Symbols eventSymbols, int calledObjectId, int calledMethodId) {
+         if (eventSymbols != symbols) {
+            call(eventSymbols.name(calledObjectId), eventSymbols.name(calledMethodId));
+         } else if (symbols.name(calledMethodId).startsWith("access$")) {
+            lambdaCall(symbols.name(calledObjectId), Symbols.pair(calledObjectId, calledMethodId));
+         } else {
+            dependencies.call(calledObjectId, calledMethodId);
+         }
+      }
+
+      @Override
+      public void reference(Symbols eventSymbols, int referencedObjectId, int referencedFieldId) {
+         if (eventSymbols != symbols) {
+            reference(eventSymbols.name(referencedObjectId), eventSymbols.name(referencedFieldId));
+         } else {
+            dependencies.reference(referencedObjectId, referencedFieldId);
+         }
+      }
+
+      private void lambdaCall(String calledObjectFqn, long calledMethod) {
+         EventBuffer lambdaDependencies = lambdaMethodDependencies.get(calledMethod);
+         if (lambdaDependencies != null) {
+            dependencies.addAll(lambdaDependencies);
+         } else if (pendingLambdaMethods.containsKey(calledMethod)
+               || (!closedObjects.get((int) (calledMethod >>> 32)) && analyzable.test(calledObjectFqn))) {
+            waitingCount++;
+            waitingMethods
+               .computeIfAbsent((int) (calledMethod >>> 32), k -> new HashMap<>())
+               .computeIfAbsent(calledMethod, k -> new ArrayList<>())
+               .add(this);
+         }
+      }
+
+      @Override
+      public void close() {
+         if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("closing method, had "+waitingCount+" lambda dependencies");
+         }
+         closed = true;
+         if (waitingCount == 0) {
+            complete();
+         }
+      }
+
+      private void resolved(EventBuffer lambdaDependencies) {
+         if (!completed) {
+            if (lambdaDependencies != null) {
+               dependencies.addAll(lambdaDependencies);
+            }
+            waitingCount--;
+            if (closed && waitingCount == 0) {
+               complete();
+            }
+         }
+      }
+
+      private void complete() {
+         completed = true;
+         completion.completed(dependencies);
+      }
+   }
+}
@@ -15,25 +15,46 @@
  * License along with this library; if not, write to the Free Software
  * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
  */
-
 package com.vanillasource.forcedep.transform;
 
 import com.vanillasource.forcedep.Dependencies;
+import com.vanillasource.forcedep.Symbols;
 import java.util.Map;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Set;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.function.Consumer;
+import java.util.Arrays;
 
 /**
- * Merges calls from private methods to the public methods they are called by.
+ * Merges calls from private methods to the public methods they are called by. The calls
+ * between methods of the same object are resolved with strongly connected components,
+ * so each group of mutually recursive methods is expanded only once. Optionally only unique
+ * dependencies are delivered for each method, which replaces a following unique stage.
  */
 public final class MergedPrivateMethodsDependencies implements Dependencies {
+   private static final int MAX_REUSED_CAPACITY = 4096;
+   private final Symbols symbols;
+   private final boolean unique;
    private final Dependencies delegate;
+   private LongHashSet deliveredEvents = new LongHashSet();
 
    public MergedPrivateMethodsDependencies(Dependencies delegate) {
+      this(new Symbols(), delegate);
+   }
+
+   /**
+    * @param symbols Dependencies of methods are buffered as ids of their names in this table.
+    */
+   public MergedPrivateMethodsDependencies(Symbols symbols, Dependencies delegate) {
+      this(symbols, false, delegate);
+   }
+
+   /**
+    * @param unique Deliver each dependency of a method only once.
+    */
+   public MergedPrivateMethodsDependencies(Symbols symbols, boolean unique, Dependencies delegate) {
+      this.symbols = symbols;
+      this.unique = unique;
       this.delegate = delegate;
    }
 
@@ -46,30 +67,48 @@ public final class MergedPrivateMethodsDependencies implements Dependencies {
    public Dependencies.Object object(String objectFqn, boolean local, boolean pureInterface, String... superObjectFqns) {
       return new Dependencies.Object() {
          private final Dependencies.Object object = delegate.object(objectFqn, local, pureInterface, superObjectFqns);
-         private final Map<String, List<Consumer<Dependencies.Method>>> externalDependencies = new HashMap<>();
-         private final Map<String, List<String>> localCalls = new HashMap<>();
-         private final Set<String> localMethods = new HashSet<>();
+         private final Map<String, Integer> methodIndices = new HashMap<>();
+         private final List<ObjectMethod> methods = new ArrayList<>();
+         private int objectId = -1;
 
          @Override
          public Dependencies.Method method(String methodName, boolean local) {
-            if (local) {
-               localMethods.add(methodName);
-            }
-            List<Consumer<Dependencies.Method>> methodExternalDependencies = new ArrayList<>();
-            externalDependencies.put(methodName, methodExternalDependencies);
+            ObjectMethod method = objectMethod(methodName);
+            method.declared = true;
+            method.local = local;
             return new Dependencies.Method() {
                @Override
                public void call(String calledObjectFqn, String calledMethodName) {
                   if (calledObjectFqn.equals(objectFqn)) {
-                     localCalls.computeIfAbsent(methodName, k -> new ArrayList<>()).add(calledMethodName);
+                     method.addLocalCall(objectMethod(calledMethodName).index);
                   } else {
-                     methodExternalDependencies.add(m -> m.call(calledObjectFqn, calledMethodName));
+                     method.externals.call(calledObjectFqn, calledMethodName);
                   }
                }
 
                @Override
                public void reference(String referencedObjectsFqn, String referencedFieldName) {
-                  methodExternalDependencies.add(m -> m.reference(referencedObjectsFqn, referencedFieldName));
+                  method.externals.reference(referencedObjectsFqn, referencedFieldName);
+               }
+
+               @Override
+               public void call(Symbols eventSymbols, int calledObjectId, int calledMethodId) {
+                  if (eventSymbols != symbols) {
+                     call(eventSymbols.name(calledObjectId), eventSymbols.name(calledMethodId));
+                  } else if (calledObjectId == objectId()) {
+                     method.addLocalCall(objectMethod(symbols.name(calledMethodId)).index);
+                  } else {
+                     method.externals.call(calledObjectId, calledMethodId);
+                  }
+               }
+
+               @Override
+               public void reference(Symbols eventSymbols, int referencedObjectId, int referencedFieldId) {
+                  if (eventSymbols != symbols) {
+                     reference(eventSymbols.name(referencedObjectId), eventSymbols.name(referencedFieldId));
+                  } else {
+                     method.externals.reference(referencedObjectId, referencedFieldId);
+                  }
                }
 
                @Override
@@ -78,6 +117,23 @@ public final class MergedPrivateMethodsDependencies implements Dependencies {
             };
          }
 
+         private int objectId() {
+            if (objectId < 0) {
+               objectId = symbols.id(objectFqn);
+            }
+            return objectId;
+         }
+
+         private ObjectMethod objectMethod(String methodName) {
+            Integer index = methodIndices.get(methodName);
+            if (index == null) {
+               index = methods.size();
+               methodIndices.put(methodName, index);
+               methods.add(new ObjectMethod(methodName, index, new EventBuffer(symbols)));
+            }
+            return methods.get(index);
+         }
+
          @Override
          public void field(String fieldName) {
             object.field(fieldName);
@@ -85,31 +141,181 @@ public final class MergedPrivateMethodsDependencies implements Dependencies {
 
          @Override
          public void close() {
-            for (String methodName: externalDependencies.keySet()) {
-               if (!localMethods.contains(methodName)) {
-                  try (Dependencies.Method delegateMethod = object.method(methodName, false)) {
-                     applyDependencies(methodName, delegateMethod);
+            CallGraph callGraph = new CallGraph(symbols, methods);
+            for (ObjectMethod method: methods) {
+               if (method.declared && !method.local) {
+                  try (Dependencies.Method delegateMethod = object.method(method.name, false)) {
+                     callGraph.applyDependencies(objectFqn, method.index, delegateMethod, deliveredEvents());
                   }
                }
             }
             object.close();
          }
+      };
+   }
 
-         private void applyDependencies(String methodName, Dependencies.Method delegateMethod) {
-            externalDependencies
-               .computeIfAbsent(methodName, k -> new ArrayList<>())
-               .forEach(d -> d.accept(delegateMethod));
-            localCalls
-               .computeIfAbsent(methodName, k -> new ArrayList<>())
-               .stream()
-               .filter(m -> !localMethods.contains(m))
-               .forEach(m -> delegateMethod.call(objectFqn, m));
-            localCalls
-               .computeIfAbsent(methodName, k -> new ArrayList<>())
-               .forEach(l -> applyDependencies(l, delegateMethod));
+   /**
+    * @return An empty set for the events of the next method, or null if all are delivered.
+    */
+   private LongHashSet deliveredEvents() {
+      if (!unique) {
+         return null;
+      }
+      if (deliveredEvents.capacity() > MAX_REUSED_CAPACITY) {
+         deliveredEvents = new LongHashSet();
+      } else {
+         deliveredEvents.clear();
+      }
+      return deliveredEvents;
+   }
+
+   /**
+    * A method of the object with its external dependencies and calls to the same object.
+    */
+   private static final class ObjectMethod {
+      private final String name;
+      private final int index;
+      private boolean declared = false;
+      private boolean local = false;
+      private final EventBuffer externals;
+      private int[] localCalls = new int[0];
+      private int localCallCount = 0;
+
+      private ObjectMethod(String name, int index, EventBuffer externals) {
+         this.name = name;
+         this.index = index;
+         this.externals = externals;
+      }
+
+      private void addLocalCall(int methodIndex) {
+         if (localCallCount == localCalls.length) {
+            localCalls = Arrays.copyOf(localCalls, Math.max(4, localCallCount*2));
          }
-      };
+         localCalls[localCallCount++] = methodIndex;
+      }
    }
-}
 
+   /**
+    * Calls between methods of one object, condensed into strongly connected components. Each
+    * component is visited at most once for every public method.
+    */
+   private static final class CallGraph {
+      private final Symbols symbols;
+      private final List<ObjectMethod> methods;
+      private final int[] components;
+      private final int[] componentStarts;
+      private final int[] componentMethods;
+      private final int[] visits;
+      private final int[] componentStack;
+      private int visit = 0;
+
+      private CallGraph(Symbols symbols, List<ObjectMethod> methods) {
+         this.symbols = symbols;
+         this.methods = methods;
+         this.components = new int[methods.size()];
+         int componentCount = findComponents();
+         this.componentStarts = new int[componentCount+1];
+         this.componentMethods = new int[methods.size()];
+         for (int method=0; method<methods.size(); method++) {
+            componentStarts[components[method]+1]++;
+         }
+         for (int component=0; component<componentCount; component++) {
+            componentStarts[component+1] += componentStarts[component];
+         }
+         int[] positions = Arrays.copyOf(componentStarts, componentCount);
+         for (int method=0; method<methods.size(); method++) {
+            componentMethods[positions[components[method]]++] = method;
+         }
+         this.visits = new int[componentCount];
+         this.componentStack = new int[componentCount];
+      }
+
+      /**
+       * Tarjan's algorithm without recursion, so long call chains do not overflow the stack.
+       * @return The number of components found.
+       */
+      private int findComponents() {
+         int methodCount = methods.size();
+         int[] indices = new int[methodCount];
+         int[] lowLinks = new int[methodCount];
+         int[] componentStack = new int[methodCount];
+         int[] callStack = new int[methodCount];
+         int[] nextCalls = new int[methodCount];
+         Arrays.fill(indices, -1);
+         Arrays.fill(components, -1);
+         int nextIndex = 0;
+         int componentCount = 0;
+         int componentStackSize = 0;
+         for (int root=0; root<methodCount; root++) {
+            if (indices[root] >= 0) {
+               continue;
+            }
+            int callStackSize = 0;
+            indices[root] = lowLinks[root] = nextIndex++;
+            componentStack[componentStackSize++] = root;
+            callStack[callStackSize] = root;
+            nextCalls[callStackSize++] = 0;
+            while (callStackSize > 0) {
+               int method = callStack[callStackSize-1];
+               ObjectMethod objectMethod = methods.get(method);
+               if (nextCalls[callStackSize-1] < objectMethod.localCallCount) {
+                  int called = objectMethod.localCalls[nextCalls[callStackSize-1]++];
+                  if (indices[called] < 0) {
+                     indices[called] = lowLinks[called] = nextIndex++;
+                     componentStack[componentStackSize++] = called;
+                     callStack[callStackSize] = called;
+                     nextCalls[callStackSize++] = 0;
+                  } else if (components[called] < 0) {
+                     lowLinks[method] = Math.min(lowLinks[method], indices[called]);
+                  }
+               } else {
+                  callStackSize--;
+                  if (callStackSize > 0) {
+                     int caller = callStack[callStackSize-1];
+                     lowLinks[caller] = Math.min(lowLinks[caller], lowLinks[method]);
+                  }
+                  if (lowLinks[method] == indices[method]) {
+                     int member;
+                     do {
+                        member = componentStack[--componentStackSize];
+                        components[member] = componentCount;
+                     } while (member != method);
+                     componentCount++;
+                  }
+               }
+            }
+         }
+         return componentCount;
+      }
 
+      /**
+       * Apply all external dependencies of all methods reachable from the given method, and
+       * calls to the non-local methods among them. Each reachable component is applied once.
+       * @param delivered Dependencies already delivered, or null to deliver duplicates too.
+       */
+      private void applyDependencies(String objectFqn, int methodIndex, Dependencies.Method delegateMethod, LongHashSet delivered) {
+         visit++;
+         int componentStackSize = 0;
+         visits[components[methodIndex]] = visit;
+         componentStack[componentStackSize++] = components[methodIndex];
+         while (componentStackSize > 0) {
+            int component = componentStack[--componentStackSize];
+            for (int i=componentStarts[component]; i<componentStarts[component+1]; i++) {
+               ObjectMethod method = methods.get(componentMethods[i]);
+               method.externals.replay(delegateMethod, delivered);
+               for (int call=0; call<method.localCallCount; call++) {
+                  ObjectMethod calledMethod = methods.get(method.localCalls[call]);
+                  if (!calledMethod.local && (delivered == null || delivered.add(symbols.pair(objectFqn, calledMethod.name)))) {
+                     delegateMethod.call(objectFqn, calledMethod.name);
+                  }
+                  int calledComponent = components[calledMethod.index];
+                  if (visits[calledComponent] != visit) {
+                     visits[calledComponent] = visit;
+                     componentStack[componentStackSize++] = calledComponent;
+                  }
+               }
+            }
+         }
+      }
+   }
+}
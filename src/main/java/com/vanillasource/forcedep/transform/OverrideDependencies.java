@@ -15,102 +15,295 @@
  * License along with this library; if not, write to the Free Software
  * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
  */
-
 package com.vanillasource.forcedep.transform;
 
 import com.vanillasource.forcedep.Dependencies;
-import java.util.concurrent.CompletableFuture;
-import java.util.Map;
+import com.vanillasource.forcedep.Symbols;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.HashSet;
+import java.util.function.Predicate;
+import org.apache.log4j.Logger;
 
 /**
  * Simulates a <code>super</code> call for each overridden method. For interfaces too, where
- * the call will go to the originating interface.
+ * the call will go to the originating interface. Calls are placed based on an index of the
+ * analyzed hierarchy, as soon as all supertypes of an object that may still be analyzed
+ * are analyzed, but at the latest when closed. Objects and their methods are closed only
+ * after that, so later stages see all calls of an object before it is closed.
+ * <p>
+ * Optionally only overrides in instantiated types are placed, as in rapid type analysis.
+ * A type counts as instantiated if a constructor of it, or of one of its subtypes, is called
+ * anywhere in the analyzed code. Instantiations are propagated up the hierarchy as they are
+ * found, and objects are resolved as soon as they become instantiated. Objects that never do
+ * are closed without overrides when this stage is closed. Types only instantiated by
+ * reflection are not recognized.
  */
 public final class OverrideDependencies implements Dependencies {
+   private static final Logger LOGGER = Logger.getLogger(OverrideDependencies.class);
+   private static final String CONSTRUCTOR = "<init>";
+   private final Predicate<String> analyzable;
    private final Dependencies delegate;
-   private final Map<String, CompletableFuture<AnalyzedObject>> objects = new HashMap<>();
+   private final ClassHierarchy hierarchy = new ClassHierarchy();
+   private final Map<Integer, List<OverridingObject>> objectsWaitingForType = new HashMap<>();
+   private final Set<OverridingObject> waitingObjects = new LinkedHashSet<>();
+   private final BitSet instantiatedTypes;
+   private final Map<Integer, List<OverridingObject>> objectsWaitingForInstance = new HashMap<>();
+   private int[] instantiationWorklist = new int[16];
+   private long placedOverrides = 0;
+   private long omittedOverrides = 0;
 
    public OverrideDependencies(Dependencies delegate) {
+      this(objectFqn -> true, delegate);
+   }
+
+   /**
+    * @param analyzable Selects objects which may be analyzed, like the classes listed in the
+    * inputs. Objects not selected are never waited on. Supertypes outside the inputs, like
+    * <code>java.lang.Object</code>, never arrive, so a whitelist matching them would hold every
+    * object until close.
+    */
+   public OverrideDependencies(Predicate<String> analyzable, Dependencies delegate) {
+      this(analyzable, false, delegate);
+   }
+
+   /**
+    * @param instantiatedOnly Place overrides only in types which are instantiated.
+    */
+   public OverrideDependencies(Predicate<String> analyzable, boolean instantiatedOnly, Dependencies delegate) {
+      this.analyzable = analyzable;
+      this.instantiatedTypes = instantiatedOnly?new BitSet():null;
       this.delegate = delegate;
    }
 
    @Override
    public void close() {
+      for (OverridingObject object: new ArrayList<>(waitingObjects)) {
+         object.resolve();
+      }
+      if (instantiatedTypes != null) {
+         LOGGER.info("placed "+placedOverrides+" overrides in instantiated types, omitted "+omittedOverrides);
+      }
       delegate.close();
    }
 
    @Override
    public Dependencies.Object object(String objectFqn, boolean local, boolean pureInterface, String... superObjectFqns) {
-      return new AnalyzedObject() {
-         private final Dependencies.Object object = delegate.object(objectFqn, local, pureInterface, superObjectFqns);
-         private final Set<String> methods = new HashSet<>();
+      int type = hierarchy.addType(objectFqn, superObjectFqns);
+      if (instantiatedTypes != null && instantiatedTypes.get(type)) {
+         // Supertypes are only known now
+         propagateInstantiation(type);
+      }
+      return new OverridingObject(type, delegate.object(objectFqn, local, pureInterface, superObjectFqns));
+   }
 
-         @Override
-         public Dependencies.Method method(String methodName, boolean local) {
-            methods.add(methodName);
-            Dependencies.Method method = new Dependencies.Method() {
-               private final Dependencies.Method method = object.method(methodName, local);
-
-               @Override
-               public void call(String objectsFqn, String methodName) {
-                  method.call(objectsFqn, methodName);
-               }
+   private void resolveOrWait(OverridingObject object) {
+      int pendingSupertype = hierarchy.pendingSupertype(object.type, analyzable);
+      if (pendingSupertype < 0) {
+         if (instantiatedTypes == null || instantiatedTypes.get(object.type)) {
+            object.resolve();
+         } else {
+            waitingObjects.add(object);
+            objectsWaitingForInstance.computeIfAbsent(object.type, k -> new ArrayList<>()).add(object);
+         }
+      } else {
+         waitingObjects.add(object);
+         objectsWaitingForType.computeIfAbsent(pendingSupertype, k -> new ArrayList<>()).add(object);
+      }
+   }
 
-               @Override
-               public void reference(String objectsFqn, String fieldName) {
-                  method.reference(objectsFqn, fieldName);
-               }
+   private void instantiated(int type) {
+      if (!instantiatedTypes.get(type)) {
+         instantiatedTypes.set(type);
+         propagateInstantiation(type);
+      }
+   }
 
-               @Override
-               public void close() {
-                  method.close();
+   /**
+    * Mark all supertypes of an instantiated type instantiated, and resolve objects
+    * waiting for any of these.
+    */
+   private void propagateInstantiation(int type) {
+      int worklistSize = 0;
+      instantiationWorklist[worklistSize++] = type;
+      while (worklistSize > 0) {
+         int instantiatedType = instantiationWorklist[--worklistSize];
+         List<OverridingObject> waitingForInstance = objectsWaitingForInstance.remove(instantiatedType);
+         if (waitingForInstance != null) {
+            waitingForInstance.forEach(OverridingObject::resolve);
+         }
+         for (int supertype: hierarchy.supertypesOf(instantiatedType)) {
+            if (!instantiatedTypes.get(supertype)) {
+               instantiatedTypes.set(supertype);
+               if (worklistSize == instantiationWorklist.length) {
+                  instantiationWorklist = Arrays.copyOf(instantiationWorklist, worklistSize*2);
                }
-            };
-            findOverridesFor(method, methodName);
-            return method;
+               instantiationWorklist[worklistSize++] = supertype;
+            }
          }
+      }
+   }
 
-         @Override
-         public void potentiallyOverriddenBy(Dependencies.Method method, String methodName) {
-            if (methods.contains(methodName)) {
-               // Place call from overriding method to this overridden method
-               method.call(objectFqn, methodName);
+   private final class OverridingObject implements Dependencies.Object {
+      private final int type;
+      private final Dependencies.Object object;
+      private int[] methodIds = new int[8];
+      private Dependencies.Method[] methods = new Dependencies.Method[8];
+      private int methodCount = 0;
+      private final BitSet closedMethods = new BitSet();
+
+      private OverridingObject(int type, Dependencies.Object object) {
+         this.type = type;
+         this.object = object;
+      }
+
+      @Override
+      public Dependencies.Method method(String methodName, boolean local) {
+         Dependencies.Method method = object.method(methodName, local);
+         if (methodCount == methods.length) {
+            methodIds = Arrays.copyOf(methodIds, methodCount*2);
+            methods = Arrays.copyOf(methods, methodCount*2);
+         }
+         methodIds[methodCount] = hierarchy.addMethod(type, methodName);
+         methods[methodCount] = method;
+         return new OverridingMethod(methodCount++, methodName.equals(CONSTRUCTOR), method);
+      }
+
+      @Override
+      public void field(String fieldName) {
+         object.field(fieldName);
+      }
+
+      @Override
+      public void close() {
+         hierarchy.closeType(type);
+         resolveOrWait(this);
+         List<OverridingObject> waitingForThis = objectsWaitingForType.remove(type);
+         if (waitingForThis != null) {
+            waitingForThis.forEach(OverrideDependencies.this::resolveOrWait);
+         }
+      }
+
+      /**
+       * Place calls from overriding methods to the overridden methods, then close the methods
+       * already closed and the object.
+       */
+      private void resolve() {
+         boolean instantiated = instantiatedTypes == null || instantiatedTypes.get(type);
+         for (int i=0; i<methodCount; i++) {
+            Dependencies.Method method = methods[i];
+            String methodName = hierarchy.methodName(methodIds[i]);
+            if (instantiated) {
+               hierarchy.forEachOverridden(type, methodIds[i], overriddenType -> {
+                  method.call(hierarchy.typeFqn(overriddenType), methodName);
+                  placedOverrides++;
+               });
             } else {
-               // Try superclass
-               findOverridesFor(method, methodName);
+               hierarchy.forEachOverridden(type, methodIds[i], overriddenType -> omittedOverrides++);
             }
          }
+         for (int i=closedMethods.nextSetBit(0); i>=0; i=closedMethods.nextSetBit(i+1)) {
+            methods[i].close();
+         }
+         methods = null;
+         methodIds = null;
+         waitingObjects.remove(this);
+         object.close();
+      }
+
+      /**
+       * Closes the method only after the overrides are placed. Also records types
+       * instantiated by the method, if needed. Constructors calling other constructors of
+       * the same object or its direct supertypes do not instantiate anything on their own.
+       */
+      private final class OverridingMethod implements Dependencies.Method {
+         private final int index;
+         private final boolean constructor;
+         private final Dependencies.Method method;
+
+         private OverridingMethod(int index, boolean constructor, Dependencies.Method method) {
+            this.index = index;
+            this.constructor = constructor;
+            this.method = method;
+         }
 
          @Override
-         public void field(String fieldName) {
-            object.field(fieldName);
+         public void call(String objectFqn, String methodName) {
+            if (instantiatedTypes != null) {
+               instantiation(objectFqn, methodName);
+            }
+            method.call(objectFqn, methodName);
          }
 
+
          @Override
-         public void close() {
-            object.close();
-            analyzedObjectFor(objectFqn).complete(this);
+         public void reference(String objectFqn, String fieldName) {
+            method.reference(objectFqn, fieldName);
          }
 
-         private void findOverridesFor(Dependencies.Method method, String methodName) {
-            for (String superObjectFqn: superObjectFqns) {
-               analyzedObjectFor(superObjectFqn)
-                  .thenAccept(obj -> obj.potentiallyOverriddenBy(method, methodName));
+
+         @Override
+         public void call(Symbols symbols, int objectId, int methodId) {
+            if (instantiatedTypes != null) {
+               instantiation(symbols.name(objectId), symbols.name(methodId));
             }
+            method.call(symbols, objectId, methodId);
          }
 
-         private CompletableFuture<AnalyzedObject> analyzedObjectFor(String objectFqn) {
-            return objects
-               .computeIfAbsent(objectFqn, k -> new CompletableFuture<>());
+         @Override
+         public void reference(Symbols symbols, int objectId, int fieldId) {
+            method.reference(symbols, objectId, fieldId);
          }
-      };
-   }
 
-   interface AnalyzedObject extends Dependencies.Object {
-      void potentiallyOverriddenBy(Dependencies.Method method, String methodName);
+         @Override
+         public void calls(Symbols symbols, int[] objectIds, int[] methodIds, int count) {
+            if (instantiatedTypes != null) {
+               for (int i=0; i<count; i++) {
+                  instantiation(symbols.name(objectIds[i]), symbols.name(methodIds[i]));
+               }
+            }
+            method.calls(symbols, objectIds, methodIds, count);
+         }
+
+         @Override
+         public void references(Symbols symbols, int[] objectIds, int[] fieldIds, int count) {
+            method.references(symbols, objectIds, fieldIds, count);
+         }
+
+         @Override
+         public void close() {
+            if (methods == null) {
+               method.close();
+            } else {
+               closedMethods.set(index);
+            }
+         }
+
+         private void instantiation(String objectFqn, String methodName) {
+            if (methodName.equals(CONSTRUCTOR)) {
+               int calledType = hierarchy.type(objectFqn);
+               if (!constructor || !isSelfOrDirectSupertype(calledType)) {
+                  instantiated(calledType);
+               }
+            }
+         }
+
+         private boolean isSelfOrDirectSupertype(int calledType) {
+            if (calledType == type) {
+               return true;
+            }
+            for (int supertype: hierarchy.supertypesOf(type)) {
+               if (supertype == calledType) {
+                  return true;
+               }
+            }
+            return false;
+         }
+      }
    }
 }
-
@@ -0,0 +1,293 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.vanillasource.forcedep.transform;
+
+import com.vanillasource.forcedep.Dependencies;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import org.apache.log4j.Logger;
+
+/**
+ * Passes all events to the delegate on a separate thread, through a bounded ring buffer,
+ * so this and the following stages run at the same time. Only one thread may report
+ * events at a time, although it does not have to be the same thread. When the buffer is
+ * full, the reporting thread waits until the delegate catches up. Closing waits until
+ * all events are processed. Handles of closed objects and methods are reused, so events
+ * on them are rejected on the reporting thread.
+ */
+public final class PipelinedDependencies implements Dependencies {
+   private static final Logger LOGGER = Logger.getLogger(PipelinedDependencies.class);
+   private static final int OBJECT = 1;
+   private static final int OBJECT_CLOSE = 2;
+   private static final int FIELD = 3;
+   private static final int METHOD = 4;
+   private static final int METHOD_CLOSE = 5;
+   private static final int CALL = 6;
+   private static final int REFERENCE = 7;
+   private static final int CLOSE = 8;
+   private static final int LOCAL = 1;
+   private static final int PURE_INTERFACE = 2;
+   private static final long IDLE_PARK_NANOS = 50_000;
+   private final String name;
+   private final Dependencies delegate;
+   private final Thread consumer;
+   private final int mask;
+   // Events in the buffer, each slot is written by the producer and read by the consumer
+   private final int[] types;
+   private final int[] handles;
+   private final int[] parents;
+   private final int[] flags;
+   private final String[] firstNames;
+   private final String[] secondNames;
+   private final String[][] superNames;
+   private final AtomicLong published = new AtomicLong();
+   private final AtomicLong consumed = new AtomicLong();
+   private volatile Throwable failure;
+   // Producer side
+   private long nextPosition = 0;
+   private long knownConsumed = 0;
+   private long maxDepth = 0;
+   private long fullWaits = 0;
+   private final HandlePool objectHandles = new HandlePool();
+   private final HandlePool methodHandles = new HandlePool();
+   private long startNanos = 0;
+   // Consumer side
+   private Dependencies.Object[] objects = new Dependencies.Object[16];
+   private Dependencies.Method[] methods = new Dependencies.Method[16];
+
+   /**
+    * @param name The name of the thread running the delegate, also used in reports.
+    * @param capacity The number of events the buffer holds, rounded up to a power of two.
+    */
+   public PipelinedDependencies(String name, int capacity, Dependencies delegate) {
+      this.name = name;
+      this.delegate = delegate;
+      int size = Integer.highestOneBit(Math.max(2, capacity)-1) << 1;
+      this.mask = size - 1;
+      this.types = new int[size];
+      this.handles = new int[size];
+      this.parents = new int[size];
+      this.flags = new int[size];
+      this.firstNames = new String[size];
+      this.secondNames = new String[size];
+      this.superNames = new String[size][];
+      this.consumer = new Thread(this::consume, "forcedep-"+name);
+      this.consumer.setDaemon(true);
+      this.consumer.start();
+   }
+
+   @Override
+   public void close() {
+      publish(CLOSE, 0, 0, 0, null, null, null);
+      try {
+         consumer.join();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new IllegalStateException("interrupted while waiting for pipelined stage "+name, e);
+      }
+      checkFailure();
+      double seconds = Math.max(1, System.nanoTime() - startNanos) / 1e9;
+      LOGGER.info("pipelined stage "+name+" processed "+nextPosition+" events, "+(long) (nextPosition/seconds)
+            +" events/s, maximum queue depth "+maxDepth+" of "+types.length+", producer waited "+fullWaits+" times");
+   }
+
+   @Override
+   public Dependencies.Object object(String objectFqn, boolean local, boolean pureInterface, String... superObjectFqns) {
+      int objectHandle = objectHandles.allocate();
+      publish(OBJECT, objectHandle, 0, (local?LOCAL:0) | (pureInterface?PURE_INTERFACE:0), objectFqn, null, superObjectFqns);
+      return new Dependencies.Object() {
+         private boolean closed = false;
+
+         @Override
+         public Dependencies.Method method(String methodName, boolean local) {
+            checkOpen(closed, objectFqn);
+            int methodHandle = methodHandles.allocate();
+            publish(METHOD, methodHandle, objectHandle, local?LOCAL:0, methodName, null, null);
+            return new Dependencies.Method() {
+               private boolean closed = false;
+
+               @Override
+               public void call(String objectsFqn, String calledMethodName) {
+                  checkOpen(closed, objectFqn+"."+methodName);
+                  publish(CALL, methodHandle, 0, 0, objectsFqn, calledMethodName, null);
+               }
+
+               @Override
+               public void reference(String objectsFqn, String fieldName) {
+                  checkOpen(closed, objectFqn+"."+methodName);
+                  publish(REFERENCE, methodHandle, 0, 0, objectsFqn, fieldName, null);
+               }
+
+               @Override
+               public void close() {
+                  checkOpen(closed, objectFqn+"."+methodName);
+                  closed = true;
+                  publish(METHOD_CLOSE, methodHandle, 0, 0, null, null, null);
+                  // Events are processed in order, so the handle may be reused by later events
+                  methodHandles.release(methodHandle);
+               }
+            };
+         }
+
+         @Override
+         public void field(String fieldName) {
+            checkOpen(closed, objectFqn);
+            publish(FIELD, objectHandle, 0, 0, fieldName, null, null);
+         }
+
+         @Override
+         public void close() {
+            checkOpen(closed, objectFqn);
+            closed = true;
+            publish(OBJECT_CLOSE, objectHandle, 0, 0, null, null, null);
+            objectHandles.release(objectHandle);
+         }
+      };
+   }
+
+   private void checkOpen(boolean closed, String target) {
+      if (closed) {
+         throw new IllegalStateException("event on "+target+" after it was closed, in pipelined stage "+name);
+      }
+   }
+
+   private void publish(int type, int handle, int parent, int eventFlags, String firstName, String secondName, String[] supers) {
+      if (startNanos == 0) {
+         startNanos = System.nanoTime();
+      }
+      if (nextPosition - knownConsumed > mask) {
+         knownConsumed = consumed.get();
+         while (nextPosition - knownConsumed > mask) {
+            checkFailure();
+            fullWaits++;
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+            knownConsumed = consumed.get();
+         }
+      }
+      maxDepth = Math.max(maxDepth, nextPosition - knownConsumed + 1);
+      int slot = (int) nextPosition & mask;
+      types[slot] = type;
+      handles[slot] = handle;
+      parents[slot] = parent;
+      flags[slot] = eventFlags;
+      firstNames[slot] = firstName;
+      secondNames[slot] = secondName;
+      superNames[slot] = supers;
+      nextPosition++;
+      published.lazySet(nextPosition);
+   }
+
+   private void checkFailure() {
+      if (failure != null) {
+         throw new IllegalStateException("pipelined stage "+name+" failed", failure);
+      }
+   }
+
+   private void consume() {
+      long position = 0;
+      try {
+         while (true) {
+            long available = published.get();
+            if (position == available) {
+               LockSupport.parkNanos(IDLE_PARK_NANOS);
+               continue;
+            }
+            while (position < available) {
+               int slot = (int) position & mask;
+               int type = types[slot];
+               dispatch(type, slot);
+               firstNames[slot] = null;
+               secondNames[slot] = null;
+               superNames[slot] = null;
+               position++;
+               if (type == CLOSE) {
+                  consumed.lazySet(position);
+                  return;
+               }
+            }
+            consumed.lazySet(position);
+         }
+      } catch (Throwable e) {
+         failure = e;
+      }
+   }
+
+   private void dispatch(int type, int slot) {
+      int handle = handles[slot];
+      switch (type) {
+         case OBJECT:
+            if (handle >= objects.length) {
+               objects = Arrays.copyOf(objects, Math.max(handle+1, objects.length*2));
+            }
+            objects[handle] = delegate.object(firstNames[slot], (flags[slot]&LOCAL)!=0, (flags[slot]&PURE_INTERFACE)!=0, superNames[slot]);
+            break;
+         case OBJECT_CLOSE:
+            objects[handle].close();
+            objects[handle] = null;
+            break;
+         case FIELD:
+            objects[handle].field(firstNames[slot]);
+            break;
+         case METHOD:
+            if (handle >= methods.length) {
+               methods = Arrays.copyOf(methods, Math.max(handle+1, methods.length*2));
+            }
+            methods[handle] = objects[parents[slot]].method(firstNames[slot], (flags[slot]&LOCAL)!=0);
+            break;
+         case METHOD_CLOSE:
+            methods[handle].close();
+            methods[handle] = null;
+            break;
+         case CALL:
+            methods[handle].call(firstNames[slot], secondNames[slot]);
+            break;
+         case REFERENCE:
+            methods[handle].reference(firstNames[slot], secondNames[slot]);
+            break;
+         case CLOSE:
+            delegate.close();
+            break;
+         default:
+            throw new IllegalStateException("unknown pipelined event "+type);
+      }
+   }
+
+   /**
+    * Small integer handles for open objects or methods, reused after they are closed.
+    */
+   private static final class HandlePool {
+      private int[] freeHandles = new int[16];
+      private int freeHandleCount = 0;
+      private int nextHandle = 0;
+
+      private int allocate() {
+         if (freeHandleCount > 0) {
+            return freeHandles[--freeHandleCount];
+         }
+         return nextHandle++;
+      }
+
+      private void release(int handle) {
+         if (freeHandleCount == freeHandles.length) {
+            freeHandles = Arrays.copyOf(freeHandles, freeHandleCount*2);
+         }
+         freeHandles[freeHandleCount++] = handle;
+      }
+   }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.vanillasource.forcedep.transform;
+
+import com.vanillasource.forcedep.scan.RecordedDependencies;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+
+/**
+ * Temporary file to hold recorded dependencies, which would otherwise take up memory.
+ * The file is created on the first write, and deleted when closed.
+ */
+final class SpillFile implements AutoCloseable {
+   private File file;
+   private RandomAccessFile content;
+
+   /**
+    * @return The position to read the recording from.
+    */
+   public long write(RecordedDependencies recording) {
+      try {
+         if (content == null) {
+            file = File.createTempFile("forcedep-spill", ".bin");
+            file.deleteOnExit();
+            content = new RandomAccessFile(file, "rw");
+         }
+         ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+         try (DataOutputStream output = new DataOutputStream(bytes)) {
+            recording.write(output);
+         }
+         long position = content.length();
+         content.seek(position);
+         content.writeInt(bytes.size());
+         content.write(bytes.toByteArray());
+         return position;
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+   }
+
+   public RecordedDependencies read(long position) {
+      try {
+         content.seek(position);
+         byte[] bytes = new byte[content.readInt()];
+         content.readFully(bytes);
+         return RecordedDependencies.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+   }
+
+   /**
+    * @return The number of bytes written so far.
+    */
+   public long size() {
+      try {
+         return content==null?0:content.length();
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+   }
+
+   @Override
+   public void close() {
+      if (content != null) {
+         try {
+            content.close();
+         } catch (IOException e) {
+            throw new UncheckedIOException(e);
+         } finally {
+            file.delete();
+            content = null;
+         }
+      }
+   }
+}
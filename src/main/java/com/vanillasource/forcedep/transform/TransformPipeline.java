@@ -0,0 +1,243 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.vanillasource.forcedep.transform;
+
+import com.vanillasource.forcedep.Dependencies;
+import com.vanillasource.forcedep.Symbols;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.log4j.Logger;
+
+/**
+ * Builds a chain of transformations, in the order the stages are added, the first one
+ * receiving the analyzed objects. All stages share the same symbol table, and the same
+ * predicates to know which objects may still be analyzed.
+ * <p>
+ * Stages are separate decorators, each with its own records of objects and methods, so the
+ * cost per edge grows with the number of stages selected. The only fusion is that unique
+ * dependencies directly after merging private methods or lambdas are made unique by that
+ * stage, which already buffers the dependencies of each method.
+ */
+public final class TransformPipeline {
+   private static final Logger LOGGER = Logger.getLogger(TransformPipeline.class);
+   /**
+    * All transformations, in the order that gives the most exact result.
+    */
+   public static final String FULL_SPECIFICATION = "filter,override,existing,anonymous,private,lambda,unique";
+   private final Symbols symbols;
+   private final Predicate<String> filter;
+   private final Predicate<String> analyzable;
+   private final Function<String, Collection<String>> nestMembers;
+   private final List<Function<Dependencies, Dependencies>> stages = new ArrayList<>();
+   // The last stage, if it can also make dependencies unique
+   private UniqueStage lastUniqueStage;
+
+   public TransformPipeline(Symbols symbols, Predicate<String> analyzable) {
+      this(symbols, analyzable, analyzable);
+   }
+
+   /**
+    * @param filter Selects objects to keep when filtering.
+    * @param analyzable Selects objects which may still be analyzed, like the classes listed
+    * by the scanners. Stages do not wait for any other object.
+    */
+   public TransformPipeline(Symbols symbols, Predicate<String> filter, Predicate<String> analyzable) {
+      this(symbols, filter, analyzable, outerFqn -> null);
+   }
+
+   /**
+    * @param nestMembers Returns the objects of the nest of an outermost class that may be
+    * analyzed, or null if not known. Merging stages keep the dependencies of a nest until all
+    * of them are closed, or until the end if not known.
+    */
+   public TransformPipeline(Symbols symbols, Predicate<String> filter, Predicate<String> analyzable,
+         Function<String, Collection<String>> nestMembers) {
+      this.symbols = symbols;
+      this.filter = filter;
+      this.analyzable = analyzable;
+      this.nestMembers = nestMembers;
+   }
+
+   /**
+    * Let multiple threads report objects at the same time, without waiting for each other.
+    * Objects are serialized, so the following stages are still called by one thread at a time.
+    */
+   public TransformPipeline concurrent() {
+      return stage(delegate -> new ConcurrentDependencies(symbols, delegate));
+   }
+
+   /**
+    * Run the following stages on a separate thread.
+    * @param name The name of the thread, also used in reports.
+    * @param capacity The number of events buffered between the threads.
+    */
+   public TransformPipeline pipelined(String name, int capacity) {
+      return stage(delegate -> new PipelinedDependencies(name, capacity, delegate));
+   }
+
+   /**
+    * Leave out objects not selected by the filter.
+    */
+   public TransformPipeline filtered() {
+      return stage(delegate -> new FilteredDependencies(filter, delegate));
+   }
+
+   public TransformPipeline overrides() {
+      return stage(delegate -> new OverrideDependencies(analyzable, delegate));
+   }
+
+   /**
+    * Place overrides only in types which are instantiated in the analyzed code.
+    */
+   public TransformPipeline instantiatedOverrides() {
+      return stage(delegate -> new OverrideDependencies(analyzable, true, delegate));
+   }
+
+   public TransformPipeline existingObjects() {
+      return stage(delegate -> new ExistingObjectsDependencies(symbols, analyzable, delegate));
+   }
+
+   /**
+    * @param spillThreshold Approximate memory in bytes for objects waiting, above which
+    * they are written to a temporary file.
+    */
+   public TransformPipeline mergedAnonymousClasses(long spillThreshold) {
+      return stage(delegate -> new MergedAnonymousClassesDependencies(symbols, analyzable, nestMembers, spillThreshold, delegate));
+   }
+
+   public TransformPipeline mergedPrivateMethods() {
+      return uniqueStage(unique -> delegate -> new MergedPrivateMethodsDependencies(symbols, unique, delegate));
+   }
+
+   public TransformPipeline mergedLambdas() {
+      return uniqueStage(unique -> delegate -> new MergedLambdaDependencies(symbols, analyzable, nestMembers, unique, delegate));
+   }
+
+   /**
+    * Keep only unique dependencies for each method, fused into the last stage if possible.
+    */
+   public TransformPipeline unique() {
+      if (lastUniqueStage != null) {
+         stages.set(stages.size()-1, lastUniqueStage.create(true));
+         lastUniqueStage = null;
+         return this;
+      }
+      return stage(delegate -> new UniqueDependencies(symbols, delegate));
+   }
+
+   private TransformPipeline uniqueStage(UniqueStage stage) {
+      stage(stage.create(false));
+      lastUniqueStage = stage;
+      return this;
+   }
+
+   /**
+    * Add the stages named in a specification, in the given order. Names are separated by
+    * commas or whitespace, see {@link #FULL_SPECIFICATION} for most of them. Instead of
+    * <code>override</code>, <code>rta</code> places overrides only in instantiated types.
+    * @param spillThreshold Used by merging anonymous classes, if included.
+    */
+   public TransformPipeline stages(String specification, long spillThreshold) {
+      List<Stage> namedStages = Stream.of(specification.trim().split("[,\\s]+"))
+         .filter(name -> !name.isEmpty())
+         .map(Stage::named)
+         .collect(Collectors.toList());
+      namedStages.forEach(stage -> stage.add(this, spillThreshold));
+      List<String> wholeProgramStages = namedStages
+         .stream()
+         .filter(stage -> stage.wholeProgram)
+         .map(stage -> stage.name)
+         .collect(Collectors.toList());
+      if (!wholeProgramStages.isEmpty()) {
+         LOGGER.warn("stages "+wholeProgramStages+" may keep most of the analyzed program in memory until the end");
+      }
+      return this;
+   }
+
+   public TransformPipeline stage(Function<Dependencies, Dependencies> stage) {
+      stages.add(stage);
+      lastUniqueStage = null;
+      return this;
+   }
+
+   /**
+    * @param output The dependencies receiving the result of the last stage.
+    * @return The dependencies of the first stage.
+    */
+   public Dependencies build(Dependencies output) {
+      Dependencies dependencies = output;
+      for (int i=stages.size()-1; i>=0; i--) {
+         dependencies = stages.get(i).apply(dependencies);
+      }
+      return dependencies;
+   }
+
+   /**
+    * Stages that can be named in a specification.
+    */
+   private enum Stage {
+      FILTER("filter", false, (pipeline, spillThreshold) -> pipeline.filtered()),
+      // Objects wait for their supertypes, usually only for a short time
+      OVERRIDE("override", false, (pipeline, spillThreshold) -> pipeline.overrides()),
+      // Objects not instantiated yet wait until the end
+      INSTANTIATED_OVERRIDE("rta", true, (pipeline, spillThreshold) -> pipeline.instantiatedOverrides()),
+      // Dependencies wait for their target as primitive edges
+      EXISTING("existing", false, (pipeline, spillThreshold) -> pipeline.existingObjects()),
+      ANONYMOUS("anonymous", false, (pipeline, spillThreshold) -> pipeline.mergedAnonymousClasses(spillThreshold)),
+      PRIVATE("private", false, (pipeline, spillThreshold) -> pipeline.mergedPrivateMethods()),
+      LAMBDA("lambda", false, (pipeline, spillThreshold) -> pipeline.mergedLambdas()),
+      UNIQUE("unique", false, (pipeline, spillThreshold) -> pipeline.unique());
+
+      private final String name;
+      private final boolean wholeProgram;
+      private final StageFactory factory;
+
+      Stage(String name, boolean wholeProgram, StageFactory factory) {
+         this.name = name;
+         this.wholeProgram = wholeProgram;
+         this.factory = factory;
+      }
+
+      private void add(TransformPipeline pipeline, long spillThreshold) {
+         factory.add(pipeline, spillThreshold);
+      }
+
+      private static Stage named(String name) {
+         for (Stage stage: values()) {
+            if (stage.name.equals(name)) {
+               return stage;
+            }
+         }
+         throw new IllegalArgumentException("unknown transform stage '"+name+"', known stages are: "+
+               Stream.of(values()).map(stage -> stage.name).collect(Collectors.joining(",")));
+      }
+   }
+
+   private interface UniqueStage {
+      Function<Dependencies, Dependencies> create(boolean unique);
+   }
+
+   private interface StageFactory {
+      void add(TransformPipeline pipeline, long spillThreshold);
+   }
+}
@@ -19,16 +19,32 @@
 package com.vanillasource.forcedep.transform;
 
 import com.vanillasource.forcedep.Dependencies;
-import java.util.Map;
-import java.util.HashMap;
+import com.vanillasource.forcedep.Symbols;
+import java.util.ArrayDeque;
+import java.util.Deque;
 
 /**
- * Keeps only unique external dependencies for each method.
+ * Keeps only unique external dependencies for each method. Dependencies arriving after
+ * a method is closed are passed on as they are.
  */
 public final class UniqueDependencies implements Dependencies {
+   // Symbol pairs never have the highest bit set
+   private static final long REFERENCE = 1L << 63;
+   private static final int MAX_POOLED_CAPACITY = 4096;
+   private final Deque<LongHashSet> pooledSets = new ArrayDeque<>();
+   private final EdgeBatch uniqueEdges = new EdgeBatch();
+   private final Symbols symbols;
    private final Dependencies delegate;
 
    public UniqueDependencies(Dependencies delegate) {
+      this(new Symbols(), delegate);
+   }
+
+   /**
+    * @param symbols Dependencies are identified by the ids of their names in this table.
+    */
+   public UniqueDependencies(Symbols symbols, Dependencies delegate) {
+      this.symbols = symbols;
       this.delegate = delegate;
    }
 
@@ -46,29 +62,83 @@ public final class UniqueDependencies implements Dependencies {
          public Dependencies.Method method(String methodName, boolean local) {
             Dependencies.Method method = new Dependencies.Method() {
                private final Dependencies.Method method = object.method(methodName, local);
-               // I'm using Map here because Set does not have a computeIfAbsent() for some reason. It uses
-               // an empty String as value, because we can not use Void with null.
-               private final Map<String, String> methodCalls = new HashMap<>();
-               private final Map<String, String> fieldReferences = new HashMap<>();
+               // Returned to the pool at close, so nulled to not touch it afterwards
+               private LongHashSet dependencies = borrowSet();
 
                @Override
                public void call(String objectsFqn, String methodName) {
-                  methodCalls.computeIfAbsent(objectsFqn+"."+methodName, k -> {
+                  if (dependencies == null || dependencies.add(symbols.pair(objectsFqn, methodName))) {
                      method.call(objectsFqn, methodName);
-                     return "";
-                  });
+                  }
                }
 
                @Override
                public void reference(String objectsFqn, String fieldName) {
-                  fieldReferences.computeIfAbsent(objectsFqn+"."+fieldName, k -> {
+                  if (dependencies == null || dependencies.add(symbols.pair(objectsFqn, fieldName) | REFERENCE)) {
                      method.reference(objectsFqn, fieldName);
-                     return "";
-                  });
+                  }
+               }
+
+               @Override
+               public void call(Symbols eventSymbols, int objectId, int methodId) {
+                  if (eventSymbols != symbols) {
+                     call(eventSymbols.name(objectId), eventSymbols.name(methodId));
+                  } else if (dependencies == null || dependencies.add(Symbols.pair(objectId, methodId))) {
+                     method.call(symbols, objectId, methodId);
+                  }
+               }
+
+               @Override
+               public void reference(Symbols eventSymbols, int objectId, int fieldId) {
+                  if (eventSymbols != symbols) {
+                     reference(eventSymbols.name(objectId), eventSymbols.name(fieldId));
+                  } else if (dependencies == null || dependencies.add(Symbols.pair(objectId, fieldId) | REFERENCE)) {
+                     method.reference(symbols, objectId, fieldId);
+                  }
+               }
+
+               @Override
+               public void calls(Symbols eventSymbols, int[] objectIds, int[] methodIds, int count) {
+                  if (dependencies == null) {
+                     method.calls(eventSymbols, objectIds, methodIds, count);
+                  } else if (eventSymbols != symbols) {
+                     for (int i=0; i<count; i++) {
+                        call(eventSymbols, objectIds[i], methodIds[i]);
+                     }
+                  } else {
+                     for (int i=0; i<count; i++) {
+                        if (dependencies.add(Symbols.pair(objectIds[i], methodIds[i]))) {
+                           uniqueEdges.add(objectIds[i], methodIds[i]);
+                        }
+                     }
+                     uniqueEdges.calls(symbols, method);
+                  }
+               }
+
+               @Override
+               public void references(Symbols eventSymbols, int[] objectIds, int[] fieldIds, int count) {
+                  if (dependencies == null) {
+                     method.references(eventSymbols, objectIds, fieldIds, count);
+                  } else if (eventSymbols != symbols) {
+                     for (int i=0; i<count; i++) {
+                        reference(eventSymbols, objectIds[i], fieldIds[i]);
+                     }
+                  } else {
+                     for (int i=0; i<count; i++) {
+                        if (dependencies.add(Symbols.pair(objectIds[i], fieldIds[i]) | REFERENCE)) {
+                           uniqueEdges.add(objectIds[i], fieldIds[i]);
+                        }
+                     }
+                     uniqueEdges.references(symbols, method);
+                  }
                }
 
                @Override
                public void close() {
+                  if (dependencies != null) {
+                     returnSet(dependencies);
+                     dependencies = null;
+                  }
                   method.close();
                }
             };
@@ -86,6 +156,22 @@ public final class UniqueDependencies implements Dependencies {
          }
       };
    }
-}
 
+   /**
+    * Sets are reused by subsequent methods, usually there is only one method open at a time.
+    */
+   private LongHashSet borrowSet() {
+      LongHashSet set = pooledSets.pollFirst();
+      if (set == null) {
+         return new LongHashSet();
+      }
+      return set;
+   }
 
+   private void returnSet(LongHashSet set) {
+      if (set.capacity() <= MAX_POOLED_CAPACITY) {
+         set.clear();
+         pooledSets.addFirst(set);
+      }
+   }
+}
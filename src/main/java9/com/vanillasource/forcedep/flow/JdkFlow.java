@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.vanillasource.forcedep.flow;
+
+/**
+ * Adapts the flow interfaces of this library to the standard <code>java.util.concurrent.Flow</code>
+ * ones. Only available on Java 9 or newer, where it is loaded from the versioned part of
+ * the jar.
+ */
+public final class JdkFlow {
+   private JdkFlow() {
+   }
+
+   /**
+    * @return A standard publisher, for example of an <code>AnalysisPublisher</code>.
+    */
+   public static <T> java.util.concurrent.Flow.Publisher<T> publisher(Flow.Publisher<T> publisher) {
+      return subscriber -> publisher.subscribe(subscriber(subscriber));
+   }
+
+   /**
+    * @return A subscriber of this library, which passes all signals to the given standard one.
+    */
+   public static <T> Flow.Subscriber<T> subscriber(java.util.concurrent.Flow.Subscriber<T> subscriber) {
+      return new Flow.Subscriber<T>() {
+         @Override
+         public void onSubscribe(Flow.Subscription subscription) {
+            subscriber.onSubscribe(new java.util.concurrent.Flow.Subscription() {
+               @Override
+               public void request(long n) {
+                  subscription.request(n);
+               }
+
+               @Override
+               public void cancel() {
+                  subscription.cancel();
+               }
+            });
+         }
+
+         @Override
+         public void onNext(T item) {
+            subscriber.onNext(item);
+         }
+
+         @Override
+         public void onError(Throwable throwable) {
+            subscriber.onError(throwable);
+         }
+
+         @Override
+         public void onComplete() {
+            subscriber.onComplete();
+         }
+      };
+   }
+}
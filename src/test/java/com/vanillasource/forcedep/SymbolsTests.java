@@ -0,0 +1,70 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.vanillasource.forcedep;
+
+import static org.testng.Assert.*;
+import org.testng.annotations.Test;
+import org.testng.annotations.BeforeMethod;
+
+@Test
+public class SymbolsTests {
+   private Symbols symbols;
+
+   public void testSameNameGetsSameId() {
+      assertEquals(symbols.id(new String("a.B")), symbols.id(new String("a.B")));
+   }
+
+   public void testIdsAreDense() {
+      assertEquals(symbols.id("a"), 0);
+      assertEquals(symbols.id("b"), 1);
+      assertEquals(symbols.id("a"), 0);
+      assertEquals(symbols.size(), 2);
+   }
+
+   public void testNameOfIdIsReturned() {
+      int id = symbols.id("a.B");
+
+      assertEquals(symbols.name(id), "a.B");
+   }
+
+   public void testInternReturnsCanonicalInstance() {
+      String name = symbols.intern(new String("a.B"));
+
+      assertSame(symbols.intern(new String("a.B")), name);
+   }
+
+   public void testTableGrowsBeyondInitialCapacity() {
+      for (int i=0; i<10000; i++) {
+         assertEquals(symbols.id("name"+i), i);
+      }
+
+      assertEquals(symbols.name(9999), "name9999");
+   }
+
+   public void testPairsOfDifferentMembersDiffer() {
+      assertNotEquals(symbols.pair("a.B", "c"), symbols.pair("a.B", "d"));
+      assertNotEquals(symbols.pair("a.B", "c"), symbols.pair("c", "a.B"));
+      assertEquals(symbols.pair("a.B", "c"), symbols.pair("a.B", "c"));
+   }
+
+   @BeforeMethod
+   protected void setUp() {
+      symbols = new Symbols();
+   }
+}
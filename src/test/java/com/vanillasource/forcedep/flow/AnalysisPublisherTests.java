@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.vanillasource.forcedep.flow;
+
+import com.vanillasource.forcedep.Objects;
+import com.vanillasource.forcedep.transform.FilteredDependencies;
+import com.vanillasource.forcedep.flow.DependencyEvent.Type;
+import com.vanillasource.forcedep.flow.SubscriberDependenciesTests.RecordingSubscriber;
+import static org.testng.Assert.*;
+import org.testng.annotations.Test;
+import java.util.concurrent.TimeUnit;
+
+@Test
+public class AnalysisPublisherTests {
+   public void testAnalysisIsPublishedAndCompleted() throws Exception {
+      AnalysisPublisher publisher = new AnalysisPublisher(dependencies -> {
+         dependencies.object("a.B", false, false).close();
+         dependencies.object("a.C", false, false).close();
+      });
+      RecordingSubscriber subscriber = new RecordingSubscriber();
+
+      publisher.subscribe(subscriber);
+      subscriber.subscription.request(Long.MAX_VALUE);
+
+      assertTrue(subscriber.done.await(10, TimeUnit.SECONDS));
+      assertTrue(subscriber.completed);
+      assertEquals(subscriber.events.size(), 4);
+      assertEquals(subscriber.events.get(2).getType(), Type.OBJECT);
+      assertEquals(subscriber.events.get(2).getName(), "a.C");
+   }
+
+   public void testTransformsAreAppliedBeforePublishing() throws Exception {
+      Objects objects = dependencies -> {
+         dependencies.object("a.B", false, false).close();
+      };
+      AnalysisPublisher publisher = new AnalysisPublisher(objects,
+            delegate -> new FilteredDependencies(fqn -> false, delegate));
+      RecordingSubscriber subscriber = new RecordingSubscriber();
+
+      publisher.subscribe(subscriber);
+      subscriber.subscription.request(1);
+
+      assertTrue(subscriber.done.await(10, TimeUnit.SECONDS));
+      assertTrue(subscriber.events.isEmpty());
+   }
+
+   public void testFailedAnalysisIsSignaled() throws Exception {
+      AnalysisPublisher publisher = new AnalysisPublisher(dependencies -> {
+         throw new IllegalStateException("test");
+      });
+      RecordingSubscriber subscriber = new RecordingSubscriber();
+
+      publisher.subscribe(subscriber);
+
+      assertTrue(subscriber.done.await(10, TimeUnit.SECONDS));
+      assertTrue(subscriber.error instanceof IllegalStateException);
+   }
+
+   public void testAnalysisStopsWhenCancelled() throws Exception {
+      RecordingSubscriber subscriber = new RecordingSubscriber();
+      AnalysisPublisher publisher = new AnalysisPublisher(dependencies -> {
+         for (int i=0; i<1000; i++) {
+            dependencies.object("a.B"+i, false, false).close();
+            if (i == 0) {
+               subscriber.subscription.cancel();
+            }
+         }
+      });
+
+      publisher.subscribe(subscriber);
+      subscriber.subscription.request(Long.MAX_VALUE);
+
+      assertFalse(subscriber.done.await(200, TimeUnit.MILLISECONDS));
+      assertTrue(subscriber.events.size() <= 2);
+   }
+}
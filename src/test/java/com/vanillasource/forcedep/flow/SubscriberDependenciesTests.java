@@ -0,0 +1,189 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.vanillasource.forcedep.flow;
+
+import com.vanillasource.forcedep.Dependencies;
+import com.vanillasource.forcedep.flow.DependencyEvent.Type;
+import static org.testng.Assert.*;
+import static java.util.Arrays.asList;
+import org.testng.annotations.Test;
+import org.testng.annotations.BeforeMethod;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@Test
+public class SubscriberDependenciesTests {
+   private RecordingSubscriber subscriber;
+   private SubscriberDependencies dependencies;
+
+   public void testSubscriptionIsGivenAtConstruction() {
+      assertNotNull(subscriber.subscription);
+   }
+
+   public void testEventsAreSentWithIds() {
+      subscriber.subscription.request(10);
+
+      Dependencies.Object object = dependencies.object("a.B", true, false, "a.C");
+      Dependencies.Method method = object.method("c", false);
+      method.call("d.E", "f");
+      method.close();
+      object.close();
+
+      assertEquals(subscriber.events.size(), 5);
+      DependencyEvent objectEvent = subscriber.events.get(0);
+      assertEquals(objectEvent.getType(), Type.OBJECT);
+      assertEquals(objectEvent.getName(), "a.B");
+      assertTrue(objectEvent.isLocal());
+      assertEquals(objectEvent.getSuperObjectFqns(), new String[] { "a.C" });
+      DependencyEvent callEvent = subscriber.events.get(2);
+      assertEquals(callEvent.getType(), Type.CALL);
+      assertEquals(callEvent.getObjectId(), objectEvent.getObjectId());
+      assertEquals(callEvent.getMethodId(), subscriber.events.get(1).getMethodId());
+      assertEquals(callEvent.getName(), "d.E");
+      assertEquals(callEvent.getMemberName(), "f");
+      assertEquals(subscriber.events.get(4).getType(), Type.OBJECT_CLOSE);
+   }
+
+   public void testCloseCompletes() {
+      dependencies.close();
+
+      assertTrue(subscriber.completed);
+   }
+
+   public void testFailureIsSignaled() {
+      dependencies.fail(new IllegalStateException("test"));
+
+      assertTrue(subscriber.error instanceof IllegalStateException);
+   }
+
+   public void testReportingWaitsForDemand() throws Exception {
+      CountDownLatch reported = new CountDownLatch(1);
+      Thread analysis = new Thread(() -> {
+         dependencies.object("a.B", false, false);
+         reported.countDown();
+      });
+      analysis.start();
+
+      assertFalse(reported.await(100, TimeUnit.MILLISECONDS));
+      subscriber.subscription.request(1);
+      assertTrue(reported.await(10, TimeUnit.SECONDS));
+      analysis.join();
+      assertEquals(subscriber.events.size(), 1);
+   }
+
+   @Test(expectedExceptions = CancellationException.class)
+   public void testReportingAfterCancelThrows() {
+      subscriber.subscription.cancel();
+
+      dependencies.object("a.B", false, false);
+   }
+
+   public void testNonPositiveRequestIsSignaledAsError() {
+      subscriber.subscription.request(0);
+
+      try {
+         dependencies.object("a.B", false, false);
+         fail("reporting should stop");
+      } catch (CancellationException e) {
+         assertTrue(subscriber.error instanceof IllegalArgumentException);
+      }
+   }
+
+   public void testCloseAfterCancelDoesNotComplete() {
+      subscriber.subscription.cancel();
+
+      dependencies.close();
+
+      assertFalse(subscriber.completed);
+   }
+
+   public void testNonPositiveRequestAfterLastEventIsSignaledAtClose() {
+      subscriber.subscription.request(1);
+      dependencies.object("a.B", false, false);
+      subscriber.subscription.request(-1);
+
+      dependencies.close();
+
+      assertTrue(subscriber.error instanceof IllegalArgumentException);
+      assertFalse(subscriber.completed);
+   }
+
+   public void testRequestFromOtherThreadWhileHandlingEventDoesNotBlock() throws Exception {
+      List<Boolean> requestsFinished = new ArrayList<>();
+      subscriber = new RecordingSubscriber() {
+         @Override
+         public synchronized void onNext(DependencyEvent event) {
+            super.onNext(event);
+            // Hands the event to a worker, which requests the next one before this returns
+            Thread worker = new Thread(() -> subscription.request(1));
+            worker.start();
+            try {
+               worker.join(5000);
+            } catch (InterruptedException e) {
+               throw new IllegalStateException(e);
+            }
+            requestsFinished.add(!worker.isAlive());
+         }
+      };
+      dependencies = new SubscriberDependencies(subscriber);
+      subscriber.subscription.request(1);
+
+      dependencies.object("a.B", false, false).close();
+
+      assertEquals(requestsFinished, asList(true, true));
+   }
+
+   static class RecordingSubscriber implements Flow.Subscriber<DependencyEvent> {
+      final List<DependencyEvent> events = new ArrayList<>();
+      final CountDownLatch done = new CountDownLatch(1);
+      volatile Flow.Subscription subscription;
+      volatile boolean completed = false;
+      volatile Throwable error;
+
+      @Override
+      public void onSubscribe(Flow.Subscription subscription) {
+         this.subscription = subscription;
+      }
+
+      @Override
+      public synchronized void onNext(DependencyEvent event) {
+         events.add(event);
+      }
+
+      @Override
+      public void onError(Throwable throwable) {
+         error = throwable;
+         done.countDown();
+      }
+
+      @Override
+      public void onComplete() {
+         completed = true;
+         done.countDown();
+      }
+   }
+
+   @BeforeMethod
+   protected void setUp() {
+      subscriber = new RecordingSubscriber();
+      dependencies = new SubscriberDependencies(subscriber);
+   }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.vanillasource.forcedep.jvm;
+
+import com.vanillasource.forcedep.Dependencies;
+import com.vanillasource.forcedep.Symbols;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * Measures the bytes allocated by the analysis of a single class, with logging on info level
+ * and a no-op consumer. Not a test, run it manually with a jar file, like the <code>rt.jar</code>
+ * of a Java 8 runtime:
+ * <pre>java -cp ... com.vanillasource.forcedep.jvm.AsmClassAllocationBenchmark rt.jar</pre>
+ */
+public final class AsmClassAllocationBenchmark {
+   private static final int ROUNDS = 5;
+
+   public static void main(String[] args) throws Exception {
+      Logger.getRootLogger().setLevel(Level.INFO);
+      List<byte[]> classes = readClasses(new File(args[0]));
+      com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+      long threadId = Thread.currentThread().getId();
+      Symbols symbols = new Symbols();
+      for (int round=0; round<ROUNDS; round++) {
+         long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+         long timeBefore = System.nanoTime();
+         for (byte[] bytes: classes) {
+            new AsmClass(new ByteArrayInputStream(bytes), symbols).analyze(NO_DEPENDENCIES);
+         }
+         long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+         long time = System.nanoTime() - timeBefore;
+         System.out.println(String.format("round %d: %d classes, %d bytes/class, %d ns/class",
+                  round, classes.size(), allocated/classes.size(), time/classes.size()));
+      }
+   }
+
+   private static List<byte[]> readClasses(File jarFile) throws Exception {
+      List<byte[]> classes = new ArrayList<>();
+      try (ZipFile zipFile = new ZipFile(jarFile)) {
+         Enumeration<? extends ZipEntry> entries = zipFile.entries();
+         while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            if (entry.getName().endsWith(".class") && !entry.getName().endsWith("module-info.class")) {
+               try (InputStream input = zipFile.getInputStream(entry)) {
+                  ByteArrayOutputStream output = new ByteArrayOutputStream();
+                  byte[] buffer = new byte[8192];
+                  int length;
+                  while ((length = input.read(buffer)) >= 0) {
+                     output.write(buffer, 0, length);
+                  }
+                  classes.add(output.toByteArray());
+               }
+            }
+         }
+      }
+      return classes;
+   }
+
+   private static final Dependencies.Method NO_METHOD = new Dependencies.Method() {
+      @Override
+      public void call(String objectsFqn, String methodName) {
+      }
+
+      @Override
+      public void reference(String objectsFqn, String fieldName) {
+      }
+
+      @Override
+      public void close() {
+      }
+   };
+
+   private static final Dependencies.Object NO_OBJECT = new Dependencies.Object() {
+      @Override
+      public Dependencies.Method method(String methodName, boolean local) {
+         return NO_METHOD;
+      }
+
+      @Override
+      public void field(String fieldName) {
+      }
+
+      @Override
+      public void close() {
+      }
+   };
+
+   private static final Dependencies NO_DEPENDENCIES = new Dependencies() {
+      @Override
+      public Dependencies.Object object(String objectFqn, boolean local, boolean pureInterface, String... superObjectFqns) {
+         return NO_OBJECT;
+      }
+
+      @Override
+      public void close() {
+      }
+   };
+}
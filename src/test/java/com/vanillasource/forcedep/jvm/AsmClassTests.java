@@ -19,7 +19,11 @@
 package com.vanillasource.forcedep.jvm;
 
 import com.vanillasource.forcedep.Dependencies;
+import com.vanillasource.forcedep.Symbols;
 import static org.mockito.Mockito.*;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import java.util.function.BiConsumer;
 import org.testng.annotations.Test;
 import org.testng.annotations.BeforeMethod;
 
@@ -159,6 +163,40 @@ public class AsmClassTests {
       verify(method).reference("com.vanillasource.forcedep.jvm.H", "EMPTY_HI");
    }
 
+   public void testCallsOfMethodAreDeliveredInOneBatch() throws Exception {
+      AsmClass aClass = new AsmClass(getClass().getClassLoader().getResourceAsStream("com/vanillasource/forcedep/jvm/B.class"));
+
+      aClass.analyze(dependencies);
+
+      verify(method, never()).references(any(Symbols.class), any(int[].class), any(int[].class), anyInt());
+      verify(method, times(3)).calls(any(Symbols.class), any(int[].class), any(int[].class), eq(1));
+   }
+
+   public void testCallsOfMethodAreDeliveredBeforeItsReferences() throws Exception {
+      AsmClass aClass = new AsmClass(getClass().getClassLoader().getResourceAsStream("com/vanillasource/forcedep/jvm/F$1.class"));
+
+      aClass.analyze(dependencies);
+
+      // The outer object is referenced before it is called in the code of the anonymous method
+      InOrder inOrder = inOrder(method);
+      inOrder.verify(method).call(eq("com.vanillasource.forcedep.jvm.F"), anyString());
+      inOrder.verify(method).reference("com.vanillasource.forcedep.jvm.F$1", "this$0");
+   }
+
+   /**
+    * Deliver batches of the mock to its single edge methods.
+    */
+   private Object singleEdges(InvocationOnMock invocation, BiConsumer<String, String> edge) {
+      Symbols symbols = (Symbols) invocation.getArguments()[0];
+      int[] objectIds = (int[]) invocation.getArguments()[1];
+      int[] memberIds = (int[]) invocation.getArguments()[2];
+      int count = (Integer) invocation.getArguments()[3];
+      for (int i=0; i<count; i++) {
+         edge.accept(symbols.name(objectIds[i]), symbols.name(memberIds[i]));
+      }
+      return null;
+   }
+
    @BeforeMethod
    protected void setUp() {
       dependencies = mock(Dependencies.class);
@@ -166,5 +204,7 @@ public class AsmClassTests {
       object = mock(Dependencies.Object.class);
       when(dependencies.object(anyString(), anyBoolean(), anyBoolean(), anyVararg())).thenReturn(object);
       when(object.method(anyString(), anyBoolean())).thenReturn(method);
+      doAnswer(invocation -> singleEdges(invocation, method::call)).when(method).calls(any(Symbols.class), any(int[].class), any(int[].class), anyInt());
+      doAnswer(invocation -> singleEdges(invocation, method::reference)).when(method).references(any(Symbols.class), any(int[].class), any(int[].class), anyInt());
    }
 }
@@ -0,0 +1,172 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.vanillasource.forcedep.scan;
+
+import com.vanillasource.forcedep.Objects;
+import com.vanillasource.forcedep.Dependencies;
+import com.vanillasource.forcedep.jvm.AsmClass;
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.*;
+import org.testng.annotations.Test;
+import org.testng.annotations.BeforeMethod;
+import java.io.File;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+@Test
+public class ClassCacheTests {
+   private Dependencies dependencies;
+   private File file;
+   private AtomicInteger analyzedClasses;
+   private Function<InputStream, Objects> objectFactory;
+
+   public void testMissedClassIsAnalyzed() throws Exception {
+      try (ClassCache cache = new ClassCache(file, 1024*1024)) {
+         cache.cached(objectFactory).apply(classBytes("B")).analyze(dependencies);
+      }
+
+      assertEquals(analyzedClasses.get(), 1);
+      verify(dependencies).object(eq("com.vanillasource.forcedep.jvm.B"), anyBoolean(), anyBoolean(), anyVararg());
+   }
+
+   public void testCachedClassIsNotAnalyzedAgain() throws Exception {
+      try (ClassCache cache = new ClassCache(file, 1024*1024)) {
+         cache.cached(objectFactory).apply(classBytes("B")).analyze(mock(Dependencies.class, RETURNS_MOCKS));
+         cache.cached(objectFactory).apply(classBytes("B")).analyze(dependencies);
+      }
+
+      assertEquals(analyzedClasses.get(), 1);
+      verify(dependencies).object(eq("com.vanillasource.forcedep.jvm.B"), anyBoolean(), anyBoolean(), anyVararg());
+   }
+
+   public void testCachedClassIsReplayedFromFile() throws Exception {
+      try (ClassCache cache = new ClassCache(file, 1024*1024)) {
+         cache.cached(objectFactory).apply(classBytes("B")).analyze(mock(Dependencies.class, RETURNS_MOCKS));
+      }
+
+      try (ClassCache cache = new ClassCache(file, 1024*1024)) {
+         cache.cached(objectFactory).apply(classBytes("B")).analyze(dependencies);
+      }
+
+      assertEquals(analyzedClasses.get(), 1);
+      verify(dependencies).object(eq("com.vanillasource.forcedep.jvm.B"), anyBoolean(), anyBoolean(), anyVararg());
+   }
+
+   public void testClassWithChangedChecksumIsAnalyzedAgain() throws Exception {
+      try (ClassCache cache = new ClassCache(file, 1024*1024)) {
+         cache.cached(objectFactory).apply(classBytes("B", 1)).analyze(mock(Dependencies.class, RETURNS_MOCKS));
+         cache.cached(objectFactory).apply(classBytes("B", 2)).analyze(dependencies);
+      }
+
+      assertEquals(analyzedClasses.get(), 2);
+      verify(dependencies).object(eq("com.vanillasource.forcedep.jvm.B"), anyBoolean(), anyBoolean(), anyVararg());
+   }
+
+   public void testCachedClassIsNotRead() throws Exception {
+      try (ClassCache cache = new ClassCache(file, 1024*1024)) {
+         cache.cached(objectFactory).apply(classBytes("B")).analyze(mock(Dependencies.class, RETURNS_MOCKS));
+         cache.cached(objectFactory).apply(ClassInput.entry("B.class", 1, 1, 1, () -> {
+            throw new AssertionError("cached class was read");
+         })).analyze(dependencies);
+      }
+
+      verify(dependencies).object(eq("com.vanillasource.forcedep.jvm.B"), anyBoolean(), anyBoolean(), anyVararg());
+   }
+
+   public void testUnidentifiedClassIsNotCached() throws Exception {
+      try (ClassCache cache = new ClassCache(file, 1024*1024)) {
+         cache.cached(objectFactory).apply(resource("B")).analyze(mock(Dependencies.class, RETURNS_MOCKS));
+         cache.cached(objectFactory).apply(resource("B")).analyze(dependencies);
+      }
+
+      assertEquals(analyzedClasses.get(), 2);
+      verify(dependencies).object(eq("com.vanillasource.forcedep.jvm.B"), anyBoolean(), anyBoolean(), anyVararg());
+   }
+
+   public void testUnchangedCacheIsNotWritten() throws Exception {
+      try (ClassCache cache = new ClassCache(file, 1024*1024)) {
+         cache.cached(objectFactory).apply(classBytes("B")).analyze(mock(Dependencies.class, RETURNS_MOCKS));
+      }
+      assertTrue(file.setLastModified(1000));
+
+      try (ClassCache cache = new ClassCache(file, 1024*1024)) {
+         cache.cached(objectFactory).apply(classBytes("B")).analyze(dependencies);
+      }
+
+      assertEquals(file.lastModified(), 1000);
+   }
+
+   public void testLeastRecentlyUsedClassIsEvicted() throws Exception {
+      try (ClassCache cache = new ClassCache(file, 300)) {
+         cache.cached(objectFactory).apply(classBytes("B")).analyze(mock(Dependencies.class, RETURNS_MOCKS));
+         cache.cached(objectFactory).apply(classBytes("D")).analyze(mock(Dependencies.class, RETURNS_MOCKS));
+         cache.cached(objectFactory).apply(classBytes("D")).analyze(mock(Dependencies.class, RETURNS_MOCKS));
+         cache.cached(objectFactory).apply(classBytes("B")).analyze(mock(Dependencies.class, RETURNS_MOCKS));
+      }
+
+      assertEquals(analyzedClasses.get(), 3);
+   }
+
+   public void testTruncatedCacheFileIsIgnored() throws Exception {
+      try (ClassCache cache = new ClassCache(file, 1024*1024)) {
+         cache.cached(objectFactory).apply(classBytes("B")).analyze(mock(Dependencies.class, RETURNS_MOCKS));
+      }
+      try (RandomAccessFile content = new RandomAccessFile(file, "rw")) {
+         content.setLength(content.length()-10);
+      }
+
+      try (ClassCache cache = new ClassCache(file, 1024*1024)) {
+         cache.cached(objectFactory).apply(classBytes("B")).analyze(dependencies);
+      }
+
+      assertEquals(analyzedClasses.get(), 2);
+      verify(dependencies).object(eq("com.vanillasource.forcedep.jvm.B"), anyBoolean(), anyBoolean(), anyVararg());
+   }
+
+   private InputStream classBytes(String className) {
+      return classBytes(className, 1);
+   }
+
+   private InputStream classBytes(String className, long crc) {
+      return ClassInput.entry(className+".class", 1, crc, 1, () -> resource(className));
+   }
+
+   private InputStream resource(String className) {
+      return getClass().getClassLoader().getResourceAsStream("com/vanillasource/forcedep/jvm/"+className+".class");
+   }
+
+   @BeforeMethod
+   protected void setUp() throws Exception {
+      file = File.createTempFile("classes", ".cache");
+      file.delete();
+      file.deleteOnExit();
+      analyzedClasses = new AtomicInteger();
+      objectFactory = input -> {
+         analyzedClasses.incrementAndGet();
+         return new AsmClass(input);
+      };
+      dependencies = mock(Dependencies.class);
+      Dependencies.Method method = mock(Dependencies.Method.class);
+      Dependencies.Object object = mock(Dependencies.Object.class);
+      when(dependencies.object(anyString(), anyBoolean(), anyBoolean(), anyVararg())).thenReturn(object);
+      when(object.method(anyString(), anyBoolean())).thenReturn(method);
+   }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.vanillasource.forcedep.scan;
+
+import com.vanillasource.forcedep.jvm.AsmClass;
+import com.vanillasource.forcedep.Dependencies;
+import static org.mockito.Mockito.*;
+import org.testng.annotations.Test;
+import org.testng.annotations.BeforeMethod;
+import org.mockito.InOrder;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+@Test
+public class DirectoryObjectsTests {
+   private Dependencies dependencies;
+
+   public void testAnalysisDetectsAllClasses() throws Exception {
+      DirectoryObjects directoryObjects = new DirectoryObjects(jvmDirectory(), AsmClass::new);
+
+      directoryObjects.analyze(dependencies);
+
+      verify(dependencies).object(eq("com.vanillasource.forcedep.jvm.A"), anyBoolean(), anyBoolean(), anyVararg());
+      verify(dependencies).object(eq("com.vanillasource.forcedep.jvm.F$1"), anyBoolean(), anyBoolean(), anyVararg());
+      verify(dependencies).object(eq("com.vanillasource.forcedep.jvm.HI"), anyBoolean(), anyBoolean(), anyVararg());
+   }
+
+   public void testSubdirectoriesAreAnalyzed() throws Exception {
+      DirectoryObjects directoryObjects = new DirectoryObjects(jvmDirectory().getParent(), AsmClass::new);
+
+      directoryObjects.analyze(dependencies);
+
+      verify(dependencies).object(eq("com.vanillasource.forcedep.jvm.A"), anyBoolean(), anyBoolean(), anyVararg());
+   }
+
+   public void testClassesAreAnalyzedInFileNameOrder() throws Exception {
+      DirectoryObjects directoryObjects = new DirectoryObjects(jvmDirectory(), AsmClass::new);
+
+      directoryObjects.analyze(dependencies);
+
+      InOrder inOrder = inOrder(dependencies);
+      inOrder.verify(dependencies).object(eq("com.vanillasource.forcedep.jvm.A"), anyBoolean(), anyBoolean(), anyVararg());
+      inOrder.verify(dependencies).object(eq("com.vanillasource.forcedep.jvm.B"), anyBoolean(), anyBoolean(), anyVararg());
+      inOrder.verify(dependencies).object(eq("com.vanillasource.forcedep.jvm.C"), anyBoolean(), anyBoolean(), anyVararg());
+   }
+
+   public void testFilteredClassesAreNotAnalyzed() throws Exception {
+      DirectoryObjects directoryObjects = new DirectoryObjects(jvmDirectory().getParent().getParent().getParent().getParent(),
+            fqn -> !fqn.equals("com.vanillasource.forcedep.jvm.A"), AsmClass::new);
+
+      directoryObjects.analyze(dependencies);
+
+      verify(dependencies, never()).object(eq("com.vanillasource.forcedep.jvm.A"), anyBoolean(), anyBoolean(), anyVararg());
+      verify(dependencies).object(eq("com.vanillasource.forcedep.jvm.B"), anyBoolean(), anyBoolean(), anyVararg());
+   }
+
+   private Path jvmDirectory() throws Exception {
+      return Paths.get(getClass().getClassLoader().getResource("com/vanillasource/forcedep/jvm/A.class").toURI()).getParent();
+   }
+
+   @BeforeMethod
+   protected void setUp() {
+      dependencies = mock(Dependencies.class);
+      Dependencies.Method method = mock(Dependencies.Method.class);
+      Dependencies.Object object = mock(Dependencies.Object.class);
+      when(dependencies.object(anyString(), anyBoolean(), anyBoolean(), anyVararg())).thenReturn(object);
+      when(object.method(anyString(), anyBoolean())).thenReturn(method);
+   }
+}
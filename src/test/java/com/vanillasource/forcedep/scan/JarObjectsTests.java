@@ -20,10 +20,21 @@ package com.vanillasource.forcedep.scan;
 
 import com.vanillasource.forcedep.jvm.AsmClass;
 import com.vanillasource.forcedep.Dependencies;
+import com.vanillasource.forcedep.Objects;
 import static org.mockito.Mockito.*;
+import static org.testng.Assert.*;
 import org.testng.annotations.Test;
 import org.testng.annotations.BeforeMethod;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Set;
+import java.util.HashSet;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 @Test
 public class JarObjectsTests {
@@ -40,6 +51,114 @@ public class JarObjectsTests {
       verify(dependencies).object(eq("com.vanillasource.forcedep.jvm.B"), anyBoolean(), anyBoolean(), anyVararg());
    }
 
+   public void testVerifiedAnalysisDetectsAllClasses() throws Exception {
+      JarObjects jarObjects = new JarObjects(
+            new File(getClass().getClassLoader().getResource("com/vanillasource/forcedep/scan/ab.jar").toURI()),
+            true, AsmClass::new);
+
+      jarObjects.analyze(dependencies);
+
+      verify(dependencies).object(eq("com.vanillasource.forcedep.jvm.A"), anyBoolean(), anyBoolean(), anyVararg());
+      verify(dependencies).object(eq("com.vanillasource.forcedep.jvm.B"), anyBoolean(), anyBoolean(), anyVararg());
+   }
+
+   public void testStoredNestedJarIsAnalyzed() throws Exception {
+      JarObjects jarObjects = new JarObjects(fatJar(ZipEntry.STORED), AsmClass::new);
+
+      jarObjects.analyze(dependencies);
+
+      verify(dependencies).object(eq("com.vanillasource.forcedep.jvm.A"), anyBoolean(), anyBoolean(), anyVararg());
+      verify(dependencies).object(eq("com.vanillasource.forcedep.jvm.B"), anyBoolean(), anyBoolean(), anyVararg());
+   }
+
+   public void testDeflatedNestedJarIsAnalyzed() throws Exception {
+      JarObjects jarObjects = new JarObjects(fatJar(ZipEntry.DEFLATED), AsmClass::new);
+
+      jarObjects.analyze(dependencies);
+
+      verify(dependencies).object(eq("com.vanillasource.forcedep.jvm.A"), anyBoolean(), anyBoolean(), anyVararg());
+      verify(dependencies).object(eq("com.vanillasource.forcedep.jvm.B"), anyBoolean(), anyBoolean(), anyVararg());
+   }
+
+   public void testNestedJarIsAnalyzedWhenVerified() throws Exception {
+      JarObjects jarObjects = new JarObjects(fatJar(ZipEntry.STORED), true, AsmClass::new);
+
+      jarObjects.analyze(dependencies);
+
+      verify(dependencies).object(eq("com.vanillasource.forcedep.jvm.A"), anyBoolean(), anyBoolean(), anyVararg());
+   }
+
+   public void testFilteredNestedJarIsNotAnalyzed() throws Exception {
+      JarObjects jarObjects = new JarObjects(fatJar(ZipEntry.STORED), false, name -> !name.startsWith("BOOT-INF/lib/"), fqn -> true, AsmClass::new);
+
+      jarObjects.analyze(dependencies);
+
+      verify(dependencies, never()).object(eq("com.vanillasource.forcedep.jvm.A"), anyBoolean(), anyBoolean(), anyVararg());
+   }
+
+   public void testFilteredClassesAreNotAnalyzed() throws Exception {
+      JarObjects jarObjects = new JarObjects(
+            new File(getClass().getClassLoader().getResource("com/vanillasource/forcedep/scan/ab.jar").toURI()),
+            false, name -> true, fqn -> !fqn.equals("com.vanillasource.forcedep.jvm.A"), AsmClass::new);
+
+      jarObjects.analyze(dependencies);
+
+      verify(dependencies, never()).object(eq("com.vanillasource.forcedep.jvm.A"), anyBoolean(), anyBoolean(), anyVararg());
+      verify(dependencies).object(eq("com.vanillasource.forcedep.jvm.B"), anyBoolean(), anyBoolean(), anyVararg());
+   }
+
+   public void testFilteredClassesOfNestedJarAreNotAnalyzed() throws Exception {
+      JarObjects jarObjects = new JarObjects(fatJar(ZipEntry.DEFLATED),
+            false, name -> true, fqn -> !fqn.equals("com.vanillasource.forcedep.jvm.A"), AsmClass::new);
+
+      jarObjects.analyze(dependencies);
+
+      verify(dependencies, never()).object(eq("com.vanillasource.forcedep.jvm.A"), anyBoolean(), anyBoolean(), anyVararg());
+      verify(dependencies).object(eq("com.vanillasource.forcedep.jvm.B"), anyBoolean(), anyBoolean(), anyVararg());
+   }
+
+   public void testClassesOfStoredNestedJarAreListedBeforeAnalysis() throws Exception {
+      Set<String> listedFqns = new HashSet<>();
+      JarObjects jarObjects = new JarObjects(fatJar(ZipEntry.STORED), false, name -> true, listedFqns::add, AsmClass::new);
+
+      try (Stream<Objects> parts = jarObjects.parts()) {
+         assertTrue(listedFqns.contains("com.vanillasource.forcedep.jvm.A"));
+      }
+   }
+
+   public void testDeflatedNestedJarIsUnlistedUntilRead() throws Exception {
+      UnlistedArchives unlistedArchives = mock(UnlistedArchives.class);
+      JarObjects jarObjects = new JarObjects(fatJar(ZipEntry.DEFLATED), false, name -> true, fqn -> true, unlistedArchives, AsmClass::new);
+
+      try (Stream<Objects> parts = jarObjects.parts()) {
+         verify(unlistedArchives).found();
+         verify(unlistedArchives, never()).read();
+         parts.forEachOrdered(part -> part.analyze(dependencies));
+         verify(unlistedArchives).read();
+      }
+   }
+
+   private File fatJar(int method) throws Exception {
+      byte[] abJar = Files.readAllBytes(
+            Paths.get(getClass().getClassLoader().getResource("com/vanillasource/forcedep/scan/ab.jar").toURI()));
+      File file = File.createTempFile("fat", ".jar");
+      file.deleteOnExit();
+      try (ZipOutputStream output = new ZipOutputStream(new FileOutputStream(file))) {
+         ZipEntry entry = new ZipEntry("BOOT-INF/lib/ab.jar");
+         entry.setMethod(method);
+         if (method == ZipEntry.STORED) {
+            CRC32 crc = new CRC32();
+            crc.update(abJar);
+            entry.setSize(abJar.length);
+            entry.setCrc(crc.getValue());
+         }
+         output.putNextEntry(entry);
+         output.write(abJar);
+         output.closeEntry();
+      }
+      return file;
+   }
+
    @BeforeMethod
    protected void setUp() {
       dependencies = mock(Dependencies.class);
@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.vanillasource.forcedep.scan;
+
+import com.vanillasource.forcedep.jvm.AsmClass;
+import com.vanillasource.forcedep.Dependencies;
+import static org.mockito.Mockito.*;
+import org.testng.annotations.Test;
+import org.testng.annotations.BeforeMethod;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+@Test
+public class JmodObjectsTests {
+   private Dependencies dependencies;
+
+   public void testAnalysisDetectsAllClasses() throws Exception {
+      JmodObjects jmodObjects = new JmodObjects(jmod(), AsmClass::new);
+
+      jmodObjects.analyze(dependencies);
+
+      verify(dependencies).object(eq("com.vanillasource.forcedep.jvm.A"), anyBoolean(), anyBoolean(), anyVararg());
+      verify(dependencies).object(eq("com.vanillasource.forcedep.jvm.B"), anyBoolean(), anyBoolean(), anyVararg());
+   }
+
+   public void testOnlyClassesDirectoryIsAnalyzed() throws Exception {
+      JmodObjects jmodObjects = new JmodObjects(jmod(), AsmClass::new);
+
+      jmodObjects.analyze(dependencies);
+
+      verify(dependencies, never()).object(eq("com.vanillasource.forcedep.jvm.C"), anyBoolean(), anyBoolean(), anyVararg());
+   }
+
+   private File jmod() throws Exception {
+      File file = File.createTempFile("test", ".jmod");
+      file.deleteOnExit();
+      try (FileOutputStream output = new FileOutputStream(file)) {
+         output.write(new byte[] { 'J', 'M', 1, 0 });
+         ZipOutputStream zipOutput = new ZipOutputStream(output);
+         add(zipOutput, "classes/com/vanillasource/forcedep/jvm/A.class", "A.class");
+         add(zipOutput, "classes/com/vanillasource/forcedep/jvm/B.class", "B.class");
+         add(zipOutput, "classes/module-info.class", "G.class");
+         add(zipOutput, "lib/C.class", "C.class");
+         zipOutput.finish();
+      }
+      return file;
+   }
+
+   private void add(ZipOutputStream zipOutput, String entryName, String className) throws Exception {
+      zipOutput.putNextEntry(new ZipEntry(entryName));
+      try (InputStream input = getClass().getClassLoader().getResourceAsStream("com/vanillasource/forcedep/jvm/"+className)) {
+         zipOutput.write(InputStreams.readAll(input));
+      }
+      zipOutput.closeEntry();
+   }
+
+   @BeforeMethod
+   protected void setUp() {
+      dependencies = mock(Dependencies.class);
+      Dependencies.Method method = mock(Dependencies.Method.class);
+      Dependencies.Object object = mock(Dependencies.Object.class);
+      when(dependencies.object(anyString(), anyBoolean(), anyBoolean(), anyVararg())).thenReturn(object);
+      when(object.method(anyString(), anyBoolean())).thenReturn(method);
+   }
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.vanillasource.forcedep.scan;
+
+import com.vanillasource.forcedep.jvm.AsmClass;
+import com.vanillasource.forcedep.Dependencies;
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.*;
+import static java.util.Arrays.asList;
+import org.testng.annotations.Test;
+import org.testng.annotations.BeforeMethod;
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+@Test
+public class ListedClassesTests {
+   private Dependencies dependencies;
+
+   public void testNothingIsListedBeforeListing() throws Exception {
+      ListedClasses listedClasses = new ListedClasses(fqn -> true);
+      new DirectoryObjects(classesDirectory(), listedClasses.filter(), AsmClass::new);
+
+      assertFalse(listedClasses.test("com.vanillasource.forcedep.jvm.A"));
+   }
+
+   public void testClassesOfDirectoryAreListed() throws Exception {
+      ListedClasses listedClasses = new ListedClasses(fqn -> true);
+
+      listedClasses.list(asList(new DirectoryObjects(classesDirectory(), listedClasses.filter(), AsmClass::new)));
+
+      assertTrue(listedClasses.test("com.vanillasource.forcedep.jvm.A"));
+      assertTrue(listedClasses.test("com.vanillasource.forcedep.jvm.F$1"));
+   }
+
+   public void testClassesOfJarAreListed() throws Exception {
+      ListedClasses listedClasses = new ListedClasses(fqn -> true);
+
+      listedClasses.list(asList(new JarObjects(jarFile(), false, name -> true, listedClasses.filter(), AsmClass::new)));
+
+      assertTrue(listedClasses.test("com.vanillasource.forcedep.jvm.A"));
+   }
+
+   public void testClassesNotInInputsAreNotListed() throws Exception {
+      ListedClasses listedClasses = new ListedClasses(fqn -> true);
+
+      listedClasses.list(asList(new DirectoryObjects(classesDirectory(), listedClasses.filter(), AsmClass::new)));
+
+      assertFalse(listedClasses.test("java.lang.Object"));
+   }
+
+   public void testFilteredClassesAreNotListed() throws Exception {
+      ListedClasses listedClasses = new ListedClasses(fqn -> !fqn.equals("com.vanillasource.forcedep.jvm.A"));
+
+      listedClasses.list(asList(new DirectoryObjects(classesDirectory(), listedClasses.filter(), AsmClass::new)));
+
+      assertFalse(listedClasses.test("com.vanillasource.forcedep.jvm.A"));
+      assertTrue(listedClasses.test("com.vanillasource.forcedep.jvm.B"));
+   }
+
+   public void testFqnOfAnalyzedClassIsListed() throws Exception {
+      ListedClasses listedClasses = new ListedClasses(fqn -> true);
+      // Names derived from files in this directory lack the first part of the package
+      List<PartitionedObjects> inputs = listedClasses.list(asList(new DirectoryObjects(
+               classesDirectory().resolve("com"), listedClasses.filter(), listedClasses.analyzing(AsmClass::new))));
+
+      assertTrue(listedClasses.test("x.forcedep.jvm.A"));
+      assertTrue(listedClasses.test("com.vanillasource.forcedep.jvm.A"));
+
+      inputs.forEach(input -> input.analyze(dependencies));
+
+      assertFalse(listedClasses.test("x.forcedep.jvm.A"));
+      assertTrue(listedClasses.test("com.vanillasource.forcedep.jvm.A"));
+   }
+
+   public void testNestMembersAreNotKnownBeforeAnalyzed() throws Exception {
+      ListedClasses listedClasses = new ListedClasses(fqn -> true);
+
+      listedClasses.list(asList(new DirectoryObjects(classesDirectory(), listedClasses.filter(), listedClasses.analyzing(AsmClass::new))));
+
+      assertNull(listedClasses.nestMembers("com.vanillasource.forcedep.jvm.F"));
+   }
+
+   public void testNestMembersAreListedWhenAnalyzed() throws Exception {
+      ListedClasses listedClasses = new ListedClasses(fqn -> true);
+      List<PartitionedObjects> inputs = listedClasses.list(asList(new DirectoryObjects(
+               classesDirectory(), listedClasses.filter(), listedClasses.analyzing(AsmClass::new))));
+
+      inputs.forEach(input -> input.analyze(dependencies));
+
+      assertTrue(listedClasses.nestMembers("com.vanillasource.forcedep.jvm.F").contains("com.vanillasource.forcedep.jvm.F"));
+      assertTrue(listedClasses.nestMembers("com.vanillasource.forcedep.jvm.F").contains("com.vanillasource.forcedep.jvm.F$1"));
+   }
+
+   public void testEverythingMayBeAnalyzedWhileArchiveIsUnlisted() throws Exception {
+      ListedClasses listedClasses = new ListedClasses(fqn -> true);
+      listedClasses.list(asList(new DirectoryObjects(classesDirectory(), listedClasses.filter(), AsmClass::new)));
+
+      listedClasses.found();
+
+      assertTrue(listedClasses.test("java.lang.Object"));
+      assertNull(listedClasses.nestMembers("java.lang.Object"));
+      listedClasses.read();
+      assertFalse(listedClasses.test("java.lang.Object"));
+   }
+
+   private Path classesDirectory() throws Exception {
+      return Paths.get(getClass().getClassLoader().getResource("com/vanillasource/forcedep/jvm/A.class").toURI())
+         .getParent().getParent().getParent().getParent().getParent();
+   }
+
+   private File jarFile() throws Exception {
+      return new File(getClass().getClassLoader().getResource("com/vanillasource/forcedep/scan/ab.jar").toURI());
+   }
+
+   @BeforeMethod
+   protected void setUp() {
+      dependencies = mock(Dependencies.class);
+      Dependencies.Method method = mock(Dependencies.Method.class);
+      Dependencies.Object object = mock(Dependencies.Object.class);
+      when(dependencies.object(anyString(), anyBoolean(), anyBoolean(), anyVararg())).thenReturn(object);
+      when(object.method(anyString(), anyBoolean())).thenReturn(method);
+   }
+}
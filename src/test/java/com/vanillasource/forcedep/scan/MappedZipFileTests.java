@@ -0,0 +1,172 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.vanillasource.forcedep.scan;
+
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+import java.util.zip.CRC32;
+import java.util.stream.Collectors;
+import static java.util.Arrays.asList;
+
+@Test
+public class MappedZipFileTests {
+   public void testAllEntriesAreListed() throws Exception {
+      MappedZipFile zipFile = new MappedZipFile(abJar());
+
+      assertEquals(zipFile.entries().stream().map(MappedZipFile.Entry::getName).collect(Collectors.toList()),
+            asList("META-INF/", "META-INF/MANIFEST.MF", "com/vanillasource/forcedep/jvm/B.class", "com/vanillasource/forcedep/jvm/A.class"));
+   }
+
+   public void testDeflatedEntryIsInflated() throws Exception {
+      MappedZipFile zipFile = new MappedZipFile(abJar());
+
+      byte[] content = read(zipFile.entries().get(3).open());
+
+      try (JarFile jarFile = new JarFile(abJar())) {
+         assertEquals(content, read(jarFile.getInputStream(jarFile.getEntry("com/vanillasource/forcedep/jvm/A.class"))));
+      }
+   }
+
+   public void testStoredEntryIsRead() throws Exception {
+      File file = File.createTempFile("stored", ".zip");
+      file.deleteOnExit();
+      try (FileOutputStream output = new FileOutputStream(file)) {
+         writeStoredZip(output, "a.txt", "Ni".getBytes("UTF-8"));
+      }
+
+      MappedZipFile zipFile = new MappedZipFile(file);
+
+      assertTrue(zipFile.entries().get(0).isStored());
+      assertEquals(read(zipFile.entries().get(0).open()), "Ni".getBytes("UTF-8"));
+   }
+
+   public void testPrependedDataIsSkipped() throws Exception {
+      File file = File.createTempFile("prepended", ".zip");
+      file.deleteOnExit();
+      try (FileOutputStream output = new FileOutputStream(file)) {
+         output.write(new byte[] { 'J', 'M', 1, 0 });
+         writeStoredZip(output, "a.txt", "Ni".getBytes("UTF-8"));
+      }
+
+      MappedZipFile zipFile = new MappedZipFile(file);
+
+      assertEquals(read(zipFile.entries().get(0).open()), "Ni".getBytes("UTF-8"));
+   }
+
+   @Test(expectedExceptions = UncheckedIOException.class)
+   public void testStoredEntryWithInvalidChecksumIsRejected() throws Exception {
+      File file = File.createTempFile("stored", ".zip");
+      file.deleteOnExit();
+      try (FileOutputStream output = new FileOutputStream(file)) {
+         writeStoredZip(output, "a.txt", "Ni".getBytes("UTF-8"));
+      }
+      corruptChecksum(file);
+
+      new MappedZipFile(file).entries().get(0).open();
+   }
+
+   @Test(expectedExceptions = UncheckedIOException.class)
+   public void testDeflatedEntryWithInvalidChecksumIsRejected() throws Exception {
+      File file = deflatedZipWithInvalidChecksum();
+
+      new MappedZipFile(file).entries().get(0).open();
+   }
+
+   @Test(expectedExceptions = ZipException.class)
+   public void testStreamedEntryWithInvalidChecksumIsRejectedWhenRead() throws Exception {
+      File file = deflatedZipWithInvalidChecksum();
+
+      read(new MappedZipFile(file).entries().get(0).stream());
+   }
+
+   public void testStreamedEntryIsInflated() throws Exception {
+      MappedZipFile zipFile = new MappedZipFile(abJar());
+
+      byte[] content = read(zipFile.entries().get(3).stream());
+
+      try (JarFile jarFile = new JarFile(abJar())) {
+         assertEquals(content, read(jarFile.getInputStream(jarFile.getEntry("com/vanillasource/forcedep/jvm/A.class"))));
+      }
+   }
+
+   private static File deflatedZipWithInvalidChecksum() throws IOException {
+      File file = File.createTempFile("deflated", ".zip");
+      file.deleteOnExit();
+      try (ZipOutputStream output = new ZipOutputStream(new FileOutputStream(file))) {
+         output.putNextEntry(new ZipEntry("a.txt"));
+         output.write("Ni Ni Ni".getBytes("UTF-8"));
+         output.closeEntry();
+      }
+      corruptChecksum(file);
+      return file;
+   }
+
+   /**
+    * Change the checksum of the first entry in the central directory.
+    */
+   private static void corruptChecksum(File file) throws IOException {
+      byte[] content = Files.readAllBytes(file.toPath());
+      for (int i = 0; i < content.length-4; i++) {
+         if (content[i] == 'P' && content[i+1] == 'K' && content[i+2] == 1 && content[i+3] == 2) {
+            content[i+16] ^= 0xFF;
+            break;
+         }
+      }
+      Files.write(file.toPath(), content);
+   }
+
+   private static void writeStoredZip(FileOutputStream output, String name, byte[] content) throws IOException {
+      ZipOutputStream zipOutput = new ZipOutputStream(output);
+      ZipEntry entry = new ZipEntry(name);
+      CRC32 crc = new CRC32();
+      crc.update(content);
+      entry.setMethod(ZipEntry.STORED);
+      entry.setSize(content.length);
+      entry.setCrc(crc.getValue());
+      zipOutput.putNextEntry(entry);
+      zipOutput.write(content);
+      zipOutput.closeEntry();
+      zipOutput.finish();
+   }
+
+   private static byte[] read(InputStream input) throws IOException {
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      byte[] buffer = new byte[1024];
+      int length;
+      while ((length = input.read(buffer)) >= 0) {
+         output.write(buffer, 0, length);
+      }
+      return output.toByteArray();
+   }
+
+   private File abJar() throws Exception {
+      return new File(getClass().getClassLoader().getResource("com/vanillasource/forcedep/scan/ab.jar").toURI());
+   }
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.vanillasource.forcedep.scan;
+
+import com.vanillasource.forcedep.jvm.AsmClass;
+import com.vanillasource.forcedep.Dependencies;
+import static org.mockito.Mockito.*;
+import org.testng.annotations.Test;
+import org.testng.annotations.BeforeMethod;
+import org.mockito.InOrder;
+import com.vanillasource.forcedep.Objects;
+import static org.testng.Assert.*;
+import java.io.File;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import static java.util.Arrays.asList;
+
+@Test
+public class ParallelObjectsTests {
+   private Dependencies dependencies;
+
+   public void testAnalysisDetectsAllClasses() throws Exception {
+      ParallelObjects objects = new ParallelObjects(asList(abJar()), 4);
+
+      objects.analyze(dependencies);
+
+      verify(dependencies).object(eq("com.vanillasource.forcedep.jvm.A"), anyBoolean(), anyBoolean(), anyVararg());
+      verify(dependencies).object(eq("com.vanillasource.forcedep.jvm.B"), anyBoolean(), anyBoolean(), anyVararg());
+   }
+
+   public void testClassesAreReportedInSequentialOrder() throws Exception {
+      ParallelObjects objects = new ParallelObjects(asList(abJar(), abJar()), 4);
+
+      objects.analyze(dependencies);
+
+      InOrder inOrder = inOrder(dependencies);
+      inOrder.verify(dependencies).object(eq("com.vanillasource.forcedep.jvm.B"), anyBoolean(), anyBoolean(), anyVararg());
+      inOrder.verify(dependencies).object(eq("com.vanillasource.forcedep.jvm.A"), anyBoolean(), anyBoolean(), anyVararg());
+      inOrder.verify(dependencies).object(eq("com.vanillasource.forcedep.jvm.B"), anyBoolean(), anyBoolean(), anyVararg());
+      inOrder.verify(dependencies).object(eq("com.vanillasource.forcedep.jvm.A"), anyBoolean(), anyBoolean(), anyVararg());
+   }
+
+   public void testSingleInFlightPartReportsAllClassesInOrder() throws Exception {
+      ParallelObjects objects = new ParallelObjects(asList(abJar(), abJar()), 4, 1);
+
+      objects.analyze(dependencies);
+
+      InOrder inOrder = inOrder(dependencies);
+      inOrder.verify(dependencies).object(eq("com.vanillasource.forcedep.jvm.B"), anyBoolean(), anyBoolean(), anyVararg());
+      inOrder.verify(dependencies).object(eq("com.vanillasource.forcedep.jvm.A"), anyBoolean(), anyBoolean(), anyVararg());
+      inOrder.verify(dependencies).object(eq("com.vanillasource.forcedep.jvm.B"), anyBoolean(), anyBoolean(), anyVararg());
+      inOrder.verify(dependencies).object(eq("com.vanillasource.forcedep.jvm.A"), anyBoolean(), anyBoolean(), anyVararg());
+   }
+
+   public void testInputsAreClosedAfterAnalysis() throws Exception {
+      AtomicInteger closedInputs = new AtomicInteger();
+      PartitionedObjects input = new PartitionedObjects() {
+         @Override
+         public Stream<Objects> parts() {
+            return Stream.<Objects>of(d -> d.object("a.B", false, false).close())
+               .onClose(closedInputs::incrementAndGet);
+         }
+
+         @Override
+         public void analyze(Dependencies dependencies) {
+         }
+      };
+      ParallelObjects objects = new ParallelObjects(asList(input, input), 4, 1);
+
+      objects.analyze(dependencies);
+
+      assertEquals(closedInputs.get(), 2);
+   }
+
+   public void testFirstFailureIsPropagatedAfterRunningPartsAreDone() throws Exception {
+      AtomicBoolean slowPartDone = new AtomicBoolean();
+      AtomicBoolean slowPartDoneAtClose = new AtomicBoolean();
+      PartitionedObjects input = new PartitionedObjects() {
+         @Override
+         public Stream<Objects> parts() {
+            return Stream.<Objects>of(
+                  d -> {
+                     busyWait(50);
+                     throw new IllegalStateException("first");
+                  },
+                  d -> {
+                     busyWait(300);
+                     slowPartDone.set(true);
+                  })
+               .onClose(() -> {
+                  slowPartDoneAtClose.set(slowPartDone.get());
+                  throw new IllegalStateException("close");
+               });
+         }
+
+         @Override
+         public void analyze(Dependencies dependencies) {
+         }
+      };
+      ParallelObjects objects = new ParallelObjects(asList(input), 4, 2);
+
+      try {
+         objects.analyze(dependencies);
+         fail("failure was not propagated");
+      } catch (IllegalStateException e) {
+         // The exception is rethrown by the pool wrapped in a new one of the same type
+         assertTrue(e.getMessage().contains("first"));
+         assertEquals(e.getSuppressed()[0].getMessage(), "close");
+      }
+      assertTrue(slowPartDoneAtClose.get());
+   }
+
+   /**
+    * Does not respond to interrupts, like a part reading a class.
+    */
+   private static void busyWait(long millis) {
+      long end = System.nanoTime() + millis*1000000;
+      while (System.nanoTime() < end) {
+         Thread.yield();
+      }
+   }
+
+   public void testUnorderedAnalysisDetectsAllClasses() throws Exception {
+      ParallelObjects objects = new ParallelObjects(asList(abJar(), abJar()), 4, 4, false);
+
+      objects.analyze(dependencies);
+
+      verify(dependencies, times(2)).object(eq("com.vanillasource.forcedep.jvm.A"), anyBoolean(), anyBoolean(), anyVararg());
+      verify(dependencies, times(2)).object(eq("com.vanillasource.forcedep.jvm.B"), anyBoolean(), anyBoolean(), anyVararg());
+   }
+
+   private JarObjects abJar() throws Exception {
+      return new JarObjects(
+            new File(getClass().getClassLoader().getResource("com/vanillasource/forcedep/scan/ab.jar").toURI()),
+            AsmClass::new);
+   }
+
+   @BeforeMethod
+   protected void setUp() {
+      dependencies = mock(Dependencies.class);
+      Dependencies.Method method = mock(Dependencies.Method.class);
+      Dependencies.Object object = mock(Dependencies.Object.class);
+      when(dependencies.object(anyString(), anyBoolean(), anyBoolean(), anyVararg())).thenReturn(object);
+      when(object.method(anyString(), anyBoolean())).thenReturn(method);
+   }
+}
@@ -0,0 +1,177 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.vanillasource.forcedep.scan;
+
+import com.vanillasource.forcedep.Dependencies;
+import com.vanillasource.forcedep.Symbols;
+import static org.mockito.Mockito.*;
+import static org.mockito.AdditionalMatchers.aryEq;
+import org.testng.annotations.Test;
+import org.testng.annotations.BeforeMethod;
+import org.mockito.InOrder;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+@Test
+public class RecordedDependenciesTests {
+   private Dependencies dependencies;
+   private Dependencies.Object object;
+   private Dependencies.Method method;
+   private RecordedDependencies recording;
+
+   public void testNothingIsReplayedWhenNothingRecorded() {
+      recording.replay(dependencies);
+
+      verifyZeroInteractions(dependencies);
+   }
+
+   public void testObjectIsReplayed() {
+      recording.object("a.B", true, false, "a.C", "a.D").close();
+
+      recording.replay(dependencies);
+
+      verify(dependencies).object("a.B", true, false, "a.C", "a.D");
+      verify(object).close();
+   }
+
+   public void testMethodCallsAreReplayed() {
+      Dependencies.Object recordedObject = recording.object("a.B", false, false);
+      Dependencies.Method recordedMethod = recordedObject.method("c", true);
+      recordedMethod.call("d.E", "f");
+      recordedMethod.reference("d.E", "g");
+      recordedMethod.close();
+      recordedObject.close();
+
+      recording.replay(dependencies);
+
+      verify(object).method("c", true);
+      verify(method).call("d.E", "f");
+      verify(method).reference("d.E", "g");
+      verify(method).close();
+   }
+
+   public void testEventsAreReplayedInOriginalOrder() {
+      Dependencies.Object recordedObject = recording.object("a.B", false, false);
+      Dependencies.Method recordedMethod = recordedObject.method("c", false);
+      recordedMethod.call("d.E", "f");
+      recordedObject.field("g");
+      recordedMethod.close();
+      recordedObject.close();
+
+      recording.replay(dependencies);
+
+      InOrder inOrder = inOrder(object, method);
+      inOrder.verify(object).method("c", false);
+      inOrder.verify(method).call("d.E", "f");
+      inOrder.verify(object).field("g");
+      inOrder.verify(method).close();
+      inOrder.verify(object).close();
+   }
+
+   public void testRecordingCanBeReplayedMultipleTimes() {
+      recording.object("a.B", false, false).close();
+
+      recording.replay(dependencies);
+      recording.replay(dependencies);
+
+      verify(dependencies, times(2)).object("a.B", false, false);
+   }
+
+   public void testWrittenRecordingIsReadBack() throws Exception {
+      Dependencies.Object recordedObject = recording.object("a.B", true, true, "a.C");
+      recordedObject.field("g");
+      Dependencies.Method recordedMethod = recordedObject.method("c", true);
+      recordedMethod.call("a.B", "c");
+      recordedMethod.reference("a.B", "g");
+      recordedMethod.close();
+      recordedObject.close();
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      recording.write(new DataOutputStream(output));
+
+      RecordedDependencies.read(new DataInputStream(new ByteArrayInputStream(output.toByteArray()))).replay(dependencies);
+
+      verify(dependencies).object("a.B", true, true, "a.C");
+      verify(object).field("g");
+      verify(object).method("c", true);
+      verify(method).call("a.B", "c");
+      verify(method).reference("a.B", "g");
+      verify(method).close();
+      verify(object).close();
+   }
+
+   public void testIdsOfSameTableAreReplayedAsIds() {
+      Symbols symbols = new Symbols();
+      recording = new RecordedDependencies(symbols);
+      Dependencies.Method recordedMethod = recording.object("a.B", false, false).method("c", false);
+      recordedMethod.calls(symbols, new int[] { symbols.id("d.E") }, new int[] { symbols.id("f") }, 1);
+
+      recording.replay(dependencies);
+
+      verify(method).calls(eq(symbols), aryEq(new int[] { symbols.id("d.E") }), aryEq(new int[] { symbols.id("f") }), eq(1));
+   }
+
+   public void testReferenceIdsOfSameTableAreReplayedAsIds() {
+      Symbols symbols = new Symbols();
+      recording = new RecordedDependencies(symbols);
+      Dependencies.Method recordedMethod = recording.object("a.B", false, false).method("c", false);
+      recordedMethod.reference(symbols, symbols.id("d.E"), symbols.id("g"));
+
+      recording.replay(dependencies);
+
+      verify(method).references(eq(symbols), aryEq(new int[] { symbols.id("d.E") }), aryEq(new int[] { symbols.id("g") }), eq(1));
+   }
+
+   public void testIdsOfOtherTableAreRecordedAsNames() {
+      Symbols symbols = new Symbols();
+      Dependencies.Method recordedMethod = recording.object("a.B", false, false).method("c", false);
+      recordedMethod.call(symbols, symbols.id("d.E"), symbols.id("f"));
+
+      recording.replay(dependencies);
+
+      verify(method).call("d.E", "f");
+   }
+
+   public void testRecordedIdsAreWrittenAsNames() throws Exception {
+      Symbols symbols = new Symbols();
+      recording = new RecordedDependencies(symbols);
+      Dependencies.Object recordedObject = recording.object("a.B", false, false);
+      Dependencies.Method recordedMethod = recordedObject.method("c", false);
+      recordedMethod.call(symbols, symbols.id("d.E"), symbols.id("f"));
+      recordedMethod.close();
+      recordedObject.close();
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      recording.write(new DataOutputStream(output));
+
+      RecordedDependencies.read(new DataInputStream(new ByteArrayInputStream(output.toByteArray()))).replay(dependencies);
+
+      verify(method).call("d.E", "f");
+   }
+
+   @BeforeMethod
+   protected void setUp() {
+      dependencies = mock(Dependencies.class);
+      object = mock(Dependencies.Object.class);
+      method = mock(Dependencies.Method.class);
+      when(dependencies.object(anyString(), anyBoolean(), anyBoolean(), anyVararg())).thenReturn(object);
+      when(object.method(anyString(), anyBoolean())).thenReturn(method);
+      recording = new RecordedDependencies();
+   }
+}
@@ -0,0 +1,220 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.vanillasource.forcedep.transform;
+
+import com.vanillasource.forcedep.Dependencies;
+import com.vanillasource.forcedep.Symbols;
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.*;
+import org.testng.annotations.Test;
+import org.testng.annotations.BeforeMethod;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Test
+public class ConcurrentDependenciesTests {
+   private Dependencies delegate;
+   private Dependencies.Object delegateObject;
+   private Dependencies.Method delegateMethod;
+   private ConcurrentDependencies dependencies;
+   private Symbols symbols;
+
+   public void testObjectIsNotDelegatedBeforeClose() {
+      Dependencies.Object object = dependencies.object("a.B", false, false, new String[] {});
+      object.method("c", false).call("d.E", "f");
+
+      verify(delegate, never()).object(anyString(), anyBoolean(), anyBoolean(), anyVararg());
+   }
+
+   public void testObjectIsDelegatedWithAllEventsAtClose() {
+      Dependencies.Object object = dependencies.object("a.B", false, true, new String[] { "a.C" });
+      object.field("g");
+      Dependencies.Method method = object.method("c", true);
+      method.call("d.E", "f");
+      method.reference("d.E", "h");
+      method.close();
+      object.close();
+
+      verify(delegate).object("a.B", false, true, new String[] { "a.C" });
+      verify(delegateObject).field("g");
+      verify(delegateObject).method("c", true);
+      verify(delegateMethod).call("d.E", "f");
+      verify(delegateMethod).reference("d.E", "h");
+      verify(delegateMethod).close();
+      verify(delegateObject).close();
+   }
+
+   public void testCallsAndReferencesByIdsAreDelegatedByIds() {
+      Dependencies.Object object = dependencies.object("a.B", false, false, new String[] {});
+      Dependencies.Method method = object.method("c", false);
+      method.call(symbols, symbols.id("d.E"), symbols.id("f"));
+      method.close();
+      object.close();
+
+      verify(delegateMethod).calls(same(symbols), any(int[].class), any(int[].class), eq(1));
+      verify(delegateMethod, never()).call(anyString(), anyString());
+   }
+
+   public void testCloseIsDelegated() {
+      dependencies.close();
+
+      verify(delegate).close();
+   }
+
+   public void testManyThreadsReportingAtTheSameTimeAreDelegatedOneAtATime() throws Exception {
+      int threadCount = 8;
+      int objectCount = 2000;
+      SingleThreadedDependencies output = new SingleThreadedDependencies();
+      Dependencies stage = new TransformPipeline(new Symbols(), objectFqn -> true)
+         .concurrent()
+         .existingObjects()
+         .unique()
+         .build(output);
+      ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+      CountDownLatch start = new CountDownLatch(1);
+      List<Future<?>> threads = new ArrayList<>();
+      try {
+         for (int thread=0; thread<threadCount; thread++) {
+            int firstObject = thread*objectCount;
+            threads.add(executor.submit(() -> {
+               start.await();
+               for (int i=firstObject; i<firstObject+objectCount; i++) {
+                  Dependencies.Object object = stage.object("a.B"+i, false, false);
+                  Dependencies.Method method = object.method("c", false);
+                  // Calls an object of the previous thread, which may or may not be closed yet
+                  method.call("a.B"+((i+objectCount)%(threadCount*objectCount)), "c");
+                  method.call("a.B"+((i+objectCount)%(threadCount*objectCount)), "c");
+                  method.close();
+                  object.close();
+               }
+               return null;
+            }));
+         }
+         start.countDown();
+         for (Future<?> thread: threads) {
+            thread.get();
+         }
+      } finally {
+         executor.shutdownNow();
+      }
+      stage.close();
+
+      assertEquals(output.objects, threadCount*objectCount);
+      assertEquals(output.calls, threadCount*objectCount);
+      assertEquals(output.maxConcurrentCalls, 1);
+   }
+
+   public void testObjectClosedWhileAnotherIsPassedOnIsPassedOnByTheOtherThread() throws Exception {
+      CountDownLatch passingOn = new CountDownLatch(1);
+      CountDownLatch release = new CountDownLatch(1);
+      when(delegate.object(eq("a.B"), anyBoolean(), anyBoolean(), anyVararg())).thenAnswer(invocation -> {
+         passingOn.countDown();
+         release.await();
+         return delegateObject;
+      });
+      ExecutorService executor = Executors.newSingleThreadExecutor();
+      try {
+         Future<?> firstThread = executor.submit(() -> dependencies.object("a.B", false, false).close());
+         passingOn.await();
+
+         dependencies.object("a.C", false, false).close();
+
+         verify(delegate, never()).object(eq("a.C"), anyBoolean(), anyBoolean(), anyVararg());
+         release.countDown();
+         firstThread.get();
+      } finally {
+         executor.shutdownNow();
+      }
+      verify(delegate).object(eq("a.C"), anyBoolean(), anyBoolean(), anyVararg());
+   }
+
+   /**
+    * Counts events, and records whether it was ever called by two threads at the same time.
+    */
+   private static final class SingleThreadedDependencies implements Dependencies {
+      private final AtomicInteger concurrentCalls = new AtomicInteger();
+      private int maxConcurrentCalls = 0;
+      private int objects = 0;
+      private int calls = 0;
+
+      private void enter() {
+         maxConcurrentCalls = Math.max(maxConcurrentCalls, concurrentCalls.incrementAndGet());
+         Thread.yield();
+      }
+
+      private void exit() {
+         concurrentCalls.decrementAndGet();
+      }
+
+      @Override
+      public Dependencies.Object object(String objectFqn, boolean local, boolean pureInterface, String... superObjectFqns) {
+         enter();
+         objects++;
+         exit();
+         return new Dependencies.Object() {
+            @Override
+            public Dependencies.Method method(String methodName, boolean local) {
+               return new Dependencies.Method() {
+                  @Override
+                  public void call(String objectsFqn, String methodName) {
+                     enter();
+                     calls++;
+                     exit();
+                  }
+
+                  @Override
+                  public void reference(String objectsFqn, String fieldName) {
+                  }
+
+                  @Override
+                  public void close() {
+                  }
+               };
+            }
+
+            @Override
+            public void field(String fieldName) {
+            }
+
+            @Override
+            public void close() {
+            }
+         };
+      }
+
+      @Override
+      public void close() {
+      }
+   }
+
+   @BeforeMethod
+   protected void setUp() {
+      delegate = mock(Dependencies.class);
+      delegateObject = mock(Dependencies.Object.class);
+      when(delegate.object(anyString(), anyBoolean(), anyBoolean(), anyVararg())).thenReturn(delegateObject);
+      delegateMethod = mock(Dependencies.Method.class);
+      when(delegateObject.method(anyString(), anyBoolean())).thenReturn(delegateMethod);
+      symbols = new Symbols();
+      dependencies = new ConcurrentDependencies(symbols, delegate);
+   }
+}
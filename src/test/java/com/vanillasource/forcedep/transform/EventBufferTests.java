@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.vanillasource.forcedep.transform;
+
+import com.vanillasource.forcedep.Dependencies;
+import com.vanillasource.forcedep.Symbols;
+import static org.mockito.Mockito.*;
+import static com.vanillasource.forcedep.transform.MockMethods.mockMethod;
+import static org.testng.Assert.*;
+import org.mockito.InOrder;
+import org.testng.annotations.Test;
+import org.testng.annotations.BeforeMethod;
+
+@Test
+public class EventBufferTests {
+   private Symbols symbols;
+   private Dependencies.Method method;
+   private EventBuffer events;
+
+   public void testEmptyBufferReplaysNothing() {
+      events.replay(method);
+
+      verifyNoMoreInteractions(ignoreStubs(method));
+   }
+
+   public void testCallsAndReferencesAreReplayedInOrder() {
+      events.call("a.B", "c");
+      events.reference("d.E", "f");
+      events.call("a.B", "c");
+
+      events.replay(method);
+
+      InOrder inOrder = inOrder(method);
+      inOrder.verify(method).call("a.B", "c");
+      inOrder.verify(method).reference("d.E", "f");
+      inOrder.verify(method).call("a.B", "c");
+      verifyNoMoreInteractions(ignoreStubs(method));
+   }
+
+   public void testEventsAreReplayedByIds() {
+      events.call("a.B", "c");
+      events.reference(symbols.id("d.E"), symbols.id("f"));
+
+      events.replay(method);
+
+      verify(method).call(symbols, symbols.id("a.B"), symbols.id("c"));
+      verify(method).reference(symbols, symbols.id("d.E"), symbols.id("f"));
+   }
+
+   public void testAddAllAppendsOtherBuffer() {
+      EventBuffer other = new EventBuffer(symbols);
+      other.reference("d.E", "f");
+      events.call("a.B", "c");
+
+      events.addAll(other);
+      events.replay(method);
+
+      assertEquals(events.size(), 2);
+      verify(method).call("a.B", "c");
+      verify(method).reference("d.E", "f");
+   }
+
+   public void testBufferGrowsBeyondInitialCapacity() {
+      for (int i=0; i<1000; i++) {
+         events.call("a.B", "m"+i);
+      }
+      events.trim();
+
+      events.replay(method);
+
+      assertEquals(events.size(), 1000);
+      verify(method).call("a.B", "m0");
+      verify(method).call("a.B", "m999");
+   }
+
+   public void testReplayWithDeliveredSetLeavesOutDuplicates() {
+      LongHashSet delivered = new LongHashSet();
+      events.call("a.B", "c");
+      events.reference("a.B", "c");
+      events.call("a.B", "c");
+      EventBuffer other = new EventBuffer(symbols);
+      other.call("a.B", "c");
+      other.call("d.E", "f");
+
+      events.replay(method, delivered);
+      other.replay(method, delivered);
+
+      verify(method, times(1)).call("a.B", "c");
+      verify(method, times(1)).reference("a.B", "c");
+      verify(method, times(1)).call("d.E", "f");
+   }
+
+   @BeforeMethod
+   protected void setUp() {
+      method = mockMethod();
+      symbols = new Symbols();
+      events = new EventBuffer(symbols);
+   }
+}
@@ -19,7 +19,14 @@
 package com.vanillasource.forcedep.transform;
 
 import com.vanillasource.forcedep.Dependencies;
+import com.vanillasource.forcedep.Symbols;
 import static org.mockito.Mockito.*;
+import static com.vanillasource.forcedep.transform.MockMethods.mockMethod;
+import static org.testng.Assert.*;
+import static java.util.Arrays.asList;
+import java.util.List;
+import java.util.ArrayList;
+import org.mockito.InOrder;
 import org.testng.annotations.Test;
 import org.testng.annotations.BeforeMethod;
 
@@ -28,6 +35,8 @@ public class ExistingObjectsDependenciesTests {
    private Dependencies delegate;
    private Dependencies.Object delegateObject;
    private Dependencies.Method delegateMethod;
+   private List<String> delegatedCalls;
+   private Symbols symbols;
    private ExistingObjectsDependencies dependencies;
 
    public void testObjectsIsDelegated() {
@@ -79,14 +88,183 @@ public class ExistingObjectsDependenciesTests {
       verify(delegateMethod).call("d.E", "f");
    }
 
+   public void testFieldReferencesAreDelegatedAsSoonAsOwnerIsAnalyzed() {
+      dependencies
+         .object("a.B", false, false, new String[] {})
+         .method("c", false)
+         .reference("d.E", "f");
+
+      dependencies
+         .object("d.E", false, false)
+         .close();
+
+      verify(delegateMethod).reference("d.E", "f");
+      verify(delegateMethod, never()).call("d.E", "f");
+   }
+
+   public void testPendingCallsAreDelegatedOnlyOnce() {
+      dependencies
+         .object("a.B", false, false, new String[] {})
+         .method("c", false)
+         .call("d.E", "f");
+
+      dependencies.object("d.E", false, false).close();
+      dependencies.object("d.E", false, false).close();
+
+      verify(delegateMethod).call("d.E", "f");
+   }
+
+   public void testPendingCallsAreDelegatedToTheirOwnMethods() {
+      Dependencies.Method delegateMethod2 = mockMethod();
+      when(delegateObject.method("d", false)).thenReturn(delegateMethod2);
+      Dependencies.Object object = dependencies.object("a.B", false, false, new String[] {});
+      object.method("c", false).call("x.Y", "f");
+      dependencies.object("x.Y", false, false).close();
+      // Slot of first method is reused by second method
+      object.method("d", false).call("z.W", "g");
+
+      dependencies.object("z.W", false, false).close();
+
+      verify(delegateMethod).call("x.Y", "f");
+      verify(delegateMethod2).call("z.W", "g");
+      verify(delegateMethod, never()).call("z.W", "g");
+   }
+
+   public void testCallsToObjectsNeverAnalyzedAreDiscardedAtClose() {
+      dependencies
+         .object("a.B", false, false, new String[] {})
+         .method("c", false)
+         .call("d.E", "f");
+
+      dependencies.close();
+
+      verify(delegateMethod, never()).call("d.E", "f");
+      verify(delegate).close();
+   }
+
+   public void testObjectIsNotClosedWhilePendingCallsRemain() {
+      Dependencies.Object object = dependencies.object("a.B", false, false, new String[] {});
+      object.method("c", false).call("d.E", "f");
+      object.close();
+
+      verify(delegateObject, never()).close();
+   }
+
+   public void testObjectIsClosedWhenPendingCallsArePlaced() {
+      Dependencies.Object object = dependencies.object("a.B", false, false, new String[] {});
+      object.method("c", false).call("d.E", "f");
+      object.close();
+
+      dependencies.object("d.E", false, false).close();
+
+      verify(delegateMethod).call("d.E", "f");
+      verify(delegateObject, times(2)).close();
+   }
+
+   public void testCallsToObjectsNotAnalyzableAreDiscardedImmediately() {
+      dependencies = new ExistingObjectsDependencies(new Symbols(), objectFqn -> !objectFqn.startsWith("d."), delegate);
+      Dependencies.Object object = dependencies.object("a.B", false, false, new String[] {});
+      object.method("c", false).call("d.E", "f");
+      object.close();
+
+      verify(delegateObject).close();
+      verify(delegateMethod, never()).call("d.E", "f");
+   }
+
+   public void testMethodIsClosedImmediatelyIfCallsGoOnlyToObjectsNotAnalyzable() {
+      dependencies = new ExistingObjectsDependencies(symbols, objectFqn -> objectFqn.startsWith("a."), delegate);
+      Dependencies.Method method = dependencies.object("a.B", false, false).method("c", false);
+      method.call("java.lang.Object", "<init>");
+      method.calls(symbols, ids("java.lang.String", "java.util.List"), ids("length", "size"), 2);
+      method.reference("java.lang.System", "out");
+      method.close();
+
+      verify(delegateMethod).close();
+      assertEquals(delegatedCalls, asList());
+   }
+
+   public void testBatchOfCallsDelegatesOnlyExistingObjectsAtOnce() {
+      dependencies.object("d.E", false, false).close();
+
+      dependencies
+         .object("a.B", false, false, new String[] {})
+         .method("c", false)
+         .calls(symbols, ids("d.E", "x.Y", "d.E"), ids("f", "g", "h"), 3);
+
+      verify(delegateMethod).calls(any(Symbols.class), any(int[].class), any(int[].class), eq(2));
+      assertEquals(delegatedCalls, asList("d.E.f", "d.E.h"));
+   }
+
+   public void testBatchOfCallsToMissingObjectIsDelegatedWhenAnalyzed() {
+      dependencies
+         .object("a.B", false, false, new String[] {})
+         .method("c", false)
+         .calls(symbols, ids("x.Y"), ids("g"), 1);
+
+      dependencies.object("x.Y", false, false).close();
+
+      verify(delegateMethod).call("x.Y", "g");
+   }
+
+   public void testMethodIsNotClosedWhilePendingCallsRemain() {
+      Dependencies.Method method = dependencies.object("a.B", false, false).method("c", false);
+      method.call("d.E", "f");
+      method.close();
+
+      verify(delegateMethod, never()).close();
+   }
+
+   public void testMethodIsClosedAfterPendingCallsArePlaced() {
+      Dependencies.Method method = dependencies.object("a.B", false, false).method("c", false);
+      method.call("d.E", "f");
+      method.close();
+
+      dependencies.object("d.E", false, false).close();
+
+      InOrder inOrder = inOrder(delegateMethod);
+      inOrder.verify(delegateMethod).call("d.E", "f");
+      inOrder.verify(delegateMethod).close();
+   }
+
+   public void testMethodWithPendingCallsIsClosedAtClose() {
+      Dependencies.Method method = dependencies.object("a.B", false, false).method("c", false);
+      method.call("d.E", "f");
+      method.close();
+
+      dependencies.close();
+
+      verify(delegateMethod).close();
+      verify(delegateMethod, never()).call("d.E", "f");
+   }
+
+   private int[] ids(String... names) {
+      int[] ids = new int[names.length];
+      for (int i=0; i<names.length; i++) {
+         ids[i] = symbols.id(names[i]);
+      }
+      return ids;
+   }
+
    @BeforeMethod
    protected void setUp() {
       delegate = mock(Dependencies.class);
       delegateObject = mock(Dependencies.Object.class);
       when(delegate.object(anyString(), anyBoolean(), anyBoolean(), anyVararg())).thenReturn(delegateObject);
-      delegateMethod = mock(Dependencies.Method.class);
+      delegateMethod = mockMethod();
       when(delegateObject.method(anyString(), anyBoolean())).thenReturn(delegateMethod);
-      dependencies = new ExistingObjectsDependencies(delegate);
+      delegatedCalls = new ArrayList<>();
+      // Batches are reused after the call, so their content is recorded immediately
+      doAnswer(invocation -> {
+         Symbols symbols = (Symbols) invocation.getArguments()[0];
+         int[] objectIds = (int[]) invocation.getArguments()[1];
+         int[] methodIds = (int[]) invocation.getArguments()[2];
+         for (int i=0; i<(Integer) invocation.getArguments()[3]; i++) {
+            delegatedCalls.add(symbols.name(objectIds[i])+"."+symbols.name(methodIds[i]));
+         }
+         return null;
+      }).when(delegateMethod).calls(any(Symbols.class), any(int[].class), any(int[].class), anyInt());
+      symbols = new Symbols();
+      dependencies = new ExistingObjectsDependencies(symbols, objectFqn -> true, delegate);
    }
 }
 
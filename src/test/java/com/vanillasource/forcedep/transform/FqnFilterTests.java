@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.vanillasource.forcedep.transform;
+
+import static org.testng.Assert.*;
+import static java.util.Arrays.asList;
+import org.testng.annotations.Test;
+
+@Test
+public class FqnFilterTests {
+   public void testEmptyWhitelistSelectsNothing() {
+      FqnFilter filter = new FqnFilter(asList(), asList());
+
+      assertFalse(filter.test("a.B"));
+   }
+
+   public void testWhitelistedFqnIsSelected() {
+      FqnFilter filter = new FqnFilter(asList("a\\..*"), asList());
+
+      assertTrue(filter.test("a.B"));
+   }
+
+   public void testWhitelistMatchesWholeFqn() {
+      FqnFilter filter = new FqnFilter(asList("a"), asList());
+
+      assertFalse(filter.test("a.B"));
+   }
+
+   public void testBlacklistedFqnIsNotSelected() {
+      FqnFilter filter = new FqnFilter(asList(".*"), asList("a.B"));
+
+      assertFalse(filter.test("a.B"));
+   }
+
+   public void testEscapedPrefixSelectsPackage() {
+      FqnFilter filter = new FqnFilter(asList("a\\.b\\..*"), asList());
+
+      assertTrue(filter.test("a.b.C"));
+      assertTrue(filter.test("a.b.c.D"));
+      assertFalse(filter.test("a.bc.D"));
+      assertFalse(filter.test("a.C"));
+   }
+
+   public void testUnescapedDotMatchesAnyCharacter() {
+      FqnFilter filter = new FqnFilter(asList("a.B"), asList());
+
+      assertTrue(filter.test("a.B"));
+      assertTrue(filter.test("aXB"));
+      assertFalse(filter.test("a.b.B"));
+   }
+
+   public void testEscapedDollarMatchesInnerClass() {
+      FqnFilter filter = new FqnFilter(asList("a\\.B\\$1"), asList());
+
+      assertTrue(filter.test("a.B$1"));
+      assertFalse(filter.test("a.B"));
+   }
+
+   public void testComplexRegexIsMatched() {
+      FqnFilter filter = new FqnFilter(asList("a\\.(b|c)\\.[A-Z]+"), asList());
+
+      assertTrue(filter.test("a.b.X"));
+      assertTrue(filter.test("a.c.XY"));
+      assertFalse(filter.test("a.d.X"));
+      assertFalse(filter.test("a.b.x"));
+   }
+
+   public void testClassesOfSamePackageAreDecidedSeparately() {
+      FqnFilter filter = new FqnFilter(asList("a\\..*"), asList("a\\.B"));
+
+      assertFalse(filter.test("a.B"));
+      assertTrue(filter.test("a.C"));
+   }
+
+   public void testBlacklistedPackageIsNotSelected() {
+      FqnFilter filter = new FqnFilter(asList(".*"), asList("a\\.b\\..*"));
+
+      assertFalse(filter.test("a.b.C"));
+      assertTrue(filter.test("a.C"));
+   }
+
+   public void testDefaultPackageIsMatched() {
+      FqnFilter filter = new FqnFilter(asList("B"), asList());
+
+      assertTrue(filter.test("B"));
+      assertFalse(filter.test("a.B"));
+   }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.vanillasource.forcedep.transform;
+
+import static org.testng.Assert.*;
+import org.testng.annotations.Test;
+import org.testng.annotations.BeforeMethod;
+
+@Test
+public class LongHashSetTests {
+   private LongHashSet set;
+
+   public void testNewKeyIsAdded() {
+      assertTrue(set.add(5));
+
+      assertTrue(set.contains(5));
+      assertEquals(set.size(), 1);
+   }
+
+   public void testSameKeyIsNotAddedAgain() {
+      set.add(5);
+
+      assertFalse(set.add(5));
+      assertEquals(set.size(), 1);
+   }
+
+   public void testZeroKeyIsSupported() {
+      assertFalse(set.contains(0));
+      assertTrue(set.add(0));
+      assertFalse(set.add(0));
+
+      assertTrue(set.contains(0));
+   }
+
+   public void testNegativeKeysAreSupported() {
+      set.add(Long.MIN_VALUE);
+      set.add(-1);
+
+      assertTrue(set.contains(Long.MIN_VALUE));
+      assertTrue(set.contains(-1));
+      assertFalse(set.contains(1));
+   }
+
+   public void testSetGrowsWithoutLosingKeys() {
+      for (long key=0; key<10000; key++) {
+         assertTrue(set.add(key << 32 | key));
+      }
+
+      for (long key=0; key<10000; key++) {
+         assertTrue(set.contains(key << 32 | key));
+      }
+      assertEquals(set.size(), 10000);
+   }
+
+   public void testClearRemovesAllKeys() {
+      set.add(0);
+      set.add(5);
+
+      set.clear();
+
+      assertFalse(set.contains(0));
+      assertFalse(set.contains(5));
+      assertEquals(set.size(), 0);
+      assertTrue(set.add(5));
+   }
+
+   @BeforeMethod
+   protected void setUp() {
+      set = new LongHashSet();
+   }
+}
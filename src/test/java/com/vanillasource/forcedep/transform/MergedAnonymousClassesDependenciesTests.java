@@ -19,7 +19,11 @@
 package com.vanillasource.forcedep.transform;
 
 import com.vanillasource.forcedep.Dependencies;
+import com.vanillasource.forcedep.Symbols;
 import static org.mockito.Mockito.*;
+import static com.vanillasource.forcedep.transform.MockMethods.mockMethod;
+import static org.testng.Assert.*;
+import static java.util.Arrays.asList;
 import org.testng.annotations.Test;
 import org.testng.annotations.BeforeMethod;
 
@@ -126,12 +130,210 @@ public class MergedAnonymousClassesDependenciesTests {
       verify(delegateMethod, never()).call(any(), eq("<init>"));
    }
 
+   public void testObjectWithoutLocalObjectsIsDelegatedBeforeClose() {
+      dependencies.object("a.B", false, false, new String[] {}).close();
+
+      verify(delegate).object("a.B", false, false, new String[] {});
+      verify(delegate, never()).close();
+   }
+
+   public void testObjectWaitsForLocalObjectItInstantiates() {
+      Dependencies.Object object = dependencies.object("a.B", false, false, new String[] {});
+      Dependencies.Method method = object.method("c", false);
+      method.call("a.B$1", "<init>");
+      method.close();
+      object.close();
+
+      verify(delegate, never()).object("a.B", false, false, new String[] {});
+   }
+
+   public void testObjectIsDelegatedWhenLocalObjectIsClosed() {
+      Dependencies.Object object = dependencies.object("a.B", false, false, new String[] {});
+      Dependencies.Method method = object.method("c", false);
+      method.call("a.B$1", "<init>");
+      method.close();
+      object.close();
+      Dependencies.Object object2 = dependencies.object("a.B$1", true, false, new String[] {});
+      Dependencies.Method method2 = object2.method("f", false);
+      method2.call("d.E", "g");
+      method2.close();
+      object2.close();
+
+      verify(delegateMethod).call("d.E", "g");
+      verify(delegate, never()).close();
+   }
+
+   public void testObjectDoesNotWaitForLocalObjectNotAnalyzable() {
+      dependencies = new MergedAnonymousClassesDependencies(new Symbols(), objectFqn -> !objectFqn.equals("a.B$1"), Long.MAX_VALUE, delegate);
+      Dependencies.Object object = dependencies.object("a.B", false, false, new String[] {});
+      Dependencies.Method method = object.method("c", false);
+      method.call("a.B$1", "<init>");
+      method.close();
+      object.close();
+
+      verify(delegateMethod).call("a.B$1", "<init>");
+   }
+
+   public void testSpilledObjectsAreDelegatedUnchanged() {
+      dependencies = new MergedAnonymousClassesDependencies(new Symbols(), objectFqn -> true, 0, delegate);
+      Dependencies.Object object = dependencies.object("a.B", false, false, new String[] {});
+      Dependencies.Method method = object.method("c", false);
+      method.call("a.B$1", "<init>");
+      method.call("d.E", "f");
+      method.close();
+      object.field("h");
+      object.close();
+      Dependencies.Object object2 = dependencies.object("a.B$1", true, false, new String[] {});
+      Dependencies.Method method2 = object2.method("f", false);
+      method2.call("d.E", "g");
+      method2.close();
+      object2.close();
+      dependencies.close();
+
+      verify(delegateObject).method("c", false);
+      verify(delegateObject).field("h");
+      verify(delegateMethod).call("d.E", "f");
+      verify(delegateMethod).call("d.E", "g");
+      verify(delegateMethod, never()).call("a.B$1", "<init>");
+   }
+
+   public void testSpilledLocalObjectIsMergedToOwner() {
+      dependencies = new MergedAnonymousClassesDependencies(new Symbols(), objectFqn -> true, 0, delegate);
+      Dependencies.Object object2 = dependencies.object("a.B$1", true, false, new String[] {});
+      Dependencies.Method method2 = object2.method("f", false);
+      method2.call("d.E", "g");
+      method2.reference("d.E", "h");
+      method2.close();
+      object2.close();
+      Dependencies.Object object = dependencies.object("a.B", false, false, new String[] {});
+      Dependencies.Method method = object.method("c", false);
+      method.call("a.B$1", "<init>");
+      method.close();
+      object.close();
+      dependencies.close();
+
+      verify(delegateObject).method("c", false);
+      verify(delegateObject, never()).method("f", false);
+      verify(delegateMethod).call("d.E", "g");
+      verify(delegateMethod).reference("d.E", "h");
+      verify(delegateMethod, never()).call("a.B$1", "<init>");
+   }
+
+   public void testLocalObjectInstantiatingTopLevelObjectCallsItsConstructor() {
+      Dependencies.Object object = dependencies.object("a.B", false, false, new String[] {});
+      Dependencies.Method method = object.method("c", false);
+      method.call("a.B$1", "<init>");
+      method.close();
+      object.close();
+      Dependencies.Object object2 = dependencies.object("a.B$1", true, false, new String[] {});
+      Dependencies.Method method2 = object2.method("f", false);
+      method2.call("d.E", "<init>");
+      method2.close();
+      object2.close();
+
+      verify(delegateMethod).call("d.E", "<init>");
+   }
+
+   public void testLocalObjectIsReleasedWhenNestIsFlushed() {
+      dependencies = nestOf("a.B", "a.B$1");
+      Dependencies.Object object = dependencies.object("a.B", false, false, new String[] {});
+      Dependencies.Method method = object.method("c", false);
+      method.call("a.B$1", "<init>");
+      method.close();
+      object.close();
+      dependencies.object("a.B$1", true, false, new String[] {}).close();
+
+      assertEquals(dependencies.localObjectCount(), 0);
+   }
+
+   public void testLocalObjectIsKeptWhileObjectOfNestIsOpen() {
+      dependencies = nestOf("a.B", "a.B$C", "a.B$1");
+      Dependencies.Object inner = dependencies.object("a.B$C", false, false, new String[] {});
+      dependencies.object("a.B$1", true, false, new String[] {}).close();
+      Dependencies.Object object = dependencies.object("a.B", false, false, new String[] {});
+      Dependencies.Method method = object.method("c", false);
+      method.call("a.B$1", "<init>");
+      method.close();
+      object.close();
+
+      assertEquals(dependencies.localObjectCount(), 1);
+      inner.close();
+      assertEquals(dependencies.localObjectCount(), 0);
+   }
+
+   public void testLocalObjectIsKeptWhenNestMembersAreNotKnown() {
+      Dependencies.Object object = dependencies.object("a.B", false, false, new String[] {});
+      Dependencies.Method method = object.method("c", false);
+      method.call("a.B$1", "<init>");
+      method.close();
+      object.close();
+      dependencies.object("a.B$1", true, false, new String[] {}).close();
+
+      assertEquals(dependencies.localObjectCount(), 1);
+   }
+
+   public void testLocalObjectIsMergedToNestMemberArrivingLater() {
+      Dependencies.Object local = dependencies.object("a.B$C$1", true, false, new String[] {});
+      Dependencies.Method localMethod = local.method("run", false);
+      localMethod.call("x.Y", "z");
+      localMethod.close();
+      local.close();
+      dependencies.object("a.B", false, false, new String[] {}).close();
+      Dependencies.Object object = dependencies.object("a.B$C", false, false, new String[] {});
+      Dependencies.Method method = object.method("go", false);
+      method.call("a.B$C$1", "<init>");
+      method.close();
+      object.close();
+
+      verify(delegate).object("a.B$C", false, false, new String[] {});
+      verify(delegateMethod).call("x.Y", "z");
+   }
+
+   public void testLocalObjectIsKeptUntilListedNestMemberArrives() {
+      dependencies = nestOf("a.B", "a.B$C", "a.B$C$1");
+      Dependencies.Object local = dependencies.object("a.B$C$1", true, false, new String[] {});
+      Dependencies.Method localMethod = local.method("run", false);
+      localMethod.call("x.Y", "z");
+      localMethod.close();
+      local.close();
+      dependencies.object("a.B", false, false, new String[] {}).close();
+
+      assertEquals(dependencies.localObjectCount(), 1);
+
+      Dependencies.Object object = dependencies.object("a.B$C", false, false, new String[] {});
+      Dependencies.Method method = object.method("go", false);
+      method.call("a.B$C$1", "<init>");
+      method.close();
+      object.close();
+
+      verify(delegateMethod).call("x.Y", "z");
+      assertEquals(dependencies.localObjectCount(), 0);
+   }
+
+   public void testReleasedLocalObjectIsNotVisible() {
+      dependencies = nestOf("a.B", "a.B$1");
+      dependencies.object("a.B$1", true, false, new String[] {}).close();
+      dependencies.object("a.B", false, false, new String[] {}).close();
+      Dependencies.Object object = dependencies.object("a.X", false, false, new String[] {});
+      Dependencies.Method method = object.method("c", false);
+      method.call("a.B$1", "<init>");
+      method.close();
+      object.close();
+
+      verify(delegateMethod, never()).call("a.B$1", "<init>");
+   }
+
+   private MergedAnonymousClassesDependencies nestOf(String... memberFqns) {
+      return new MergedAnonymousClassesDependencies(new Symbols(), objectFqn -> true,
+            outerFqn -> outerFqn.equals("a.B")?asList(memberFqns):null, Long.MAX_VALUE, delegate);
+   }
+
    @BeforeMethod
    protected void setUp() {
       delegate = mock(Dependencies.class);
       delegateObject = mock(Dependencies.Object.class);
       when(delegate.object(anyString(), anyBoolean(), anyBoolean(), anyVararg())).thenReturn(delegateObject);
-      delegateMethod = mock(Dependencies.Method.class);
+      delegateMethod = mockMethod();
       when(delegateObject.method(anyString(), anyBoolean())).thenReturn(delegateMethod);
       dependencies = new MergedAnonymousClassesDependencies(delegate);
    }
@@ -19,7 +19,11 @@
 package com.vanillasource.forcedep.transform;
 
 import com.vanillasource.forcedep.Dependencies;
+import com.vanillasource.forcedep.Symbols;
 import static org.mockito.Mockito.*;
+import static com.vanillasource.forcedep.transform.MockMethods.byNames;
+import static org.testng.Assert.*;
+import static java.util.Arrays.asList;
 import org.testng.annotations.Test;
 import org.testng.annotations.BeforeMethod;
 
@@ -80,13 +84,185 @@ public class MergedLambdaDependenciesTests {
       verifyNoMoreInteractions(delegateMethod);
    }
 
+   public void testMethodWaitsForLambdaMethodOfObjectNotClosed() {
+      Dependencies.Object object = dependencies.object("a.C", false, false, new String[] {});
+      Dependencies.Method method = object.method("d", false);
+      method.call("a.B", "access$100");
+      method.close();
+      object.close();
+
+      verify(delegateObject, never()).method("d", false);
+      verify(delegateObject, never()).close();
+   }
+
+   public void testMethodIsDelegatedWhenLambdaMethodArrivesLater() {
+      Dependencies.Object object2 = dependencies.object("a.C", false, false, new String[] {});
+      Dependencies.Method method2 = object2.method("d", false);
+      method2.call("a.B", "access$100");
+      method2.close();
+      object2.close();
+
+      Dependencies.Object object1 = dependencies.object("a.B", false, false, new String[] {});
+      Dependencies.Method method1 = object1.method("access$100", false);
+      method1.call("d.E", "f");
+      method1.close();
+      object1.close();
+
+      verify(delegateMethod).call("d.E", "f");
+      verify(delegateObject, times(2)).close();
+   }
+
+   public void testMethodDoesNotWaitForLambdaMethodMissingFromClosedObject() {
+      dependencies.object("a.B", false, false, new String[] {}).close();
+
+      Dependencies.Object object = dependencies.object("a.C", false, false, new String[] {});
+      Dependencies.Method method = object.method("d", false);
+      method.call("a.B", "access$100");
+      method.call("d.E", "f");
+      method.close();
+
+      verify(delegateMethod).call("d.E", "f");
+   }
+
+   public void testWaitingMethodIsReleasedWhenObjectClosesWithoutLambdaMethod() {
+      Dependencies.Object object = dependencies.object("a.C", false, false, new String[] {});
+      Dependencies.Method method = object.method("d", false);
+      method.call("a.B", "access$100");
+      method.call("d.E", "f");
+      method.close();
+
+      dependencies.object("a.B", false, false, new String[] {}).close();
+
+      verify(delegateMethod).call("d.E", "f");
+   }
+
+   public void testMethodDoesNotWaitForObjectNotAnalyzable() {
+      dependencies = new MergedLambdaDependencies(new Symbols(), objectFqn -> !objectFqn.equals("a.B"), delegate);
+      Dependencies.Object object = dependencies.object("a.C", false, false, new String[] {});
+      Dependencies.Method method = object.method("d", false);
+      method.call("a.B", "access$100");
+      method.close();
+
+      verify(delegateObject).method("d", false);
+   }
+
+   public void testWaitingMethodsAreDelegatedAtClose() {
+      Dependencies.Object object = dependencies.object("a.C", false, false, new String[] {});
+      Dependencies.Method method = object.method("d", false);
+      method.call("a.B", "access$100");
+      method.call("d.E", "f");
+      method.close();
+      object.close();
+
+      dependencies.close();
+
+      verify(delegateMethod).call("d.E", "f");
+      verify(delegateObject).close();
+      verify(delegate).close();
+   }
+
+   public void testLambdaMethodIsKeptWhileObjectOfNestIsOpen() {
+      Dependencies.Object inner = dependencies.object("a.B$C", false, false, new String[] {});
+      Dependencies.Object object = dependencies.object("a.B", false, false, new String[] {});
+      Dependencies.Method lambda = object.method("access$100", false);
+      lambda.call("d.E", "f");
+      lambda.close();
+      object.close();
+
+      assertEquals(dependencies.lambdaMethodCount(), 1);
+
+      Dependencies.Method method = inner.method("c", false);
+      method.call("a.B", "access$100");
+      method.close();
+
+      verify(delegateMethod).call("d.E", "f");
+   }
+
+   public void testLambdaMethodIsMergedToNestMemberArrivingLater() {
+      Dependencies.Object object = dependencies.object("a.B", false, false, new String[] {});
+      Dependencies.Method lambda = object.method("access$100", false);
+      lambda.call("d.E", "f");
+      lambda.close();
+      object.close();
+
+      Dependencies.Object inner = dependencies.object("a.B$C", false, false, new String[] {});
+      Dependencies.Method method = inner.method("d", false);
+      method.call("a.B", "access$100");
+      method.close();
+      inner.close();
+
+      verify(delegateMethod).call("d.E", "f");
+   }
+
+   public void testLambdaMethodIsKeptWhenNestMembersAreNotKnown() {
+      Dependencies.Object inner = dependencies.object("a.B$C", false, false, new String[] {});
+      Dependencies.Object object = dependencies.object("a.B", false, false, new String[] {});
+      Dependencies.Method lambda = object.method("access$100", false);
+      lambda.call("d.E", "f");
+      lambda.close();
+      object.close();
+      inner.close();
+
+      assertEquals(dependencies.lambdaMethodCount(), 1);
+   }
+
+   public void testLambdaMethodIsKeptUntilListedNestMemberArrives() {
+      dependencies = nestOf("a.B", "a.B$C");
+      Dependencies.Object object = dependencies.object("a.B", false, false, new String[] {});
+      Dependencies.Method lambda = object.method("access$100", false);
+      lambda.call("d.E", "f");
+      lambda.close();
+      object.close();
+
+      assertEquals(dependencies.lambdaMethodCount(), 1);
+
+      Dependencies.Object inner = dependencies.object("a.B$C", false, false, new String[] {});
+      Dependencies.Method method = inner.method("d", false);
+      method.call("a.B", "access$100");
+      method.close();
+      inner.close();
+
+      verify(delegateMethod).call("d.E", "f");
+   }
+
+   public void testLambdaMethodIsReleasedWhenAllListedNestMembersAreClosed() {
+      dependencies = nestOf("a.B", "a.B$C");
+      Dependencies.Object inner = dependencies.object("a.B$C", false, false, new String[] {});
+      Dependencies.Object object = dependencies.object("a.B", false, false, new String[] {});
+      Dependencies.Method lambda = object.method("access$100", false);
+      lambda.call("d.E", "f");
+      lambda.close();
+      object.close();
+      inner.close();
+
+      assertEquals(dependencies.lambdaMethodCount(), 0);
+   }
+
+   public void testLambdaMethodCompletedAfterNestIsClosedIsNotKept() {
+      dependencies = nestOf("a.B");
+      Dependencies.Object object = dependencies.object("a.B", false, false, new String[] {});
+      Dependencies.Method lambda = object.method("access$100", false);
+      lambda.call("a.B", "access$200");
+      lambda.close();
+      Dependencies.Method lambda2 = object.method("access$200", false);
+      object.close();
+      lambda2.close();
+
+      assertEquals(dependencies.lambdaMethodCount(), 0);
+   }
+
+   private MergedLambdaDependencies nestOf(String... memberFqns) {
+      return new MergedLambdaDependencies(new Symbols(), objectFqn -> true,
+            outerFqn -> outerFqn.equals("a.B")?asList(memberFqns):null, false, delegate);
+   }
+
    @BeforeMethod
    protected void setUp() {
       delegate = mock(Dependencies.class);
       delegateObject = mock(Dependencies.Object.class);
       when(delegate.object(anyString(), anyBoolean(), anyBoolean(), anyVararg())).thenReturn(delegateObject);
       delegateMethod = mock(Dependencies.Method.class);
-      when(delegateObject.method(anyString(), anyBoolean())).thenReturn(delegateMethod);
+      when(delegateObject.method(anyString(), anyBoolean())).thenReturn(byNames(delegateMethod));
       dependencies = new MergedLambdaDependencies(delegate);
    }
 }
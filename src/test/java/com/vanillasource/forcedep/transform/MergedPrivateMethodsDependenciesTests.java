@@ -20,6 +20,7 @@ package com.vanillasource.forcedep.transform;
 
 import com.vanillasource.forcedep.Dependencies;
 import static org.mockito.Mockito.*;
+import static com.vanillasource.forcedep.transform.MockMethods.mockMethod;
 import org.testng.annotations.Test;
 import org.testng.annotations.BeforeMethod;
 
@@ -107,7 +108,48 @@ public class MergedPrivateMethodsDependenciesTests {
 
       verify(delegateMethod).call("d.E", "i");
       verify(delegateMethod).close();
-      verifyNoMoreInteractions(delegateMethod);
+      verifyNoMoreInteractions(ignoreStubs(delegateMethod));
+   }
+
+   public void testMutuallyRecursivePrivateMethodsAreMerged() {
+      Dependencies.Object object = dependencies.object("a.B", false, false, new String[] {});
+      object.method("c", false).call("a.B", "d");
+      Dependencies.Method d = object.method("d", true);
+      d.call("a.B", "f");
+      d.call("d.E", "g");
+      Dependencies.Method f = object.method("f", true);
+      f.call("a.B", "d");
+      f.call("a.B", "f");
+      f.call("d.E", "h");
+      object.close();
+
+      verify(delegateMethod).call("d.E", "g");
+      verify(delegateMethod).call("d.E", "h");
+   }
+
+   public void testSharedPrivateMethodIsMergedIntoEachCaller() {
+      Dependencies.Method delegateMethod2 = mockMethod();
+      when(delegateObject.method("f", false)).thenReturn(delegateMethod2);
+      Dependencies.Object object = dependencies.object("a.B", false, false, new String[] {});
+      object.method("c", false).call("a.B", "d");
+      object.method("f", false).call("a.B", "d");
+      object.method("d", true).reference("d.E", "g");
+      object.close();
+
+      verify(delegateMethod).reference("d.E", "g");
+      verify(delegateMethod2).reference("d.E", "g");
+   }
+
+   public void testLongPrivateMethodChainDoesNotOverflowStack() {
+      Dependencies.Object object = dependencies.object("a.B", false, false, new String[] {});
+      object.method("c", false).call("a.B", "m0");
+      for (int i=0; i<100000; i++) {
+         object.method("m"+i, true).call("a.B", "m"+(i+1));
+      }
+      object.method("m100000", true).call("d.E", "f");
+      object.close();
+
+      verify(delegateMethod).call("d.E", "f");
    }
 
    @BeforeMethod
@@ -115,7 +157,7 @@ public class MergedPrivateMethodsDependenciesTests {
       delegate = mock(Dependencies.class);
       delegateObject = mock(Dependencies.Object.class);
       when(delegate.object(anyString(), anyBoolean(), anyBoolean(), anyVararg())).thenReturn(delegateObject);
-      delegateMethod = mock(Dependencies.Method.class);
+      delegateMethod = mockMethod();
       when(delegateObject.method(anyString(), anyBoolean())).thenReturn(delegateMethod);
       dependencies = new MergedPrivateMethodsDependencies(delegate);
    }
@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.vanillasource.forcedep.transform;
+
+import com.vanillasource.forcedep.Dependencies;
+import com.vanillasource.forcedep.Symbols;
+import static org.mockito.Mockito.*;
+
+/**
+ * Mocked methods receiving calls and references by ids as names, the same way the
+ * default implementation does. Invocations by ids are stubbed, so they can be ignored
+ * when verifying no more interactions.
+ */
+final class MockMethods {
+   private MockMethods() {
+   }
+
+   static Dependencies.Method mockMethod() {
+      Dependencies.Method method = mock(Dependencies.Method.class);
+      doAnswer(invocation -> {
+         Symbols symbols = (Symbols) invocation.getArguments()[0];
+         method.call(symbols.name((Integer) invocation.getArguments()[1]), symbols.name((Integer) invocation.getArguments()[2]));
+         return null;
+      }).when(method).call(any(Symbols.class), anyInt(), anyInt());
+      doAnswer(invocation -> {
+         Symbols symbols = (Symbols) invocation.getArguments()[0];
+         method.reference(symbols.name((Integer) invocation.getArguments()[1]), symbols.name((Integer) invocation.getArguments()[2]));
+         return null;
+      }).when(method).reference(any(Symbols.class), anyInt(), anyInt());
+      return method;
+   }
+
+   /**
+    * @return A method passing calls and references by ids to the given mock as names only,
+    * so the mock receives no other invocations.
+    */
+   static Dependencies.Method byNames(Dependencies.Method method) {
+      return new Dependencies.Method() {
+         @Override
+         public void call(String calledObjectFqn, String calledMethodName) {
+            method.call(calledObjectFqn, calledMethodName);
+         }
+
+         @Override
+         public void reference(String referencedObjectFqn, String referencedFieldName) {
+            method.reference(referencedObjectFqn, referencedFieldName);
+         }
+
+         @Override
+         public void close() {
+            method.close();
+         }
+      };
+   }
+}
@@ -19,7 +19,9 @@
 package com.vanillasource.forcedep.transform;
 
 import com.vanillasource.forcedep.Dependencies;
+import com.vanillasource.forcedep.Symbols;
 import static org.mockito.Mockito.*;
+import org.mockito.InOrder;
 import org.testng.annotations.Test;
 import org.testng.annotations.BeforeMethod;
 
@@ -60,6 +62,7 @@ public class OverrideDependenciesTests {
       Dependencies.Object o2 = dependencies.object("a.C", false, false, new String[] {});
       o2.method("b", false);
       o2.close();
+      dependencies.close();
 
       verify(delegateMethod).call("a.C", "b");
    }
@@ -71,6 +74,7 @@ public class OverrideDependenciesTests {
       Dependencies.Object o1 = dependencies.object("a.B", false, false, new String[] { "a.C" });
       o1.method("b", false);
       o1.close();
+      dependencies.close();
 
       verify(delegateMethod).call("a.C", "b");
    }
@@ -84,10 +88,216 @@ public class OverrideDependenciesTests {
       Dependencies.Object o3 = dependencies.object("a.D", false, false, new String[] { });
       o3.method("b", false);
       o3.close();
+      dependencies.close();
 
       verify(delegateMethod).call("a.D", "b");
    }
 
+   public void testOnlyNearestOverriddenMethodIsCalled() {
+      Dependencies.Method method1 = mock(Dependencies.Method.class);
+      Dependencies.Object delegateObject1 = mock(Dependencies.Object.class);
+      when(delegate.object(eq("a.B"), anyBoolean(), anyBoolean(), anyVararg())).thenReturn(delegateObject1);
+      when(delegateObject1.method("b", false)).thenReturn(method1);
+      Dependencies.Object o1 = dependencies.object("a.B", false, false, new String[] { "a.C" });
+      o1.method("b", false);
+      o1.close();
+      Dependencies.Object o2 = dependencies.object("a.C", false, false, new String[] { "a.D" });
+      o2.method("b", false);
+      o2.close();
+      Dependencies.Object o3 = dependencies.object("a.D", false, false, new String[] { });
+      o3.method("b", false);
+      o3.close();
+      dependencies.close();
+
+      verify(method1).call("a.C", "b");
+      verify(method1, never()).call("a.D", "b");
+      verify(delegateMethod).call("a.D", "b");
+   }
+
+   public void testOverrideOfEachInterfaceIsCalled() {
+      Dependencies.Object o1 = dependencies.object("a.B", false, false, new String[] { "a.C", "a.D" });
+      o1.method("b", false);
+      o1.close();
+      dependencies.object("a.C", true, false, new String[] {}).method("b", false);
+      dependencies.object("a.D", true, false, new String[] {}).method("b", false);
+      dependencies.close();
+
+      verify(delegateMethod).call("a.C", "b");
+      verify(delegateMethod).call("a.D", "b");
+   }
+
+   public void testOverrideThroughObjectNotAnalyzedIsNotCalled() {
+      Dependencies.Object o1 = dependencies.object("a.B", false, false, new String[] { "a.C" });
+      o1.method("b", false);
+      o1.close();
+      Dependencies.Object o3 = dependencies.object("a.D", false, false, new String[] { });
+      o3.method("b", false);
+      o3.close();
+      dependencies.close();
+
+      verify(delegateMethod, never()).call(anyString(), eq("b"));
+   }
+
+   public void testMethodNotInSuperclassHasNoOverride() {
+      Dependencies.Object o1 = dependencies.object("a.B", false, false, new String[] { "a.C" });
+      o1.method("b", false);
+      o1.close();
+      Dependencies.Object o2 = dependencies.object("a.C", false, false, new String[] {});
+      o2.method("c", false);
+      o2.close();
+      dependencies.close();
+
+      verify(delegateMethod, never()).call(anyString(), anyString());
+   }
+
+   public void testObjectIsClosedOnceSupertypeIsClosed() {
+      Dependencies.Object o2 = dependencies.object("a.C", false, false, new String[] {});
+      o2.method("b", false);
+      o2.close();
+      Dependencies.Object o1 = dependencies.object("a.B", false, false, new String[] { "a.C" });
+      o1.method("b", false);
+      o1.close();
+
+      verify(delegateMethod).call("a.C", "b");
+      verify(delegateObject, times(2)).close();
+   }
+
+   public void testObjectWaitsForAnalyzableSupertype() {
+      Dependencies.Object o1 = dependencies.object("a.B", false, false, new String[] { "a.C" });
+      o1.method("b", false);
+      o1.close();
+
+      verify(delegateObject, never()).close();
+   }
+
+   public void testObjectDoesNotWaitForSupertypeNotAnalyzable() {
+      dependencies = new OverrideDependencies(objectFqn -> !objectFqn.equals("a.C"), delegate);
+      Dependencies.Object o1 = dependencies.object("a.B", false, false, new String[] { "a.C" });
+      o1.method("b", false);
+      o1.close();
+
+      verify(delegateObject).close();
+   }
+
+   public void testObjectDoesNotWaitForSupertypesOutsideInputs() {
+      dependencies = new OverrideDependencies(objectFqn -> objectFqn.startsWith("a."), delegate);
+      Dependencies.Object o2 = dependencies.object("a.C", false, false, new String[] { "java.lang.Object" });
+      o2.method("b", false).close();
+      o2.close();
+      Dependencies.Object o1 = dependencies.object("a.B", false, false, new String[] { "a.C", "java.io.Serializable" });
+      o1.method("b", false).close();
+      o1.close();
+
+      verify(delegateMethod).call("a.C", "b");
+      verify(delegateMethod, times(2)).close();
+      verify(delegateObject, times(2)).close();
+   }
+
+   public void testInstantiatedOnlyOmitsOverrideInTypeNeverInstantiated() {
+      dependencies = new OverrideDependencies(objectFqn -> true, true, delegate);
+      Dependencies.Object o2 = dependencies.object("a.C", false, false, new String[] {});
+      o2.method("b", false);
+      o2.close();
+      Dependencies.Object o1 = dependencies.object("a.B", false, false, new String[] { "a.C" });
+      o1.method("b", false);
+      o1.close();
+      dependencies.close();
+
+      verify(delegateMethod, never()).call("a.C", "b");
+      verify(delegateObject, times(2)).close();
+   }
+
+   public void testInstantiatedOnlyPlacesOverrideInInstantiatedType() {
+      dependencies = new OverrideDependencies(objectFqn -> true, true, delegate);
+      Dependencies.Object o3 = dependencies.object("a.D", false, false, new String[] {});
+      o3.method("main", false).call("a.B", "<init>");
+      o3.close();
+      Dependencies.Object o2 = dependencies.object("a.C", false, false, new String[] {});
+      o2.method("b", false);
+      o2.close();
+      Dependencies.Object o1 = dependencies.object("a.B", false, false, new String[] { "a.C" });
+      o1.method("b", false);
+      o1.close();
+
+      verify(delegateMethod).call("a.C", "b");
+      verify(delegateObject, times(2)).close();
+   }
+
+   public void testInstantiatedOnlyResolvesWaitingObjectWhenInstantiated() {
+      dependencies = new OverrideDependencies(objectFqn -> true, true, delegate);
+      Dependencies.Object o2 = dependencies.object("a.C", false, false, new String[] {});
+      o2.method("b", false);
+      o2.close();
+      Dependencies.Object o1 = dependencies.object("a.B", false, false, new String[] { "a.C" });
+      o1.method("b", false);
+      o1.close();
+      Dependencies.Object o3 = dependencies.object("a.D", false, false, new String[] {});
+      Symbols symbols = new Symbols();
+      o3.method("main", false).calls(symbols, new int[] { symbols.id("a.B") }, new int[] { symbols.id("<init>") }, 1);
+      o3.close();
+
+      verify(delegateMethod).call("a.C", "b");
+      verify(delegateObject, times(2)).close();
+   }
+
+   public void testInstantiatedOnlyPlacesOverrideInSupertypeOfInstantiatedType() {
+      dependencies = new OverrideDependencies(objectFqn -> true, true, delegate);
+      Dependencies.Object o3 = dependencies.object("a.D", false, false, new String[] {});
+      o3.method("main", false).call("a.E", "<init>");
+      o3.close();
+      Dependencies.Object o2 = dependencies.object("a.C", false, false, new String[] {});
+      o2.method("b", false);
+      o2.close();
+      Dependencies.Object o1 = dependencies.object("a.B", false, false, new String[] { "a.C" });
+      o1.method("b", false);
+      o1.close();
+      Dependencies.Object o4 = dependencies.object("a.E", false, false, new String[] { "a.B" });
+      o4.close();
+
+      verify(delegateMethod).call("a.C", "b");
+   }
+
+   public void testInstantiatedOnlyIgnoresSuperConstructorCall() {
+      dependencies = new OverrideDependencies(objectFqn -> true, true, delegate);
+      Dependencies.Object o3 = dependencies.object("a.D", false, false, new String[] { "a.B" });
+      o3.method("<init>", false).call("a.B", "<init>");
+      o3.close();
+      Dependencies.Object o2 = dependencies.object("a.C", false, false, new String[] {});
+      o2.method("b", false);
+      o2.close();
+      Dependencies.Object o1 = dependencies.object("a.B", false, false, new String[] { "a.C" });
+      o1.method("b", false);
+      o1.close();
+      dependencies.close();
+
+      verify(delegateMethod, never()).call("a.C", "b");
+   }
+
+   public void testMethodIsClosedOnlyAfterOverrideIsPlaced() {
+      Dependencies.Object o1 = dependencies.object("a.B", false, false, new String[] { "a.C" });
+      o1.method("b", false).close();
+      o1.close();
+
+      verify(delegateMethod, never()).close();
+
+      Dependencies.Object o2 = dependencies.object("a.C", false, false, new String[] {});
+      o2.method("b", false);
+      o2.close();
+
+      InOrder inOrder = inOrder(delegateMethod);
+      inOrder.verify(delegateMethod).call("a.C", "b");
+      inOrder.verify(delegateMethod).close();
+   }
+
+   public void testMethodClosedAfterObjectIsResolvedIsClosedImmediately() {
+      Dependencies.Object o1 = dependencies.object("a.B", false, false, new String[] {});
+      Dependencies.Method method = o1.method("b", false);
+      o1.close();
+      method.close();
+
+      verify(delegateMethod).close();
+   }
+
    @BeforeMethod
    protected void setUp() {
       delegate = mock(Dependencies.class);
@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.vanillasource.forcedep.transform;
+
+import com.vanillasource.forcedep.Dependencies;
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.*;
+import org.mockito.InOrder;
+import org.testng.annotations.Test;
+import org.testng.annotations.BeforeMethod;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Test
+public class PipelinedDependenciesTests {
+   private Dependencies delegate;
+   private Dependencies.Object delegateObject;
+   private Dependencies.Method delegateMethod;
+   private PipelinedDependencies dependencies;
+
+   public void testAllEventsAreDelegatedInOrderByClose() {
+      Dependencies.Object object = dependencies.object("a.B", true, false, new String[] { "a.C" });
+      object.field("g");
+      Dependencies.Method method = object.method("c", true);
+      method.call("d.E", "f");
+      method.reference("d.E", "h");
+      method.close();
+      object.close();
+      dependencies.close();
+
+      InOrder inOrder = inOrder(delegate, delegateObject, delegateMethod);
+      inOrder.verify(delegate).object("a.B", true, false, new String[] { "a.C" });
+      inOrder.verify(delegateObject).field("g");
+      inOrder.verify(delegateObject).method("c", true);
+      inOrder.verify(delegateMethod).call("d.E", "f");
+      inOrder.verify(delegateMethod).reference("d.E", "h");
+      inOrder.verify(delegateMethod).close();
+      inOrder.verify(delegateObject).close();
+      inOrder.verify(delegate).close();
+   }
+
+   public void testInterleavedObjectsAreDelegatedToTheirOwnTargets() {
+      Dependencies.Object delegateObject2 = mock(Dependencies.Object.class);
+      when(delegate.object(eq("x.Y"), anyBoolean(), anyBoolean(), anyVararg())).thenReturn(delegateObject2);
+      Dependencies.Object object1 = dependencies.object("a.B", false, false);
+      Dependencies.Object object2 = dependencies.object("x.Y", false, false);
+      object2.field("z");
+      object1.field("c");
+      object1.close();
+      object2.close();
+      dependencies.close();
+
+      verify(delegateObject).field("c");
+      verify(delegateObject2).field("z");
+   }
+
+   public void testEventsBeyondCapacityAreAllDelegated() {
+      Dependencies.Object object = dependencies.object("a.B", false, false);
+      Dependencies.Method method = object.method("c", false);
+      for (int i=0; i<10000; i++) {
+         method.call("d.E", "f");
+      }
+      method.close();
+      object.close();
+      dependencies.close();
+
+      verify(delegateMethod, times(10000)).call("d.E", "f");
+   }
+
+   public void testDelegateRunsOnAnotherThread() {
+      Thread producer = Thread.currentThread();
+      AtomicInteger otherThreadCalls = new AtomicInteger();
+      doAnswer(invocation -> {
+         if (Thread.currentThread() != producer) {
+            otherThreadCalls.incrementAndGet();
+         }
+         return null;
+      }).when(delegate).close();
+
+      dependencies.close();
+
+      assertEquals(otherThreadCalls.get(), 1);
+   }
+
+   @Test(expectedExceptions = IllegalStateException.class)
+   public void testFailureOfDelegateIsReportedAtClose() {
+      when(delegate.object(anyString(), anyBoolean(), anyBoolean(), anyVararg())).thenThrow(new IllegalArgumentException("test"));
+      dependencies.object("a.B", false, false).close();
+
+      dependencies.close();
+   }
+
+   @Test(expectedExceptions = IllegalStateException.class)
+   public void testCallOnClosedMethodIsRejected() {
+      Dependencies.Method method = dependencies.object("a.B", false, false).method("c", false);
+      method.close();
+
+      method.call("d.E", "f");
+   }
+
+   @BeforeMethod
+   protected void setUp() {
+      delegate = mock(Dependencies.class);
+      delegateObject = mock(Dependencies.Object.class);
+      when(delegate.object(anyString(), anyBoolean(), anyBoolean(), anyVararg())).thenReturn(delegateObject);
+      delegateMethod = mock(Dependencies.Method.class);
+      when(delegateObject.method(anyString(), anyBoolean())).thenReturn(delegateMethod);
+      dependencies = new PipelinedDependencies("test", 16, delegate);
+   }
+}
@@ -0,0 +1,350 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.vanillasource.forcedep.transform;
+
+import com.vanillasource.forcedep.Dependencies;
+import com.vanillasource.forcedep.Symbols;
+import com.vanillasource.forcedep.jvm.AsmClass;
+import com.vanillasource.forcedep.scan.DirectoryObjects;
+import com.vanillasource.forcedep.scan.ListedClasses;
+import static org.mockito.Mockito.*;
+import static com.vanillasource.forcedep.transform.MockMethods.mockMethod;
+import static org.testng.Assert.*;
+import static java.util.Arrays.asList;
+import java.util.ArrayList;
+import java.util.List;
+import java.nio.file.Paths;
+import org.testng.annotations.Test;
+import org.testng.annotations.BeforeMethod;
+
+@Test
+public class TransformPipelineTests {
+   private Dependencies delegate;
+   private Dependencies.Object delegateObject;
+   private Dependencies.Method delegateMethod;
+
+   public void testEmptyPipelineIsTheOutput() {
+      assertSame(new TransformPipeline(new Symbols(), objectFqn -> true).build(delegate), delegate);
+   }
+
+   public void testFirstStageReceivesTheObjects() {
+      Dependencies dependencies = new TransformPipeline(new Symbols(), objectFqn -> true)
+         .filtered()
+         .unique()
+         .build(delegate);
+
+      assertTrue(dependencies instanceof FilteredDependencies);
+   }
+
+   public void testFilteredObjectsAreNotDelegated() {
+      Dependencies dependencies = new TransformPipeline(new Symbols(), objectFqn -> !objectFqn.startsWith("x."))
+         .filtered()
+         .unique()
+         .build(delegate);
+
+      dependencies.object("x.Y", false, false).close();
+
+      verify(delegate, never()).object(eq("x.Y"), anyBoolean(), anyBoolean(), anyVararg());
+   }
+
+   public void testEdgesPassThroughAllStages() {
+      Dependencies dependencies = new TransformPipeline(new Symbols(), objectFqn -> true)
+         .filtered()
+         .unique()
+         .build(delegate);
+
+      Dependencies.Object object = dependencies.object("a.B", false, false);
+      Dependencies.Method method = object.method("c", false);
+      method.call("d.E", "f");
+      method.call("d.E", "f");
+      method.close();
+      object.close();
+
+      verify(delegateMethod, times(1)).call("d.E", "f");
+   }
+
+   public void testSpecificationSelectsStagesInOrder() {
+      Dependencies dependencies = new TransformPipeline(new Symbols(), objectFqn -> !objectFqn.startsWith("x."))
+         .stages("filter, unique", Long.MAX_VALUE)
+         .build(delegate);
+
+      assertTrue(dependencies instanceof FilteredDependencies);
+      dependencies.object("x.Y", false, false).close();
+      Dependencies.Object object = dependencies.object("a.B", false, false);
+      Dependencies.Method method = object.method("c", false);
+      method.call("d.E", "f");
+      method.call("d.E", "f");
+      method.close();
+      object.close();
+
+      verify(delegate, never()).object(eq("x.Y"), anyBoolean(), anyBoolean(), anyVararg());
+      verify(delegateMethod, times(1)).call("d.E", "f");
+   }
+
+   public void testFullSpecificationBuildsAllStages() {
+      Dependencies dependencies = new TransformPipeline(new Symbols(), objectFqn -> true)
+         .stages(TransformPipeline.FULL_SPECIFICATION, Long.MAX_VALUE)
+         .build(delegate);
+
+      Dependencies.Object object = dependencies.object("a.B", false, false);
+      Dependencies.Method method = object.method("c", false);
+      method.call("a.B", "c");
+      method.close();
+      object.close();
+      dependencies.close();
+
+      verify(delegateMethod).call("a.B", "c");
+      verify(delegate).close();
+   }
+
+   public void testEmptySpecificationAddsNoStages() {
+      assertSame(new TransformPipeline(new Symbols(), objectFqn -> true).stages(" ", Long.MAX_VALUE).build(delegate), delegate);
+   }
+
+   @Test(expectedExceptions = IllegalArgumentException.class)
+   public void testUnknownStageIsRejected() {
+      new TransformPipeline(new Symbols(), objectFqn -> true).stages("filter,nonexistent", Long.MAX_VALUE);
+   }
+
+   public void testOverrideFollowedByUniqueKeepsAllEdges() {
+      RecordingDependencies output = new RecordingDependencies();
+      Dependencies dependencies = new TransformPipeline(new Symbols(), objectFqn -> true)
+         .stages("override,unique", Long.MAX_VALUE)
+         .build(output);
+
+      analyzeOverridingObjectFirst(dependencies);
+
+      assertEquals(output.edges, asList("a.C.x -> a.A.run", "a.C.run -> a.A.run"));
+   }
+
+   public void testExistingObjectsFollowedByUniqueKeepsAllEdges() {
+      RecordingDependencies output = new RecordingDependencies();
+      Dependencies dependencies = new TransformPipeline(new Symbols(), objectFqn -> true)
+         .stages("existing,unique", Long.MAX_VALUE)
+         .build(output);
+
+      Dependencies.Object c = dependencies.object("a.C", false, false);
+      Dependencies.Method y = c.method("y", false);
+      y.call("a.A", "run");
+      y.close();
+      Dependencies.Method z = c.method("z", false);
+      z.call("a.A", "run");
+      z.close();
+      c.close();
+      Dependencies.Object a = dependencies.object("a.A", false, false);
+      a.method("run", false).close();
+      a.close();
+      dependencies.close();
+
+      assertEquals(output.edges, asList("a.C.y -> a.A.run", "a.C.z -> a.A.run"));
+   }
+
+   public void testInstantiatedOverridesFollowedByUniqueKeepsAllEdges() {
+      RecordingDependencies output = new RecordingDependencies();
+      Dependencies dependencies = new TransformPipeline(new Symbols(), objectFqn -> true)
+         .stages("rta,unique", Long.MAX_VALUE)
+         .build(output);
+
+      Dependencies.Object main = dependencies.object("a.Main", false, false);
+      Dependencies.Method method = main.method("main", false);
+      method.call("a.C", "<init>");
+      method.close();
+      main.close();
+      analyzeOverridingObjectFirst(dependencies);
+
+      assertTrue(output.edges.containsAll(asList("a.C.x -> a.A.run", "a.C.run -> a.A.run")));
+   }
+
+   public void testOverrideFollowedByPipelinedStageKeepsAllEdges() {
+      RecordingDependencies output = new RecordingDependencies();
+      Dependencies dependencies = new TransformPipeline(new Symbols(), objectFqn -> true)
+         .overrides()
+         .pipelined("test", 4)
+         .build(output);
+
+      analyzeOverridingObjectFirst(dependencies);
+
+      assertEquals(output.edges, asList("a.C.x -> a.A.run", "a.C.run -> a.A.run"));
+   }
+
+   public void testFullSpecificationKeepsClosedMethodsClosed() {
+      RecordingDependencies output = new RecordingDependencies();
+      Dependencies dependencies = new TransformPipeline(new Symbols(), objectFqn -> true)
+         .stages(TransformPipeline.FULL_SPECIFICATION, Long.MAX_VALUE)
+         .build(output);
+
+      analyzeOverridingObjectFirst(dependencies);
+
+      assertEqualsNoOrder(output.edges.toArray(), new String[] { "a.C.x -> a.A.run", "a.C.run -> a.A.run" });
+   }
+
+   public void testUniqueIsFusedIntoMergedLambdas() {
+      RecordingDependencies output = new RecordingDependencies();
+      Dependencies dependencies = new TransformPipeline(new Symbols(), objectFqn -> true)
+         .mergedLambdas()
+         .unique()
+         .build(output);
+
+      analyzeDuplicateCalls(dependencies);
+
+      assertTrue(dependencies instanceof MergedLambdaDependencies);
+      assertEquals(output.edges, asList("a.B.c -> d.E.f", "a.B.c -> a.B.p", "a.B.p -> d.E.f", "a.B.p -> d.E.g"));
+   }
+
+   public void testUniqueIsFusedIntoMergedPrivateMethods() {
+      RecordingDependencies output = new RecordingDependencies();
+      Dependencies dependencies = new TransformPipeline(new Symbols(), objectFqn -> true)
+         .mergedPrivateMethods()
+         .unique()
+         .build(output);
+
+      analyzeDuplicateCalls(dependencies);
+
+      assertTrue(dependencies instanceof MergedPrivateMethodsDependencies);
+      assertEquals(output.edges, asList("a.B.c -> d.E.f", "a.B.c -> d.E.g"));
+   }
+
+   public void testUniqueIsNotFusedAfterOtherStages() {
+      Dependencies dependencies = new TransformPipeline(new Symbols(), objectFqn -> true)
+         .mergedLambdas()
+         .filtered()
+         .unique()
+         .build(delegate);
+
+      assertTrue(dependencies instanceof MergedLambdaDependencies);
+      dependencies.object("a.B", false, false).close();
+
+      verify(delegate).object(eq("a.B"), anyBoolean(), anyBoolean(), anyVararg());
+   }
+
+   public void testScannedObjectsAreDelegatedBeforeCloseWithDefaultWhitelist() throws Exception {
+      FqnFilter filter = new FqnFilter(asList(".*"), asList());
+      ListedClasses listedClasses = new ListedClasses(filter);
+      DirectoryObjects objects = new DirectoryObjects(
+            Paths.get(getClass().getClassLoader().getResource("com/vanillasource/forcedep/jvm/A.class").toURI())
+               .getParent().getParent().getParent().getParent().getParent(),
+            listedClasses.filter(), AsmClass::new);
+      listedClasses.list(asList(objects));
+      Dependencies dependencies = new TransformPipeline(new Symbols(), filter, listedClasses)
+         .stages(TransformPipeline.FULL_SPECIFICATION, Long.MAX_VALUE)
+         .build(delegate);
+
+      objects.analyze(dependencies);
+
+      verify(delegate).object(eq("com.vanillasource.forcedep.jvm.A"), anyBoolean(), anyBoolean(), anyVararg());
+      verify(delegate).object(eq("com.vanillasource.forcedep.jvm.HI"), anyBoolean(), anyBoolean(), anyVararg());
+      verify(delegateObject, atLeastOnce()).close();
+      verify(delegate, never()).close();
+   }
+
+   /**
+    * Calls d.E.f twice from a.B.c, once through a private method.
+    */
+   private void analyzeDuplicateCalls(Dependencies dependencies) {
+      Dependencies.Object b = dependencies.object("a.B", false, false);
+      Dependencies.Method c = b.method("c", false);
+      c.call("d.E", "f");
+      c.call("a.B", "p");
+      c.call("d.E", "f");
+      c.close();
+      Dependencies.Method p = b.method("p", true);
+      p.call("d.E", "f");
+      p.call("d.E", "g");
+      p.close();
+      b.close();
+      dependencies.close();
+   }
+
+   /**
+    * Analyze a.C overriding a.A.run before a.A, so overrides and calls to a.A have to wait.
+    */
+   private void analyzeOverridingObjectFirst(Dependencies dependencies) {
+      Dependencies.Object c = dependencies.object("a.C", false, false, "a.A");
+      c.method("run", false).close();
+      Dependencies.Method x = c.method("x", false);
+      x.call("a.A", "run");
+      x.close();
+      c.close();
+      Dependencies.Object a = dependencies.object("a.A", false, false);
+      a.method("run", false).close();
+      a.close();
+      dependencies.close();
+   }
+
+   @BeforeMethod
+   protected void setUp() {
+      delegate = mock(Dependencies.class);
+      delegateObject = mock(Dependencies.Object.class);
+      when(delegate.object(anyString(), anyBoolean(), anyBoolean(), anyVararg())).thenReturn(delegateObject);
+      delegateMethod = mockMethod();
+      when(delegateObject.method(anyString(), anyBoolean())).thenReturn(delegateMethod);
+   }
+
+   /**
+    * Records edges as text, and fails on events for anything already closed.
+    */
+   private static final class RecordingDependencies implements Dependencies {
+      private final List<String> edges = new ArrayList<>();
+
+      @Override
+      public Dependencies.Object object(String objectFqn, boolean local, boolean pureInterface, String... superObjectFqns) {
+         return new Dependencies.Object() {
+            private boolean closed = false;
+
+            @Override
+            public Dependencies.Method method(String methodName, boolean local) {
+               assertFalse(closed, objectFqn+" closed");
+               return new Dependencies.Method() {
+                  private boolean closed = false;
+
+                  @Override
+                  public void call(String calledObjectFqn, String calledMethodName) {
+                     assertFalse(closed, objectFqn+"."+methodName+" closed");
+                     edges.add(objectFqn+"."+methodName+" -> "+calledObjectFqn+"."+calledMethodName);
+                  }
+
+                  @Override
+                  public void reference(String referencedObjectFqn, String fieldName) {
+                     assertFalse(closed, objectFqn+"."+methodName+" closed");
+                     edges.add(objectFqn+"."+methodName+" -> "+referencedObjectFqn+"."+fieldName);
+                  }
+
+                  @Override
+                  public void close() {
+                     closed = true;
+                  }
+               };
+            }
+
+            @Override
+            public void field(String fieldName) {
+               assertFalse(closed, objectFqn+" closed");
+            }
+
+            @Override
+            public void close() {
+               closed = true;
+            }
+         };
+      }
+
+      @Override
+      public void close() {
+      }
+   }
+}
@@ -19,7 +19,12 @@
 package com.vanillasource.forcedep.transform;
 
 import com.vanillasource.forcedep.Dependencies;
+import com.vanillasource.forcedep.Symbols;
 import static org.mockito.Mockito.*;
+import static org.testng.Assert.*;
+import static java.util.Arrays.asList;
+import java.util.List;
+import java.util.ArrayList;
 import org.testng.annotations.Test;
 import org.testng.annotations.BeforeMethod;
 
@@ -28,6 +33,8 @@ public class UniqueDependenciesTests {
    private Dependencies delegate;
    private Dependencies.Object delegateObject;
    private Dependencies.Method delegateMethod;
+   private List<String> delegatedCalls;
+   private Symbols symbols;
    private UniqueDependencies dependencies;
 
    public void testObjectsIsDelegated() {
@@ -84,6 +91,110 @@ public class UniqueDependenciesTests {
       verify(delegateMethod).reference("a.B", "f");
    }
 
+   public void testCallAndReferenceWithSameNamesAreBothDelegated() {
+      Dependencies.Method method = dependencies
+         .object("a.B", false, false, new String[] {})
+         .method("c", false);
+         
+      method.call("d.E", "f");
+      method.reference("d.E", "f");
+
+      verify(delegateMethod).call("d.E", "f");
+      verify(delegateMethod).reference("d.E", "f");
+   }
+
+   public void testSameMethodCallIsDelegatedForNextMethod() {
+      Dependencies.Object object = dependencies.object("a.B", false, false, new String[] {});
+      Dependencies.Method method1 = object.method("c", false);
+      method1.call("d.E", "f");
+      method1.close();
+      Dependencies.Method method2 = object.method("d", false);
+
+      method2.call("d.E", "f");
+
+      verify(delegateMethod, times(2)).call("d.E", "f");
+   }
+
+   public void testSameMethodCallIsDelegatedForOverlappingMethods() {
+      Dependencies.Object object = dependencies.object("a.B", false, false, new String[] {});
+      Dependencies.Method method1 = object.method("c", false);
+      Dependencies.Method method2 = object.method("d", false);
+
+      method1.call("d.E", "f");
+      method2.call("d.E", "f");
+
+      verify(delegateMethod, times(2)).call("d.E", "f");
+   }
+
+   public void testBatchOfCallsIsDelegatedWithoutDuplicates() {
+      Dependencies.Method method = dependencies
+         .object("a.B", false, false, new String[] {})
+         .method("c", false);
+      method.call("d.E", "f");
+
+      method.calls(symbols, ids("d.E", "d.E", "d.E", "x.Y"), ids("f", "g", "g", "z"), 3);
+
+      assertEquals(delegatedCalls, asList("d.E.g"));
+   }
+
+   public void testBatchOfOnlyDuplicatesIsNotDelegated() {
+      Dependencies.Method method = dependencies
+         .object("a.B", false, false, new String[] {})
+         .method("c", false);
+      method.reference("d.E", "f");
+
+      method.references(symbols, ids("d.E"), ids("f"), 1);
+
+      verify(delegateMethod, never()).references(any(Symbols.class), any(int[].class), any(int[].class), anyInt());
+   }
+
+   public void testCallAfterCloseDoesNotAffectNextMethod() {
+      Dependencies.Object object = dependencies.object("a.B", false, false);
+      Dependencies.Method method1 = object.method("c", false);
+      method1.close();
+      method1.call("d.E", "f");
+      Dependencies.Method method2 = object.method("g", false);
+      method2.call("d.E", "f");
+      method2.close();
+
+      verify(delegateMethod, times(2)).call("d.E", "f");
+   }
+
+   public void testCallsByIdsAreDelegatedOnlyOnceByIds() {
+      Dependencies.Method method = dependencies
+         .object("a.B", false, false, new String[] {})
+         .method("c", false);
+      int objectId = symbols.id("d.E");
+      int methodId = symbols.id("f");
+
+      method.call(symbols, objectId, methodId);
+      method.call("d.E", "f");
+      method.call(symbols, objectId, methodId);
+
+      verify(delegateMethod).call(symbols, objectId, methodId);
+      verify(delegateMethod, never()).call("d.E", "f");
+   }
+
+   public void testCallsByIdsOfOtherSymbolsAreDelegatedByNames() {
+      Symbols otherSymbols = new Symbols();
+      otherSymbols.id("x.Y");
+
+      dependencies
+         .object("a.B", false, false, new String[] {})
+         .method("c", false)
+         .call(otherSymbols, otherSymbols.id("d.E"), otherSymbols.id("f"));
+
+      verify(delegateMethod).call("d.E", "f");
+   }
+
+   private int[] ids(String... names) {
+      int[] ids = new int[names.length];
+      for (int i=0; i<names.length; i++) {
+         ids[i] = symbols.id(names[i]);
+      }
+      return ids;
+   }
+
    @BeforeMethod
    protected void setUp() {
       delegate = mock(Dependencies.class);
@@ -91,7 +202,19 @@ public class UniqueDependenciesTests {
       when(delegate.object(anyString(), anyBoolean(), anyBoolean(), anyVararg())).thenReturn(delegateObject);
       delegateMethod = mock(Dependencies.Method.class);
       when(delegateObject.method(anyString(), anyBoolean())).thenReturn(delegateMethod);
-      dependencies = new UniqueDependencies(delegate);
+      delegatedCalls = new ArrayList<>();
+      // Batches are reused after the call, so their content is recorded immediately
+      doAnswer(invocation -> {
+         Symbols symbols = (Symbols) invocation.getArguments()[0];
+         int[] objectIds = (int[]) invocation.getArguments()[1];
+         int[] methodIds = (int[]) invocation.getArguments()[2];
+         for (int i=0; i<(Integer) invocation.getArguments()[3]; i++) {
+            delegatedCalls.add(symbols.name(objectIds[i])+"."+symbols.name(methodIds[i]));
+         }
+         return null;
+      }).when(delegateMethod).calls(any(Symbols.class), any(int[].class), any(int[].class), anyInt());
+      symbols = new Symbols();
+      dependencies = new UniqueDependencies(symbols, delegate);
    }
 }
 
@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2018 VanillaSource
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package com.vanillasource.forcedep.flow;
+
+import com.vanillasource.forcedep.flow.DependencyEvent.Type;
+import static org.testng.Assert.*;
+import org.testng.annotations.Test;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@Test
+public class JdkFlowTests {
+   public void testAnalysisIsPublishedToStandardSubscriber() throws Exception {
+      java.util.concurrent.Flow.Publisher<DependencyEvent> publisher = JdkFlow.publisher(new AnalysisPublisher(dependencies -> {
+         dependencies.object("a.B", false, false).close();
+      }));
+      StandardSubscriber subscriber = new StandardSubscriber();
+
+      publisher.subscribe(subscriber);
+      subscriber.subscription.request(Long.MAX_VALUE);
+
+      assertTrue(subscriber.done.await(10, TimeUnit.SECONDS));
+      assertTrue(subscriber.completed);
+      assertEquals(subscriber.events.size(), 2);
+      assertEquals(subscriber.events.get(0).getType(), Type.OBJECT);
+   }
+
+   public void testCancelIsPassedToPublisher() throws Exception {
+      CountDownLatch cancelled = new CountDownLatch(1);
+      java.util.concurrent.Flow.Publisher<DependencyEvent> publisher = JdkFlow.publisher(subscriber -> subscriber.onSubscribe(new Flow.Subscription() {
+         @Override
+         public void request(long n) {
+         }
+
+         @Override
+         public void cancel() {
+            cancelled.countDown();
+         }
+      }));
+      StandardSubscriber subscriber = new StandardSubscriber();
+
+      publisher.subscribe(subscriber);
+      subscriber.subscription.cancel();
+
+      assertEquals(cancelled.getCount(), 0);
+   }
+
+   private static final class StandardSubscriber implements java.util.concurrent.Flow.Subscriber<DependencyEvent> {
+      private final List<DependencyEvent> events = new CopyOnWriteArrayList<>();
+      private final CountDownLatch done = new CountDownLatch(1);
+      private volatile java.util.concurrent.Flow.Subscription subscription;
+      private volatile boolean completed = false;
+
+      @Override
+      public void onSubscribe(java.util.concurrent.Flow.Subscription subscription) {
+         this.subscription = subscription;
+      }
+
+      @Override
+      public void onNext(DependencyEvent event) {
+         events.add(event);
+      }
+
+      @Override
+      public void onError(Throwable throwable) {
+         done.countDown();
+      }
+
+      @Override
+      public void onComplete() {
+         completed = true;
+         done.countDown();
+      }
+   }
+}